@@ -13,8 +13,13 @@
  */
 package io.airlift.bytecode;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.util.CheckClassAdapter;
 import org.objectweb.asm.util.Textifier;
 import org.objectweb.asm.util.TraceClassVisitor;
@@ -26,12 +31,21 @@ import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.Set;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.io.CharStreams.nullWriter;
 import static io.airlift.bytecode.ParameterizedType.typeFromJavaClassName;
 import static java.nio.file.Files.createDirectories;
 import static java.util.Objects.requireNonNull;
+import static org.objectweb.asm.Opcodes.ASM9;
 
 class ByteCodeGenerator
 {
@@ -40,10 +54,14 @@ class ByteCodeGenerator
     private final boolean dumpRawBytecode;
     private final Writer output;
     private final Optional<Path> dumpClassPath;
+    private final boolean computeFramesFromDeclaredTypes;
+    private final int maximumMethodSize;
+    private final int maximumConstantPoolSize;
+    private final int maximumMethodCount;
 
     public static ByteCodeGenerator byteCodeGenerator()
     {
-        return new ByteCodeGenerator(false, null, false, nullWriter(), Optional.empty());
+        return new ByteCodeGenerator(false, null, false, nullWriter(), Optional.empty(), false, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
     }
 
     private ByteCodeGenerator(
@@ -51,46 +69,132 @@ class ByteCodeGenerator
             ClassLoader runAsmVerifierClassLoader,
             boolean dumpRawBytecode,
             Writer output,
-            Optional<Path> dumpClassPath)
+            Optional<Path> dumpClassPath,
+            boolean computeFramesFromDeclaredTypes,
+            int maximumMethodSize,
+            int maximumConstantPoolSize,
+            int maximumMethodCount)
     {
         this.fakeLineNumbers = fakeLineNumbers;
         this.runAsmVerifierClassLoader = runAsmVerifierClassLoader;
         this.dumpRawBytecode = dumpRawBytecode;
         this.output = requireNonNull(output, "output is null");
         this.dumpClassPath = requireNonNull(dumpClassPath, "dumpClassPath is null");
+        this.computeFramesFromDeclaredTypes = computeFramesFromDeclaredTypes;
+        checkArgument(maximumMethodSize > 0, "maximumMethodSize must be positive");
+        this.maximumMethodSize = maximumMethodSize;
+        checkArgument(maximumConstantPoolSize > 0, "maximumConstantPoolSize must be positive");
+        this.maximumConstantPoolSize = maximumConstantPoolSize;
+        checkArgument(maximumMethodCount > 0, "maximumMethodCount must be positive");
+        this.maximumMethodCount = maximumMethodCount;
     }
 
     public ByteCodeGenerator fakeLineNumbers(boolean fakeLineNumbers)
     {
-        return new ByteCodeGenerator(fakeLineNumbers, runAsmVerifierClassLoader, dumpRawBytecode, output, dumpClassPath);
+        return new ByteCodeGenerator(fakeLineNumbers, runAsmVerifierClassLoader, dumpRawBytecode, output, dumpClassPath, computeFramesFromDeclaredTypes, maximumMethodSize, maximumConstantPoolSize, maximumMethodCount);
     }
 
     public ByteCodeGenerator runAsmVerifier(ClassLoader runAsmVerifierClassLoader)
     {
-        return new ByteCodeGenerator(fakeLineNumbers, runAsmVerifierClassLoader, dumpRawBytecode, output, dumpClassPath);
+        return new ByteCodeGenerator(fakeLineNumbers, runAsmVerifierClassLoader, dumpRawBytecode, output, dumpClassPath, computeFramesFromDeclaredTypes, maximumMethodSize, maximumConstantPoolSize, maximumMethodCount);
     }
 
     public ByteCodeGenerator dumpRawBytecode(boolean dumpRawBytecode)
     {
-        return new ByteCodeGenerator(fakeLineNumbers, runAsmVerifierClassLoader, dumpRawBytecode, output, dumpClassPath);
+        return new ByteCodeGenerator(fakeLineNumbers, runAsmVerifierClassLoader, dumpRawBytecode, output, dumpClassPath, computeFramesFromDeclaredTypes, maximumMethodSize, maximumConstantPoolSize, maximumMethodCount);
     }
 
     public ByteCodeGenerator outputTo(Writer output)
     {
-        return new ByteCodeGenerator(fakeLineNumbers, runAsmVerifierClassLoader, dumpRawBytecode, output, dumpClassPath);
+        return new ByteCodeGenerator(fakeLineNumbers, runAsmVerifierClassLoader, dumpRawBytecode, output, dumpClassPath, computeFramesFromDeclaredTypes, maximumMethodSize, maximumConstantPoolSize, maximumMethodCount);
     }
 
     public ByteCodeGenerator dumpClassFilesTo(Optional<Path> dumpClassPath)
     {
-        return new ByteCodeGenerator(fakeLineNumbers, runAsmVerifierClassLoader, dumpRawBytecode, output, dumpClassPath);
+        return new ByteCodeGenerator(fakeLineNumbers, runAsmVerifierClassLoader, dumpRawBytecode, output, dumpClassPath, computeFramesFromDeclaredTypes, maximumMethodSize, maximumConstantPoolSize, maximumMethodCount);
     }
 
+    public ByteCodeGenerator computeFramesFromDeclaredTypes(boolean computeFramesFromDeclaredTypes)
+    {
+        return new ByteCodeGenerator(fakeLineNumbers, runAsmVerifierClassLoader, dumpRawBytecode, output, dumpClassPath, computeFramesFromDeclaredTypes, maximumMethodSize, maximumConstantPoolSize, maximumMethodCount);
+    }
+
+    /**
+     * Moves statements of methods with more bytecode than the maximum size to
+     * separate methods. HotSpot does not compile methods larger than 8000 bytes.
+     */
+    public ByteCodeGenerator maximumMethodSize(int maximumMethodSize)
+    {
+        return new ByteCodeGenerator(fakeLineNumbers, runAsmVerifierClassLoader, dumpRawBytecode, output, dumpClassPath, computeFramesFromDeclaredTypes, maximumMethodSize, maximumConstantPoolSize, maximumMethodCount);
+    }
+
+    /**
+     * Moves methods of classes with more constants or methods than the maximum to
+     * nestmate classes. The constant pool of a class is limited to 65535 entries.
+     */
+    public ByteCodeGenerator maximumConstantPoolSize(int maximumConstantPoolSize)
+    {
+        return new ByteCodeGenerator(fakeLineNumbers, runAsmVerifierClassLoader, dumpRawBytecode, output, dumpClassPath, computeFramesFromDeclaredTypes, maximumMethodSize, maximumConstantPoolSize, maximumMethodCount);
+    }
+
+    public ByteCodeGenerator maximumMethodCount(int maximumMethodCount)
+    {
+        return new ByteCodeGenerator(fakeLineNumbers, runAsmVerifierClassLoader, dumpRawBytecode, output, dumpClassPath, computeFramesFromDeclaredTypes, maximumMethodSize, maximumConstantPoolSize, maximumMethodCount);
+    }
+
+    // options that change the generated bytecode, which must be part of the key of a persistent cache
+    int getBytecodeOptions()
+    {
+        return (fakeLineNumbers ? 1 : 0) | (computeFramesFromDeclaredTypes ? 2 : 0);
+    }
+
+    int getMaximumMethodSize()
+    {
+        return maximumMethodSize;
+    }
+
+    int getMaximumConstantPoolSize()
+    {
+        return maximumConstantPoolSize;
+    }
+
+    int getMaximumMethodCount()
+    {
+        return maximumMethodCount;
+    }
+
+    /**
+     * Generates the bytecode of the class. Classes that are split into nest members,
+     * because of the maximum constant pool size or method count, can only be generated
+     * by {@link ClassGenerator}, which also defines the nest members.
+     */
     public byte[] generateByteCode(ClassInfoLoader classInfoLoader, ClassDefinition classDefinition)
     {
-        ClassWriter writer = new SmartClassWriter(classInfoLoader);
+        GeneratedByteCode generatedByteCode = generate(classInfoLoader, classDefinition);
+        checkState(generatedByteCode.getNestMembers().isEmpty(), "Class %s was split into nest members %s, which must be generated with ClassGenerator", classDefinition.getName(), generatedByteCode.getNestMembers().keySet());
+        return generatedByteCode.getBytecode();
+    }
 
+    GeneratedByteCode generate(ClassInfoLoader classInfoLoader, ClassDefinition classDefinition)
+    {
+        long start = System.nanoTime();
+        SmartClassWriter writer = createClassWriter(classInfoLoader);
+        Map<String, SmartClassWriter> nestMemberWriters = new LinkedHashMap<>();
         try {
-            classDefinition.visit(fakeLineNumbers ? new AddFakeLineNumberClassVisitor(writer) : writer);
+            if (maximumConstantPoolSize == Integer.MAX_VALUE && maximumMethodCount == Integer.MAX_VALUE) {
+                classDefinition.visit(createClassVisitor(writer), maximumMethodSize);
+            }
+            else {
+                ClassNode classNode = new ClassNode(ASM9);
+                classDefinition.visit(classNode, maximumMethodSize);
+                List<ClassNode> classNodes = new ClassSplitter(classInfoLoader, maximumConstantPoolSize, maximumMethodCount).split(classNode);
+                classNodes.get(0).accept(createClassVisitor(writer));
+                for (ClassNode nestMember : classNodes.subList(1, classNodes.size())) {
+                    SmartClassWriter nestMemberWriter = createClassWriter(classInfoLoader);
+                    nestMember.accept(createClassVisitor(nestMemberWriter));
+                    nestMemberWriters.put(Type.getObjectType(nestMember.name).getClassName(), nestMemberWriter);
+                }
+            }
         }
         catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
             StringWriter out = new StringWriter();
@@ -98,27 +202,76 @@ class ByteCodeGenerator
             throw new IllegalArgumentException("Error processing class definition:\n" + out, e);
         }
 
-        byte[] bytecode;
+        long visitEnd = System.nanoTime();
+
+        byte[] bytecode = toByteArray(writer, classDefinition.getName());
+        Map<String, byte[]> nestMembers = new LinkedHashMap<>();
+        for (Entry<String, SmartClassWriter> entry : nestMemberWriters.entrySet()) {
+            nestMembers.put(entry.getKey(), toByteArray(entry.getValue(), entry.getKey()));
+        }
+
+        long toByteArrayEnd = System.nanoTime();
+
+        // the splitter walks the superclasses of the class
+        Set<String> hierarchyTypes = new HashSet<>(writer.getHierarchyTypes());
+        hierarchyTypes.add(classDefinition.getSuperClass().getClassName());
+        nestMemberWriters.values().forEach(nestMemberWriter -> hierarchyTypes.addAll(nestMemberWriter.getHierarchyTypes()));
+
+        dumpClassPath.ifPresent(path -> {
+            dumpClassFile(path, classDefinition.getType().getJavaClassName(), bytecode);
+            nestMembers.forEach((className, nestMemberBytecode) -> dumpClassFile(path, className, nestMemberBytecode));
+        });
+
+        if (dumpRawBytecode || runAsmVerifierClassLoader != null) {
+            // classes may be generated in parallel, so keep the output of each class together
+            synchronized (output) {
+                verify(bytecode);
+                nestMembers.values().forEach(this::verify);
+            }
+        }
+
+        return new GeneratedByteCode(bytecode, nestMembers, hierarchyTypes, visitEnd - start, toByteArrayEnd - visitEnd, System.nanoTime() - toByteArrayEnd);
+    }
+
+    private SmartClassWriter createClassWriter(ClassInfoLoader classInfoLoader)
+    {
+        return new SmartClassWriter(classInfoLoader, computeFramesFromDeclaredTypes ? 0 : ClassWriter.COMPUTE_FRAMES);
+    }
+
+    private ClassVisitor createClassVisitor(SmartClassWriter writer)
+    {
+        ClassVisitor visitor = fakeLineNumbers ? new AddFakeLineNumberClassVisitor(writer) : writer;
+        if (computeFramesFromDeclaredTypes) {
+            visitor = new FrameComputingClassVisitor(visitor, writer);
+        }
+        return visitor;
+    }
+
+    private static byte[] toByteArray(SmartClassWriter writer, String className)
+    {
         try {
-            bytecode = writer.toByteArray();
+            return writer.toByteArray();
         }
         catch (RuntimeException e) {
-            throw new CompilationException("Error compiling class: " + classDefinition.getName(), e);
+            throw new CompilationException("Error compiling class: " + className, e);
         }
+    }
 
-        dumpClassPath.ifPresent(path -> {
-            String className = classDefinition.getType().getJavaClassName();
-            String name = typeFromJavaClassName(className).getClassName() + ".class";
-            Path file = path.resolve(name).toAbsolutePath();
-            try {
-                createDirectories(file.getParent());
-                Files.write(file, bytecode);
-            }
-            catch (IOException e) {
-                throw new UncheckedIOException("Failed to write generated class file: " + file, e);
-            }
-        });
+    private static void dumpClassFile(Path path, String className, byte[] bytecode)
+    {
+        String name = typeFromJavaClassName(className).getClassName() + ".class";
+        Path file = path.resolve(name).toAbsolutePath();
+        try {
+            createDirectories(file.getParent());
+            Files.write(file, bytecode);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to write generated class file: " + file, e);
+        }
+    }
 
+    private void verify(byte[] bytecode)
+    {
         if (dumpRawBytecode) {
             ClassReader classReader = new ClassReader(bytecode);
             classReader.accept(new TraceClassVisitor(new PrintWriter(output)), ClassReader.EXPAND_FRAMES);
@@ -128,7 +281,67 @@ class ByteCodeGenerator
             ClassReader reader = new ClassReader(bytecode);
             CheckClassAdapter.verify(reader, runAsmVerifierClassLoader, true, new PrintWriter(output));
         }
+    }
+
+    static final class GeneratedByteCode
+    {
+        private final byte[] bytecode;
+        private final Map<String, byte[]> nestMembers;
+        private final Set<String> hierarchyTypes;
+        private final long visitNanos;
+        private final long toByteArrayNanos;
+        private final long verifyNanos;
+
+        // bytecode that was not generated in this process
+        static GeneratedByteCode loaded(byte[] bytecode)
+        {
+            return new GeneratedByteCode(bytecode, ImmutableMap.of(), ImmutableSet.of(), 0, 0, 0);
+        }
+
+        private GeneratedByteCode(byte[] bytecode, Map<String, byte[]> nestMembers, Set<String> hierarchyTypes, long visitNanos, long toByteArrayNanos, long verifyNanos)
+        {
+            this.bytecode = requireNonNull(bytecode, "bytecode is null");
+            this.nestMembers = ImmutableMap.copyOf(requireNonNull(nestMembers, "nestMembers is null"));
+            this.hierarchyTypes = ImmutableSet.copyOf(requireNonNull(hierarchyTypes, "hierarchyTypes is null"));
+            this.visitNanos = visitNanos;
+            this.toByteArrayNanos = toByteArrayNanos;
+            this.verifyNanos = verifyNanos;
+        }
+
+        public byte[] getBytecode()
+        {
+            return bytecode;
+        }
 
-        return bytecode;
+        /**
+         * Classes the methods of the class were moved to, which must be defined with the class.
+         */
+        public Map<String, byte[]> getNestMembers()
+        {
+            return nestMembers;
+        }
+
+        /**
+         * Internal names of the types whose class hierarchy the bytecode depends on.
+         */
+        public Set<String> getHierarchyTypes()
+        {
+            return hierarchyTypes;
+        }
+
+        public long getVisitNanos()
+        {
+            return visitNanos;
+        }
+
+        public long getToByteArrayNanos()
+        {
+            return toByteArrayNanos;
+        }
+
+        public long getVerifyNanos()
+        {
+            return verifyNanos;
+        }
     }
 }
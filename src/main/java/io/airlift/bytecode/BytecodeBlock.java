@@ -14,6 +14,7 @@
 package io.airlift.bytecode;
 
 import com.google.common.collect.ImmutableList;
+import io.airlift.bytecode.MethodSplitter.SplitMethod;
 import io.airlift.bytecode.debug.LineNumberNode;
 import io.airlift.bytecode.instruction.Constant;
 import io.airlift.bytecode.instruction.InvokeInstruction;
@@ -32,6 +33,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static io.airlift.bytecode.Access.STATIC;
@@ -946,8 +948,25 @@ public class BytecodeBlock
     @Override
     public void accept(MethodVisitor visitor, MethodGenerationContext generationContext)
     {
-        for (BytecodeNode node : nodes) {
-            node.accept(visitor, generationContext);
+        Map<Integer, SplitMethod> splitMethods = generationContext.getSplitMethods(this);
+        if (splitMethods.isEmpty()) {
+            for (BytecodeNode node : nodes) {
+                node.accept(visitor, generationContext);
+            }
+            return;
+        }
+
+        int index = 0;
+        while (index < nodes.size()) {
+            SplitMethod splitMethod = splitMethods.get(index);
+            if (splitMethod != null) {
+                splitMethod.invoke(visitor, generationContext);
+                index += splitMethod.getNodeCount();
+            }
+            else {
+                nodes.get(index).accept(visitor, generationContext);
+                index++;
+            }
         }
     }
 
@@ -0,0 +1,50 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("io.airlift.bytecode.ClassCache")
+@Label("Class Cache Lookup")
+@Category({"Airlift", "Bytecode"})
+@Description("Lookup of a batch of classes in a GeneratedClassCache or PersistentClassCache")
+class ClassCacheEvent
+        extends Event
+{
+    static final String GENERATED_CLASS_CACHE = "GeneratedClassCache";
+    static final String PERSISTENT_CLASS_CACHE = "PersistentClassCache";
+
+    @Label("Cache")
+    String cache;
+
+    @Label("Hit")
+    boolean hit;
+
+    @Label("Class Name")
+    @Description("Name of the first class of the batch")
+    String className;
+
+    @Label("Class Count")
+    int classCount;
+
+    @Label("Byte Size")
+    @Description("Size of the cached bytecode, only known for the persistent cache")
+    @DataAmount
+    long byteSize;
+}
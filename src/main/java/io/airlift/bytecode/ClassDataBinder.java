@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Primitives;
+import io.airlift.bytecode.expression.BytecodeExpression;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.bytecode.ParameterizedType.type;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantDynamic;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Binds live objects, such as method handles or lookup tables, to constants of generated
+ * classes. Each bound object is loaded with a dynamic constant, which is resolved once, so
+ * the JIT treats the object as a true constant. The objects are passed to the class as
+ * class data: use {@link HiddenClassGenerator#defineHiddenClass(ClassDefinition, Class, ClassDataBinder)}
+ * or {@link ClassGenerator#defineClasses(List, ClassDataBinder)} to define the classes
+ * using the binder.
+ */
+@ThreadSafe
+public final class ClassDataBinder
+{
+    private static final Method BOOTSTRAP_METHOD;
+
+    static {
+        try {
+            BOOTSTRAP_METHOD = ClassDataBinder.class.getMethod("classDataAt", Lookup.class, String.class, Class.class, int.class);
+        }
+        catch (NoSuchMethodException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @GuardedBy("this")
+    private final List<Object> classData = new ArrayList<>();
+    @GuardedBy("this")
+    private final Map<Object, Integer> indexes = new IdentityHashMap<>();
+
+    public BytecodeExpression bind(MethodHandle methodHandle)
+    {
+        return bind(methodHandle, MethodHandle.class);
+    }
+
+    public BytecodeExpression bind(Object value, Class<?> type)
+    {
+        requireNonNull(value, "value is null");
+        checkArgument(Primitives.wrap(type).isInstance(value), "value is not an instance of %s: %s", type.getName(), value.getClass().getName());
+        return constantDynamic("_", type(type), BOOTSTRAP_METHOD, getIndex(value));
+    }
+
+    private synchronized int getIndex(Object value)
+    {
+        // the same object is loaded from the same constant
+        return indexes.computeIfAbsent(value, ignored -> {
+            classData.add(value);
+            return classData.size() - 1;
+        });
+    }
+
+    /**
+     * The objects bound so far, in the form expected by {@link MethodHandles#classDataAt}.
+     */
+    public synchronized List<Object> getClassData()
+    {
+        return ImmutableList.copyOf(classData);
+    }
+
+    /**
+     * Bootstrap method of the dynamic constants. Hidden classes read their class data, while
+     * classes defined in a {@link DynamicClassLoader} read the class data registered in the loader.
+     */
+    public static Object classDataAt(Lookup lookup, String name, Class<?> type, int index)
+            throws IllegalAccessException
+    {
+        Class<?> lookupClass = lookup.lookupClass();
+        if (lookupClass.isHidden()) {
+            return MethodHandles.classDataAt(lookup, name, type, index);
+        }
+
+        checkArgument((lookup.lookupModes() & Lookup.ORIGINAL) != 0, "lookup does not have original access: %s", lookup);
+        if (!(lookupClass.getClassLoader() instanceof DynamicClassLoader classLoader)) {
+            throw new IllegalStateException("Class is not defined by a DynamicClassLoader: " + lookupClass.getName());
+        }
+        List<Object> classData = classLoader.getClassData(lookupClass.getName());
+        if (classData == null) {
+            // methods moved to a nestmate class use the class data of the class
+            classData = classLoader.getClassData(lookupClass.getNestHost().getName());
+        }
+        checkArgument(classData != null, "Class %s does not have class data", lookupClass.getName());
+        return classData.get(index);
+    }
+}
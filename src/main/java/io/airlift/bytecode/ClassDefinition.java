@@ -127,6 +127,15 @@ public class ClassDefinition
     }
 
     public void visit(ClassVisitor visitor)
+    {
+        visit(visitor, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Visits the class, moving statements of methods larger than the
+     * maximum method size to separate methods.
+     */
+    void visit(ClassVisitor visitor, int maximumMethodSize)
     {
         // Generic signature if super class or any interface is generic
         String signature = null;
@@ -157,13 +166,14 @@ public class ClassDefinition
         }
 
         // visit clinit method
+        MethodSplitter methodSplitter = new MethodSplitter(this, maximumMethodSize);
         if (!isInterface()) {
-            classInitializer.visit(visitor, true);
+            classInitializer.visit(visitor, true, methodSplitter);
         }
 
         // visit methods
         for (MethodDefinition method : methods) {
-            method.visit(visitor);
+            method.visit(visitor, false, methodSplitter);
         }
 
         // done
@@ -279,7 +289,8 @@ public class ClassDefinition
     {
         MethodDefinition methodDefinition = new MethodDefinition(this, access, name, returnType, parameters);
         for (MethodDefinition method : methods) {
-            if (name.equals(method.getName()) && method.getParameterTypes().equals(methodDefinition.getParameterTypes())) {
+            // methods that only differ in the return type, such as bridge methods, are distinct methods in the class file
+            if (name.equals(method.getName()) && method.getMethodDescriptor().equals(methodDefinition.getMethodDescriptor())) {
                 throw new IllegalArgumentException("Method with same name and signature already exists: " + name);
             }
         }
@@ -0,0 +1,586 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.RecordComponentVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.TypePath;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureWriter;
+
+import java.lang.reflect.Array;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.objectweb.asm.Opcodes.ASM9;
+
+/**
+ * Structural fingerprint of a batch of class definitions.
+ * <p>
+ * The fingerprint is computed from everything a class definition emits, including
+ * the instructions, constants, types and debug information of every method. The
+ * names of the classes in the batch are replaced by their position in the batch,
+ * so batches that only differ in the generated class names have the same
+ * fingerprint. Labels are identified by the order in which they are first seen.
+ */
+final class ClassDefinitionFingerprint
+{
+    // a semicolon can not appear in an internal name, so the placeholders can not clash with a real class
+    private static final String PLACEHOLDER_PREFIX = ";";
+
+    private ClassDefinitionFingerprint() {}
+
+    public static HashCode fingerprint(List<ClassDefinition> classDefinitions)
+    {
+        ImmutableMap.Builder<String, String> placeholders = ImmutableMap.builder();
+        for (int i = 0; i < classDefinitions.size(); i++) {
+            placeholders.put(classDefinitions.get(i).getType().getClassName(), PLACEHOLDER_PREFIX + i);
+        }
+
+        FingerprintClassVisitor visitor = new FingerprintClassVisitor(Hashing.sha256().newHasher(), placeholders.buildOrThrow());
+        visitor.putInt(classDefinitions.size());
+        for (ClassDefinition classDefinition : classDefinitions) {
+            classDefinition.visit(visitor);
+        }
+        return visitor.hasher.hash();
+    }
+
+    private static final class FingerprintClassVisitor
+            extends ClassVisitor
+    {
+        private final Hasher hasher;
+        private final Map<String, String> placeholders;
+        // labels of the current method, numbered in the order they are first seen
+        private final Map<Label, Integer> labels = new IdentityHashMap<>();
+
+        private FingerprintClassVisitor(Hasher hasher, Map<String, String> placeholders)
+        {
+            super(ASM9);
+            this.hasher = hasher;
+            this.placeholders = placeholders;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces)
+        {
+            putEvent("class").putInt(version).putInt(access).putName(name).putSignature(signature).putName(superName).putNames(interfaces);
+        }
+
+        @Override
+        public void visitSource(String source, String debug)
+        {
+            putEvent("source").putString(source).putString(debug);
+        }
+
+        @Override
+        public void visitNestHost(String nestHost)
+        {
+            putEvent("nestHost").putName(nestHost);
+        }
+
+        @Override
+        public void visitOuterClass(String owner, String name, String descriptor)
+        {
+            putEvent("outerClass").putName(owner).putString(name).putDescriptor(descriptor);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible)
+        {
+            putEvent("annotation").putDescriptor(descriptor).putBoolean(visible);
+            return new FingerprintAnnotationVisitor();
+        }
+
+        @Override
+        public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible)
+        {
+            throw new UnsupportedOperationException("Type annotations are not supported");
+        }
+
+        @Override
+        public void visitAttribute(Attribute attribute)
+        {
+            throw new UnsupportedOperationException("Attributes are not supported");
+        }
+
+        @Override
+        public void visitNestMember(String nestMember)
+        {
+            putEvent("nestMember").putName(nestMember);
+        }
+
+        @Override
+        public void visitPermittedSubclass(String permittedSubclass)
+        {
+            putEvent("permittedSubclass").putName(permittedSubclass);
+        }
+
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access)
+        {
+            putEvent("innerClass").putName(name).putName(outerName).putString(innerName).putInt(access);
+        }
+
+        @Override
+        public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature)
+        {
+            throw new UnsupportedOperationException("Records are not supported");
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value)
+        {
+            putEvent("field").putInt(access).putString(name).putDescriptor(descriptor).putSignature(signature).putValue(value);
+            return new FieldVisitor(ASM9)
+            {
+                @Override
+                public AnnotationVisitor visitAnnotation(String descriptor, boolean visible)
+                {
+                    putEvent("fieldAnnotation").putDescriptor(descriptor).putBoolean(visible);
+                    return new FingerprintAnnotationVisitor();
+                }
+
+                @Override
+                public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible)
+                {
+                    throw new UnsupportedOperationException("Type annotations are not supported");
+                }
+
+                @Override
+                public void visitAttribute(Attribute attribute)
+                {
+                    throw new UnsupportedOperationException("Attributes are not supported");
+                }
+
+                @Override
+                public void visitEnd()
+                {
+                    putEvent("fieldEnd");
+                }
+            };
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions)
+        {
+            putEvent("method").putInt(access).putString(name).putDescriptor(descriptor).putSignature(signature).putNames(exceptions);
+            labels.clear();
+            return new FingerprintMethodVisitor();
+        }
+
+        @Override
+        public void visitEnd()
+        {
+            putEvent("classEnd");
+        }
+
+        private FingerprintClassVisitor putEvent(String event)
+        {
+            return putString(event);
+        }
+
+        private FingerprintClassVisitor putInt(int value)
+        {
+            hasher.putInt(value);
+            return this;
+        }
+
+        private FingerprintClassVisitor putBoolean(boolean value)
+        {
+            hasher.putBoolean(value);
+            return this;
+        }
+
+        private FingerprintClassVisitor putString(String value)
+        {
+            if (value == null) {
+                hasher.putInt(-1);
+            }
+            else {
+                hasher.putInt(value.length()).putUnencodedChars(value);
+            }
+            return this;
+        }
+
+        private FingerprintClassVisitor putName(String internalName)
+        {
+            return putString(mapName(internalName));
+        }
+
+        private FingerprintClassVisitor putNames(String[] internalNames)
+        {
+            if (internalNames == null) {
+                return putInt(-1);
+            }
+            putInt(internalNames.length);
+            for (String internalName : internalNames) {
+                putName(internalName);
+            }
+            return this;
+        }
+
+        private FingerprintClassVisitor putDescriptor(String descriptor)
+        {
+            return putString(descriptor == null ? null : mapType(Type.getType(descriptor)).getDescriptor());
+        }
+
+        private FingerprintClassVisitor putSignature(String signature)
+        {
+            if (signature == null) {
+                return putString(null);
+            }
+            SignatureWriter writer = new SignatureWriter()
+            {
+                @Override
+                public void visitClassType(String name)
+                {
+                    super.visitClassType(mapName(name));
+                }
+            };
+            new SignatureReader(signature).accept(writer);
+            return putString(writer.toString());
+        }
+
+        private FingerprintClassVisitor putValue(Object value)
+        {
+            if (value == null) {
+                return putEvent("null");
+            }
+            if (value instanceof Type type) {
+                return putEvent("type").putString(mapType(type).getDescriptor());
+            }
+            if (value instanceof Handle handle) {
+                return putEvent("handle").putInt(handle.getTag()).putName(handle.getOwner()).putString(handle.getName()).putDescriptor(handle.getDesc()).putBoolean(handle.isInterface());
+            }
+            if (value instanceof ConstantDynamic constantDynamic) {
+                putEvent("condy").putString(constantDynamic.getName()).putDescriptor(constantDynamic.getDescriptor()).putValue(constantDynamic.getBootstrapMethod());
+                putInt(constantDynamic.getBootstrapMethodArgumentCount());
+                for (int i = 0; i < constantDynamic.getBootstrapMethodArgumentCount(); i++) {
+                    putValue(constantDynamic.getBootstrapMethodArgument(i));
+                }
+                return this;
+            }
+            if (value instanceof Float floatValue) {
+                return putEvent("float").putInt(Float.floatToRawIntBits(floatValue));
+            }
+            if (value instanceof Double doubleValue) {
+                putEvent("double");
+                hasher.putLong(Double.doubleToRawLongBits(doubleValue));
+                return this;
+            }
+            if (value.getClass().isArray()) {
+                putEvent("array").putString(value.getClass().getName()).putInt(Array.getLength(value));
+                for (int i = 0; i < Array.getLength(value); i++) {
+                    putValue(Array.get(value, i));
+                }
+                return this;
+            }
+            // strings, boxed integral primitives and characters
+            return putString(value.getClass().getName()).putString(value.toString());
+        }
+
+        private FingerprintClassVisitor putLabel(Label label)
+        {
+            return putInt(labels.computeIfAbsent(label, ignored -> labels.size()));
+        }
+
+        private FingerprintClassVisitor putLabels(Label[] labels)
+        {
+            putInt(labels.length);
+            for (Label label : labels) {
+                putLabel(label);
+            }
+            return this;
+        }
+
+        private String mapName(String internalName)
+        {
+            if (internalName == null) {
+                return null;
+            }
+            if (internalName.startsWith("[")) {
+                return mapType(Type.getType(internalName)).getDescriptor();
+            }
+            return placeholders.getOrDefault(internalName, internalName);
+        }
+
+        private Type mapType(Type type)
+        {
+            return switch (type.getSort()) {
+                case Type.ARRAY -> Type.getType("[".repeat(type.getDimensions()) + mapType(type.getElementType()).getDescriptor());
+                case Type.OBJECT -> placeholders.containsKey(type.getInternalName()) ? Type.getObjectType(placeholders.get(type.getInternalName())) : type;
+                case Type.METHOD -> {
+                    Type[] argumentTypes = type.getArgumentTypes();
+                    for (int i = 0; i < argumentTypes.length; i++) {
+                        argumentTypes[i] = mapType(argumentTypes[i]);
+                    }
+                    yield Type.getMethodType(mapType(type.getReturnType()), argumentTypes);
+                }
+                default -> type;
+            };
+        }
+
+        private final class FingerprintAnnotationVisitor
+                extends AnnotationVisitor
+        {
+            private FingerprintAnnotationVisitor()
+            {
+                super(ASM9);
+            }
+
+            @Override
+            public void visit(String name, Object value)
+            {
+                putEvent("value").putString(name).putValue(value);
+            }
+
+            @Override
+            public void visitEnum(String name, String descriptor, String value)
+            {
+                putEvent("enum").putString(name).putDescriptor(descriptor).putString(value);
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String name, String descriptor)
+            {
+                putEvent("nestedAnnotation").putString(name).putDescriptor(descriptor);
+                return this;
+            }
+
+            @Override
+            public AnnotationVisitor visitArray(String name)
+            {
+                putEvent("array").putString(name);
+                return this;
+            }
+
+            @Override
+            public void visitEnd()
+            {
+                putEvent("annotationEnd");
+            }
+        }
+
+        private final class FingerprintMethodVisitor
+                extends MethodVisitor
+        {
+            private FingerprintMethodVisitor()
+            {
+                super(ASM9);
+            }
+
+            @Override
+            public void visitParameter(String name, int access)
+            {
+                putEvent("parameter").putString(name).putInt(access);
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotationDefault()
+            {
+                putEvent("annotationDefault");
+                return new FingerprintAnnotationVisitor();
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible)
+            {
+                putEvent("methodAnnotation").putDescriptor(descriptor).putBoolean(visible);
+                return new FingerprintAnnotationVisitor();
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible)
+            {
+                throw new UnsupportedOperationException("Type annotations are not supported");
+            }
+
+            @Override
+            public void visitAnnotableParameterCount(int parameterCount, boolean visible)
+            {
+                putEvent("annotableParameterCount").putInt(parameterCount).putBoolean(visible);
+            }
+
+            @Override
+            public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible)
+            {
+                putEvent("parameterAnnotation").putInt(parameter).putDescriptor(descriptor).putBoolean(visible);
+                return new FingerprintAnnotationVisitor();
+            }
+
+            @Override
+            public void visitAttribute(Attribute attribute)
+            {
+                throw new UnsupportedOperationException("Attributes are not supported");
+            }
+
+            @Override
+            public void visitCode()
+            {
+                putEvent("code");
+            }
+
+            @Override
+            public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack)
+            {
+                throw new UnsupportedOperationException("Frames are not supported");
+            }
+
+            @Override
+            public void visitInsn(int opcode)
+            {
+                putInt(opcode);
+            }
+
+            @Override
+            public void visitIntInsn(int opcode, int operand)
+            {
+                putInt(opcode).putInt(operand);
+            }
+
+            @Override
+            public void visitVarInsn(int opcode, int varIndex)
+            {
+                putInt(opcode).putInt(varIndex);
+            }
+
+            @Override
+            public void visitTypeInsn(int opcode, String type)
+            {
+                putInt(opcode).putName(type);
+            }
+
+            @Override
+            public void visitFieldInsn(int opcode, String owner, String name, String descriptor)
+            {
+                putInt(opcode).putName(owner).putString(name).putDescriptor(descriptor);
+            }
+
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface)
+            {
+                putInt(opcode).putName(owner).putString(name).putDescriptor(descriptor).putBoolean(isInterface);
+            }
+
+            @Override
+            public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments)
+            {
+                putEvent("indy").putString(name).putDescriptor(descriptor).putValue(bootstrapMethodHandle).putValue(bootstrapMethodArguments);
+            }
+
+            @Override
+            public void visitJumpInsn(int opcode, Label label)
+            {
+                putInt(opcode).putLabel(label);
+            }
+
+            @Override
+            public void visitLabel(Label label)
+            {
+                putEvent("label").putLabel(label);
+            }
+
+            @Override
+            public void visitLdcInsn(Object value)
+            {
+                putEvent("ldc").putValue(value);
+            }
+
+            @Override
+            public void visitIincInsn(int varIndex, int increment)
+            {
+                putEvent("iinc").putInt(varIndex).putInt(increment);
+            }
+
+            @Override
+            public void visitTableSwitchInsn(int min, int max, Label defaultLabel, Label... labels)
+            {
+                putEvent("tableSwitch").putInt(min).putInt(max).putLabel(defaultLabel).putLabels(labels);
+            }
+
+            @Override
+            public void visitLookupSwitchInsn(Label defaultLabel, int[] keys, Label[] labels)
+            {
+                putEvent("lookupSwitch").putLabel(defaultLabel).putValue(keys).putLabels(labels);
+            }
+
+            @Override
+            public void visitMultiANewArrayInsn(String descriptor, int numDimensions)
+            {
+                putEvent("multiANewArray").putDescriptor(descriptor).putInt(numDimensions);
+            }
+
+            @Override
+            public AnnotationVisitor visitInsnAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible)
+            {
+                throw new UnsupportedOperationException("Type annotations are not supported");
+            }
+
+            @Override
+            public void visitTryCatchBlock(Label start, Label end, Label handler, String type)
+            {
+                putEvent("tryCatch").putLabel(start).putLabel(end).putLabel(handler).putName(type);
+            }
+
+            @Override
+            public AnnotationVisitor visitTryCatchAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible)
+            {
+                throw new UnsupportedOperationException("Type annotations are not supported");
+            }
+
+            @Override
+            public void visitLocalVariable(String name, String descriptor, String signature, Label start, Label end, int index)
+            {
+                putEvent("localVariable").putString(name).putDescriptor(descriptor).putSignature(signature).putLabel(start).putLabel(end).putInt(index);
+            }
+
+            @Override
+            public AnnotationVisitor visitLocalVariableAnnotation(int typeRef, TypePath typePath, Label[] start, Label[] end, int[] index, String descriptor, boolean visible)
+            {
+                throw new UnsupportedOperationException("Type annotations are not supported");
+            }
+
+            @Override
+            public void visitLineNumber(int line, Label start)
+            {
+                putEvent("lineNumber").putInt(line).putLabel(start);
+            }
+
+            @Override
+            public void visitMaxs(int maxStack, int maxLocals)
+            {
+                putEvent("maxs").putInt(maxStack).putInt(maxLocals);
+            }
+
+            @Override
+            public void visitEnd()
+            {
+                putEvent("methodEnd");
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Renames classes in a class file by rewriting its constant pool. Classes are only
+ * referenced through the UTF8 constants of their internal names, descriptors and
+ * signatures, and everything after the constant pool refers to constants by index,
+ * so the rest of the class file is copied unchanged.
+ */
+final class ClassFileRenamer
+{
+    private static final int CONSTANT_POOL_OFFSET = 10;
+    private static final int MAXIMUM_CONSTANT_POOL_COUNT = 0xFFFF;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_STRING = 8;
+
+    // a class type in a descriptor or signature, which is followed by type arguments in signatures
+    private static final Pattern CLASS_TYPE = Pattern.compile("L([^;<]+)(?=[;<])");
+
+    private ClassFileRenamer() {}
+
+    /**
+     * @param internalNames new internal name by old internal name
+     */
+    public static byte[] renameClasses(byte[] bytecode, Map<String, String> internalNames)
+    {
+        int constantPoolCount = readUnsignedShort(bytecode, CONSTANT_POOL_OFFSET - 2);
+        int[] offsets = new int[constantPoolCount];
+        Map<Integer, String> renamedConstants = new HashMap<>();
+        Set<Integer> stringConstants = new HashSet<>();
+
+        int offset = CONSTANT_POOL_OFFSET;
+        for (int index = 1; index < constantPoolCount; index++) {
+            offsets[index] = offset;
+            int tag = bytecode[offset];
+            switch (tag) {
+                case CONSTANT_UTF8 -> {
+                    String value = readUtf8(bytecode, offset);
+                    String renamed = rename(value, internalNames);
+                    if (!renamed.equals(value)) {
+                        renamedConstants.put(index, renamed);
+                    }
+                    offset += 3 + readUnsignedShort(bytecode, offset + 1);
+                }
+                // integer, float, field, method and interface method references, name and type, dynamic, invoke dynamic
+                case 3, 4, 9, 10, 11, 12, 17, 18 -> offset += 5;
+                // long and double take two slots
+                case 5, 6 -> {
+                    offset += 9;
+                    index++;
+                }
+                case CONSTANT_STRING -> {
+                    stringConstants.add(readUnsignedShort(bytecode, offset + 1));
+                    offset += 3;
+                }
+                // class, method type, module, package
+                case 7, 16, 19, 20 -> offset += 3;
+                // method handle
+                case 15 -> offset += 4;
+                default -> throw new IllegalArgumentException("Unknown constant pool tag: " + tag);
+            }
+        }
+        int constantPoolEnd = offset;
+
+        if (renamedConstants.isEmpty()) {
+            return bytecode;
+        }
+
+        // string constants keep their value, so a renamed constant shared with a string constant is copied for the string
+        Map<Integer, Integer> copiedConstants = new LinkedHashMap<>();
+        for (Integer index : renamedConstants.keySet()) {
+            if (stringConstants.contains(index)) {
+                copiedConstants.put(index, constantPoolCount + copiedConstants.size());
+            }
+        }
+        int newConstantPoolCount = constantPoolCount + copiedConstants.size();
+        checkArgument(newConstantPoolCount <= MAXIMUM_CONSTANT_POOL_COUNT, "Constant pool is too large to rename classes");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(bytecode.length + 256);
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.write(bytecode, 0, CONSTANT_POOL_OFFSET - 2);
+            output.writeShort(newConstantPoolCount);
+            for (int index = 1; index < constantPoolCount; index++) {
+                int start = offsets[index];
+                int end = index + 1 < constantPoolCount ? offsets[index + 1] : constantPoolEnd;
+                if (end == 0) {
+                    // second slot of a long or double
+                    end = index + 2 < constantPoolCount ? offsets[index + 2] : constantPoolEnd;
+                }
+                if (start == 0) {
+                    continue;
+                }
+
+                String renamed = renamedConstants.get(index);
+                if (renamed != null) {
+                    output.writeByte(CONSTANT_UTF8);
+                    output.writeUTF(renamed);
+                }
+                else if (bytecode[start] == CONSTANT_STRING && copiedConstants.containsKey(readUnsignedShort(bytecode, start + 1))) {
+                    output.writeByte(CONSTANT_STRING);
+                    output.writeShort(copiedConstants.get(readUnsignedShort(bytecode, start + 1)));
+                }
+                else {
+                    output.write(bytecode, start, end - start);
+                }
+            }
+            for (Entry<Integer, Integer> entry : copiedConstants.entrySet()) {
+                int start = offsets[entry.getKey()];
+                output.write(bytecode, start, 3 + readUnsignedShort(bytecode, start + 1));
+            }
+            output.write(bytecode, constantPoolEnd, bytecode.length - constantPoolEnd);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String rename(String value, Map<String, String> internalNames)
+    {
+        String renamed = internalNames.get(value);
+        if (renamed != null) {
+            return renamed;
+        }
+        if (value.indexOf('L') < 0) {
+            return value;
+        }
+
+        Matcher matcher = CLASS_TYPE.matcher(value);
+        StringBuilder result = new StringBuilder();
+        boolean changed = false;
+        while (matcher.find()) {
+            String name = internalNames.get(matcher.group(1));
+            if (name != null) {
+                matcher.appendReplacement(result, Matcher.quoteReplacement("L" + name));
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return value;
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    private static String readUtf8(byte[] bytecode, int offset)
+    {
+        // class files use the modified UTF-8 of DataInput
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytecode, offset + 1, bytecode.length - offset - 1))) {
+            return input.readUTF();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int readUnsignedShort(byte[] bytecode, int offset)
+    {
+        return ((bytecode[offset] & 0xFF) << 8) | (bytecode[offset + 1] & 0xFF);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Aggregates the statistics of generated classes into histograms, which can be shared
+ * by many generators and exported by the application.
+ */
+@ThreadSafe
+public final class ClassGenerationHistograms
+        implements ClassGenerationListener
+{
+    private final Histogram classInfoLoaderNanos = new Histogram();
+    private final Histogram visitNanos = new Histogram();
+    private final Histogram toByteArrayNanos = new Histogram();
+    private final Histogram verifyNanos = new Histogram();
+    private final Histogram defineNanos = new Histogram();
+    private final Histogram initializeNanos = new Histogram();
+    private final Histogram bytecodeSize = new Histogram();
+    private final Histogram methodCount = new Histogram();
+    private final Histogram constantPoolSize = new Histogram();
+
+    @Override
+    public void classGenerated(ClassGenerationStats stats)
+    {
+        classInfoLoaderNanos.add(stats.getClassInfoLoaderNanos());
+        visitNanos.add(stats.getVisitNanos());
+        toByteArrayNanos.add(stats.getToByteArrayNanos());
+        verifyNanos.add(stats.getVerifyNanos());
+        defineNanos.add(stats.getDefineNanos());
+        initializeNanos.add(stats.getInitializeNanos());
+        bytecodeSize.add(stats.getBytecodeSize());
+        methodCount.add(stats.getMethodCount());
+        constantPoolSize.add(stats.getConstantPoolSize());
+    }
+
+    public Histogram getClassInfoLoaderNanos()
+    {
+        return classInfoLoaderNanos;
+    }
+
+    public Histogram getVisitNanos()
+    {
+        return visitNanos;
+    }
+
+    public Histogram getToByteArrayNanos()
+    {
+        return toByteArrayNanos;
+    }
+
+    public Histogram getVerifyNanos()
+    {
+        return verifyNanos;
+    }
+
+    public Histogram getDefineNanos()
+    {
+        return defineNanos;
+    }
+
+    public Histogram getInitializeNanos()
+    {
+        return initializeNanos;
+    }
+
+    public Histogram getBytecodeSize()
+    {
+        return bytecodeSize;
+    }
+
+    public Histogram getMethodCount()
+    {
+        return methodCount;
+    }
+
+    public Histogram getConstantPoolSize()
+    {
+        return constantPoolSize;
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+/**
+ * Receives the statistics of every class generated and defined by a
+ * {@link ClassGenerator} or {@link HiddenClassGenerator}. Classes of a batch may
+ * be generated in parallel, but the listener is called from the thread that
+ * defines the batch, after the classes are initialized.
+ *
+ * @see ClassGenerationHistograms
+ */
+public interface ClassGenerationListener
+{
+    void classGenerated(ClassGenerationStats stats);
+}
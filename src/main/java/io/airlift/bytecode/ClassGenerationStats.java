@@ -0,0 +1,194 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import io.airlift.bytecode.ByteCodeGenerator.GeneratedByteCode;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+
+import javax.annotation.concurrent.Immutable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static java.util.Objects.requireNonNull;
+import static org.objectweb.asm.ClassReader.SKIP_CODE;
+import static org.objectweb.asm.ClassReader.SKIP_DEBUG;
+import static org.objectweb.asm.ClassReader.SKIP_FRAMES;
+import static org.objectweb.asm.Opcodes.ASM9;
+
+/**
+ * Timings and sizes of a single generated class. Phases that run once for a batch
+ * of classes, building the class info loader and defining the classes, are divided
+ * evenly between the classes of the batch. All times are in nanoseconds.
+ */
+@Immutable
+public final class ClassGenerationStats
+{
+    private final String className;
+    private final long classInfoLoaderNanos;
+    private final long visitNanos;
+    private final long toByteArrayNanos;
+    private final long verifyNanos;
+    private final long defineNanos;
+    private final long initializeNanos;
+    private final int bytecodeSize;
+    private final int methodCount;
+    private final int constantPoolSize;
+
+    static ClassGenerationStats createClassGenerationStats(
+            String className,
+            GeneratedByteCode generatedByteCode,
+            long classInfoLoaderNanos,
+            long defineNanos,
+            long initializeNanos)
+    {
+        ClassReader classReader = new ClassReader(generatedByteCode.getBytecode());
+        AtomicInteger methodCount = new AtomicInteger();
+        classReader.accept(new ClassVisitor(ASM9)
+        {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions)
+            {
+                methodCount.incrementAndGet();
+                return null;
+            }
+        }, SKIP_CODE | SKIP_DEBUG | SKIP_FRAMES);
+
+        return new ClassGenerationStats(
+                className,
+                classInfoLoaderNanos,
+                generatedByteCode.getVisitNanos(),
+                generatedByteCode.getToByteArrayNanos(),
+                generatedByteCode.getVerifyNanos(),
+                defineNanos,
+                initializeNanos,
+                generatedByteCode.getBytecode().length,
+                methodCount.get(),
+                classReader.getItemCount());
+    }
+
+    public ClassGenerationStats(
+            String className,
+            long classInfoLoaderNanos,
+            long visitNanos,
+            long toByteArrayNanos,
+            long verifyNanos,
+            long defineNanos,
+            long initializeNanos,
+            int bytecodeSize,
+            int methodCount,
+            int constantPoolSize)
+    {
+        this.className = requireNonNull(className, "className is null");
+        this.classInfoLoaderNanos = classInfoLoaderNanos;
+        this.visitNanos = visitNanos;
+        this.toByteArrayNanos = toByteArrayNanos;
+        this.verifyNanos = verifyNanos;
+        this.defineNanos = defineNanos;
+        this.initializeNanos = initializeNanos;
+        this.bytecodeSize = bytecodeSize;
+        this.methodCount = methodCount;
+        this.constantPoolSize = constantPoolSize;
+    }
+
+    public String getClassName()
+    {
+        return className;
+    }
+
+    /**
+     * Time to create the class info loader used for stack map frame computation.
+     */
+    public long getClassInfoLoaderNanos()
+    {
+        return classInfoLoaderNanos;
+    }
+
+    /**
+     * Time to visit the class definition tree into the class writer.
+     */
+    public long getVisitNanos()
+    {
+        return visitNanos;
+    }
+
+    /**
+     * Time spent in {@code ClassWriter.toByteArray}, which includes the frame
+     * computation of the ASM class writer.
+     */
+    public long getToByteArrayNanos()
+    {
+        return toByteArrayNanos;
+    }
+
+    /**
+     * Time to run the ASM verifier and write the debug output, if enabled.
+     */
+    public long getVerifyNanos()
+    {
+        return verifyNanos;
+    }
+
+    /**
+     * Time to define the class in the JVM. Hidden classes are initialized when they
+     * are defined, so this includes their initialization.
+     */
+    public long getDefineNanos()
+    {
+        return defineNanos;
+    }
+
+    public long getInitializeNanos()
+    {
+        return initializeNanos;
+    }
+
+    public int getBytecodeSize()
+    {
+        return bytecodeSize;
+    }
+
+    public int getMethodCount()
+    {
+        return methodCount;
+    }
+
+    /**
+     * Number of entries in the constant pool, including the unused entries after
+     * long and double constants.
+     */
+    public int getConstantPoolSize()
+    {
+        return constantPoolSize;
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .add("className", className)
+                .add("classInfoLoaderNanos", classInfoLoaderNanos)
+                .add("visitNanos", visitNanos)
+                .add("toByteArrayNanos", toByteArrayNanos)
+                .add("verifyNanos", verifyNanos)
+                .add("defineNanos", defineNanos)
+                .add("initializeNanos", initializeNanos)
+                .add("bytecodeSize", bytecodeSize)
+                .add("methodCount", methodCount)
+                .add("constantPoolSize", constantPoolSize)
+                .toString();
+    }
+}
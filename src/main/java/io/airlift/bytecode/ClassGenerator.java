@@ -15,24 +15,52 @@ package io.airlift.bytecode;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
 import com.google.common.reflect.Reflection;
+import io.airlift.bytecode.ByteCodeGenerator.GeneratedByteCode;
+import io.airlift.bytecode.PersistentClassCache.CachedClasses;
 
 import java.io.Writer;
 import java.lang.invoke.MethodHandle;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
+import static com.google.common.base.Throwables.throwIfUnchecked;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.Maps.filterKeys;
+import static com.google.common.collect.Maps.transformValues;
 import static com.google.common.collect.MoreCollectors.onlyElement;
+import static io.airlift.bytecode.ClassFileRenamer.renameClasses;
+import static io.airlift.bytecode.ClassGenerationStats.createClassGenerationStats;
 import static io.airlift.bytecode.ClassInfoLoader.createClassInfoLoader;
+import static io.airlift.bytecode.ClassSplitter.SHARD_SUFFIX;
+import static io.airlift.bytecode.PersistentClassCache.createKey;
+import static io.airlift.bytecode.PersistentClassCache.isCurrentHierarchy;
+import static java.util.Comparator.comparingInt;
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
 
 public class ClassGenerator
 {
     private final DynamicClassLoader classLoader;
     private final ByteCodeGenerator byteCodeGenerator;
+    private final Optional<ClassInfoCache> classInfoCache;
+    private final boolean loadMethodNodes;
+    private final Optional<Executor> executor;
+    private final Optional<GeneratedClassCache> generatedClassCache;
+    private final Optional<PersistentClassCache> persistentClassCache;
+    private final Optional<ClassGenerationListener> listener;
 
     public static ClassGenerator classGenerator(ClassLoader parentClassLoader)
     {
@@ -46,33 +74,90 @@ public class ClassGenerator
 
     public static ClassGenerator classGenerator(DynamicClassLoader classLoader)
     {
-        return new ClassGenerator(classLoader, ByteCodeGenerator.byteCodeGenerator());
+        return new ClassGenerator(classLoader, ByteCodeGenerator.byteCodeGenerator(), Optional.empty(), false, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
     }
 
-    private ClassGenerator(DynamicClassLoader classLoader, ByteCodeGenerator byteCodeGenerator)
+    private ClassGenerator(
+            DynamicClassLoader classLoader,
+            ByteCodeGenerator byteCodeGenerator,
+            Optional<ClassInfoCache> classInfoCache,
+            boolean loadMethodNodes,
+            Optional<Executor> executor,
+            Optional<GeneratedClassCache> generatedClassCache,
+            Optional<PersistentClassCache> persistentClassCache,
+            Optional<ClassGenerationListener> listener)
     {
         this.classLoader = requireNonNull(classLoader, "classLoader is null");
         this.byteCodeGenerator = requireNonNull(byteCodeGenerator, "byteCodeGenerator is null");
+        this.classInfoCache = requireNonNull(classInfoCache, "classInfoCache is null");
+        this.loadMethodNodes = loadMethodNodes;
+        this.executor = requireNonNull(executor, "executor is null");
+        this.generatedClassCache = requireNonNull(generatedClassCache, "generatedClassCache is null");
+        this.persistentClassCache = requireNonNull(persistentClassCache, "persistentClassCache is null");
+        this.listener = requireNonNull(listener, "listener is null");
     }
 
     public ClassGenerator fakeLineNumbers(boolean fakeLineNumbers)
     {
-        return new ClassGenerator(classLoader, byteCodeGenerator.fakeLineNumbers(fakeLineNumbers));
+        return new ClassGenerator(classLoader, byteCodeGenerator.fakeLineNumbers(fakeLineNumbers), classInfoCache, loadMethodNodes, executor, generatedClassCache, persistentClassCache, listener);
+    }
+
+    /**
+     * Compute the stack map frames of each method in a single pass from the declared
+     * types of the local variables, instead of with the data flow analysis of the ASM
+     * class writer. The class hierarchy is only loaded when two different types are
+     * merged on the stack.
+     */
+    public ClassGenerator computeFramesFromDeclaredTypes(boolean computeFramesFromDeclaredTypes)
+    {
+        return new ClassGenerator(classLoader, byteCodeGenerator.computeFramesFromDeclaredTypes(computeFramesFromDeclaredTypes), classInfoCache, loadMethodNodes, executor, generatedClassCache, persistentClassCache, listener);
+    }
+
+    /**
+     * Move statements of methods with more bytecode than the maximum size to
+     * private static methods of the class, so the methods can be compiled by the
+     * JIT. HotSpot does not compile methods larger than 8000 bytes.
+     */
+    public ClassGenerator maximumMethodSize(int maximumMethodSize)
+    {
+        return new ClassGenerator(classLoader, byteCodeGenerator.maximumMethodSize(maximumMethodSize), classInfoCache, loadMethodNodes, executor, generatedClassCache, persistentClassCache, listener);
+    }
+
+    /**
+     * Move methods of classes with more constants in the constant pool than the maximum
+     * to synthetic nestmate classes, which are defined with the class. The constant pool
+     * of a class is limited to 65535 entries, and large classes are slow to write.
+     * Constructors, the static initializer and methods calling super methods are never
+     * moved. The size of the constant pool is estimated.
+     */
+    public ClassGenerator maximumConstantPoolSize(int maximumConstantPoolSize)
+    {
+        return new ClassGenerator(classLoader, byteCodeGenerator.maximumConstantPoolSize(maximumConstantPoolSize), classInfoCache, loadMethodNodes, executor, generatedClassCache, persistentClassCache, listener);
+    }
+
+    /**
+     * Move methods of classes with more methods than the maximum to synthetic nestmate
+     * classes, which are defined with the class. Methods that are not private are replaced
+     * by a method calling the moved method.
+     */
+    public ClassGenerator maximumMethodCount(int maximumMethodCount)
+    {
+        return new ClassGenerator(classLoader, byteCodeGenerator.maximumMethodCount(maximumMethodCount), classInfoCache, loadMethodNodes, executor, generatedClassCache, persistentClassCache, listener);
     }
 
     public ClassGenerator runAsmVerifier(boolean runAsmVerifier)
     {
-        return new ClassGenerator(classLoader, byteCodeGenerator.runAsmVerifier(runAsmVerifier ? classLoader : null));
+        return new ClassGenerator(classLoader, byteCodeGenerator.runAsmVerifier(runAsmVerifier ? classLoader : null), classInfoCache, loadMethodNodes, executor, generatedClassCache, persistentClassCache, listener);
     }
 
     public ClassGenerator dumpRawBytecode(boolean dumpRawBytecode)
     {
-        return new ClassGenerator(classLoader, byteCodeGenerator.dumpRawBytecode(dumpRawBytecode));
+        return new ClassGenerator(classLoader, byteCodeGenerator.dumpRawBytecode(dumpRawBytecode), classInfoCache, loadMethodNodes, executor, generatedClassCache, persistentClassCache, listener);
     }
 
     public ClassGenerator outputTo(Writer output)
     {
-        return new ClassGenerator(classLoader, byteCodeGenerator.outputTo(output));
+        return new ClassGenerator(classLoader, byteCodeGenerator.outputTo(output), classInfoCache, loadMethodNodes, executor, generatedClassCache, persistentClassCache, listener);
     }
 
     public ClassGenerator dumpClassFilesTo(Path dumpClassPath)
@@ -82,7 +167,60 @@ public class ClassGenerator
 
     public ClassGenerator dumpClassFilesTo(Optional<Path> dumpClassPath)
     {
-        return new ClassGenerator(classLoader, byteCodeGenerator.dumpClassFilesTo(dumpClassPath));
+        return new ClassGenerator(classLoader, byteCodeGenerator.dumpClassFilesTo(dumpClassPath), classInfoCache, loadMethodNodes, executor, generatedClassCache, persistentClassCache, listener);
+    }
+
+    public ClassGenerator classInfoCache(ClassInfoCache classInfoCache)
+    {
+        return new ClassGenerator(classLoader, byteCodeGenerator, Optional.of(classInfoCache), loadMethodNodes, executor, generatedClassCache, persistentClassCache, listener);
+    }
+
+    /**
+     * Read the full class file, including the method bodies, of each class referenced
+     * during stack map frame computation. Frame computation only needs the class
+     * hierarchy, so by default only the class header is read.
+     */
+    public ClassGenerator loadMethodNodes(boolean loadMethodNodes)
+    {
+        return new ClassGenerator(classLoader, byteCodeGenerator, classInfoCache, loadMethodNodes, executor, generatedClassCache, persistentClassCache, listener);
+    }
+
+    /**
+     * Generate the bytecode of the classes passed to {@link #defineClasses} in parallel
+     * on the specified executor, for example a {@link java.util.concurrent.ForkJoinPool}.
+     * The generated classes are still defined together by the calling thread.
+     */
+    public ClassGenerator executor(Executor executor)
+    {
+        return new ClassGenerator(classLoader, byteCodeGenerator, classInfoCache, loadMethodNodes, Optional.of(executor), generatedClassCache, persistentClassCache, listener);
+    }
+
+    /**
+     * Reuse the classes previously defined through the cache for structurally identical
+     * class definitions. See {@link GeneratedClassCache} for the restrictions on the
+     * generated classes.
+     */
+    public ClassGenerator generatedClassCache(GeneratedClassCache generatedClassCache)
+    {
+        return new ClassGenerator(classLoader, byteCodeGenerator, classInfoCache, loadMethodNodes, executor, Optional.of(generatedClassCache), persistentClassCache, listener);
+    }
+
+    /**
+     * Load the bytecode of classes generated from structurally identical class definitions,
+     * possibly by an earlier run of the process, from the cache instead of generating it.
+     * The bytecode is only dumped and verified when it is generated.
+     */
+    public ClassGenerator persistentClassCache(PersistentClassCache persistentClassCache)
+    {
+        return new ClassGenerator(classLoader, byteCodeGenerator, classInfoCache, loadMethodNodes, executor, generatedClassCache, Optional.of(persistentClassCache), listener);
+    }
+
+    /**
+     * Report the timings and sizes of every class generated and defined to the listener.
+     */
+    public ClassGenerator listener(ClassGenerationListener listener)
+    {
+        return new ClassGenerator(classLoader, byteCodeGenerator, classInfoCache, loadMethodNodes, executor, generatedClassCache, persistentClassCache, Optional.of(listener));
     }
 
     public <T> Class<? extends T> defineClass(ClassDefinition classDefinition, Class<T> superType)
@@ -93,25 +231,243 @@ public class ClassGenerator
 
     public Map<String, Class<?>> defineClasses(List<ClassDefinition> classDefinitions)
     {
-        ClassInfoLoader classInfoLoader = createClassInfoLoader(classDefinitions, classLoader);
-        Map<String, byte[]> bytecodes = new LinkedHashMap<>();
+        if (generatedClassCache.isPresent()) {
+            return generatedClassCache.get().getClasses(classLoader, classDefinitions, () -> generateClasses(classDefinitions));
+        }
+        return generateClasses(classDefinitions);
+    }
+
+    public <T> Class<? extends T> defineClass(ClassDefinition classDefinition, Class<T> superType, ClassDataBinder classDataBinder)
+    {
+        Map<String, Class<?>> classes = defineClasses(ImmutableList.of(classDefinition), classDataBinder);
+        return classes.values().stream().collect(onlyElement()).asSubclass(superType);
+    }
+
+    /**
+     * Define the classes with the objects bound by the binder as class data. The classes
+     * bypass the generated and persistent class caches, because cached classes are bound
+     * to other objects or have other names.
+     */
+    public Map<String, Class<?>> defineClasses(List<ClassDefinition> classDefinitions, ClassDataBinder classDataBinder)
+    {
+        ClassGenerationEvent event = new ClassGenerationEvent();
+        event.begin();
+        GeneratedClasses generatedClasses = generateByteCode(classDefinitions);
+
+        // the class data is registered once the classes are generated, and removed if they can not be defined
+        List<Object> classData = classDataBinder.getClassData();
+        List<String> registeredClasses = new ArrayList<>();
+        try {
+            for (ClassDefinition classDefinition : classDefinitions) {
+                String className = classDefinition.getType().getJavaClassName();
+                classLoader.setClassData(className, classData);
+                registeredClasses.add(className);
+            }
+            return defineByteCode(generatedClasses, event);
+        }
+        catch (RuntimeException | Error e) {
+            for (String className : registeredClasses) {
+                classLoader.removeClassData(className, classData);
+            }
+            throw e;
+        }
+    }
+
+    private Map<String, Class<?>> generateClasses(List<ClassDefinition> classDefinitions)
+    {
+        ClassGenerationEvent event = new ClassGenerationEvent();
+        event.begin();
+        if (persistentClassCache.isEmpty()) {
+            return defineByteCode(generateByteCode(classDefinitions), event);
+        }
+
+        HashCode key = createKey(classDefinitions, byteCodeGenerator);
+        ClassInfoLoader classInfoLoader = createClassInfoLoader(classDefinitions, classLoader, classInfoCache, false);
+        Optional<CachedClasses> cachedClasses = persistentClassCache.get().get(key, hierarchy -> isCurrentHierarchy(classInfoLoader, hierarchy));
+        if (cachedClasses.isPresent()) {
+            Map<String, byte[]> bytecodes = renameCachedClasses(cachedClasses.get().bytecodes(), classDefinitions);
+            Map<String, Class<?>> classes = defineByteCode(new GeneratedClasses(transformValues(bytecodes, GeneratedByteCode::loaded), 0), event);
+            ImmutableMap.Builder<String, Class<?>> result = ImmutableMap.builder();
+            for (ClassDefinition classDefinition : classDefinitions) {
+                String className = classDefinition.getType().getJavaClassName();
+                result.put(className, classes.get(className));
+            }
+            return result.buildOrThrow();
+        }
+
+        GeneratedClasses generatedClasses = generateByteCode(classDefinitions);
+        Optional<Map<String, String>> hierarchy = describeHierarchy(classInfoLoader, generatedClasses);
+        if (hierarchy.isPresent()) {
+            persistentClassCache.get().put(key, generatedClasses.getBytecodes(), hierarchy.get());
+        }
+        return defineByteCode(generatedClasses, event);
+    }
+
+    /**
+     * Renames the cached classes, which are in the order of the class definitions followed
+     * by their shards, to the names of the class definitions.
+     */
+    private static Map<String, byte[]> renameCachedClasses(Map<String, byte[]> bytecodes, List<ClassDefinition> classDefinitions)
+    {
+        List<String> cachedNames = ImmutableList.copyOf(bytecodes.keySet());
+        Map<String, String> internalNames = new LinkedHashMap<>();
+        for (int i = 0; i < classDefinitions.size(); i++) {
+            internalNames.put(toInternalName(cachedNames.get(i)), classDefinitions.get(i).getType().getClassName());
+        }
+        for (String shardName : cachedNames.subList(classDefinitions.size(), cachedNames.size())) {
+            String internalName = toInternalName(shardName);
+            // class names may contain the shard suffix, so use the longest matching class
+            Entry<String, String> owner = internalNames.entrySet().stream()
+                    .limit(classDefinitions.size())
+                    .filter(entry -> internalName.startsWith(entry.getKey() + SHARD_SUFFIX))
+                    .max(comparingInt(entry -> entry.getKey().length()))
+                    .orElseThrow(() -> new IllegalStateException("Cached class is not a shard of a cached class: " + shardName));
+            internalNames.put(internalName, owner.getValue() + internalName.substring(owner.getKey().length()));
+        }
 
-        for (ClassDefinition classDefinition : classDefinitions) {
-            byte[] bytecode = byteCodeGenerator.generateByteCode(classInfoLoader, classDefinition);
-            bytecodes.put(classDefinition.getType().getJavaClassName(), bytecode);
+        Map<String, byte[]> renamed = new LinkedHashMap<>();
+        for (Entry<String, byte[]> entry : bytecodes.entrySet()) {
+            String className = internalNames.get(toInternalName(entry.getKey())).replace('/', '.');
+            renamed.put(className, renameClasses(entry.getValue(), internalNames));
         }
+        return renamed;
+    }
 
-        Map<String, Class<?>> classes = classLoader.defineClasses(bytecodes);
+    private static String toInternalName(String className)
+    {
+        return className.replace('.', '/');
+    }
 
+    private static Optional<Map<String, String>> describeHierarchy(ClassInfoLoader classInfoLoader, GeneratedClasses generatedClasses)
+    {
+        Set<String> generatedTypes = new HashSet<>();
+        generatedClasses.getBytecodes().keySet().forEach(className -> generatedTypes.add(toInternalName(className)));
+        Set<String> hierarchyTypes = new HashSet<>();
+        generatedClasses.getByteCode().values().forEach(generated -> hierarchyTypes.addAll(generated.getHierarchyTypes()));
+        for (GeneratedByteCode generated : generatedClasses.getByteCode().values()) {
+            // the shards are not known to the class info loader, and only extend Object
+            generated.getNestMembers().keySet().forEach(className -> hierarchyTypes.remove(toInternalName(className)));
+        }
         try {
-            for (Class<?> clazz : classes.values()) {
-                Reflection.initialize(clazz);
+            return Optional.of(PersistentClassCache.describeHierarchy(classInfoLoader, hierarchyTypes, generatedTypes));
+        }
+        catch (RuntimeException e) {
+            // the classes can still be defined, but can not be validated when loaded from the cache
+            return Optional.empty();
+        }
+    }
+
+    private GeneratedClasses generateByteCode(List<ClassDefinition> classDefinitions)
+    {
+        long start = System.nanoTime();
+        ClassInfoLoader classInfoLoader = createClassInfoLoader(classDefinitions, classLoader, classInfoCache, loadMethodNodes);
+        long classInfoLoaderNanos = System.nanoTime() - start;
+        Map<String, GeneratedByteCode> generatedByteCode = new LinkedHashMap<>();
+
+        if (executor.isPresent() && classDefinitions.size() > 1) {
+            List<CompletableFuture<GeneratedByteCode>> futures = classDefinitions.stream()
+                    .map(classDefinition -> supplyAsync(() -> byteCodeGenerator.generate(classInfoLoader, classDefinition), executor.get()))
+                    .collect(toImmutableList());
+            for (int i = 0; i < classDefinitions.size(); i++) {
+                generatedByteCode.put(classDefinitions.get(i).getType().getJavaClassName(), getBytecode(futures, i));
+            }
+        }
+        else {
+            for (ClassDefinition classDefinition : classDefinitions) {
+                generatedByteCode.put(classDefinition.getType().getJavaClassName(), byteCodeGenerator.generate(classInfoLoader, classDefinition));
+            }
+        }
+        return new GeneratedClasses(generatedByteCode, classInfoLoaderNanos);
+    }
+
+    private Map<String, Class<?>> defineByteCode(GeneratedClasses generatedClasses, ClassGenerationEvent event)
+    {
+        long start = System.nanoTime();
+        Map<String, Class<?>> classes = classLoader.defineClasses(generatedClasses.getBytecodes());
+        long defineNanos = System.nanoTime() - start;
+
+        Map<String, Long> initializeNanos = new HashMap<>();
+        try {
+            for (Entry<String, Class<?>> entry : classes.entrySet()) {
+                long initializeStart = System.nanoTime();
+                Reflection.initialize(entry.getValue());
+                initializeNanos.put(entry.getKey(), System.nanoTime() - initializeStart);
             }
         }
         catch (VerifyError e) {
             throw new RuntimeException(e);
         }
 
-        return classes;
+        // classes generated with nest members are returned without them
+        Map<String, Class<?>> definedClasses = classes;
+        if (classes.size() > generatedClasses.getByteCode().size()) {
+            definedClasses = ImmutableMap.copyOf(filterKeys(classes, generatedClasses.getByteCode()::containsKey));
+        }
+
+        if (listener.isPresent()) {
+            int classCount = generatedClasses.getByteCode().size();
+            for (Entry<String, GeneratedByteCode> entry : generatedClasses.getByteCode().entrySet()) {
+                listener.get().classGenerated(createClassGenerationStats(
+                        entry.getKey(),
+                        entry.getValue(),
+                        generatedClasses.getClassInfoLoaderNanos() / classCount,
+                        defineNanos / classCount,
+                        initializeNanos.getOrDefault(entry.getKey(), 0L)));
+            }
+        }
+
+        if (event.shouldCommit()) {
+            event.className = generatedClasses.getByteCode().keySet().stream().findFirst().orElse(null);
+            event.classCount = generatedClasses.getByteCode().size();
+            event.byteSize = generatedClasses.getBytecodes().values().stream().mapToLong(bytecode -> bytecode.length).sum();
+            event.commit();
+        }
+        return definedClasses;
+    }
+
+    private static GeneratedByteCode getBytecode(List<CompletableFuture<GeneratedByteCode>> futures, int index)
+    {
+        try {
+            return futures.get(index).join();
+        }
+        catch (CompletionException e) {
+            // the classes can not be defined without the failed class, so stop generating the others
+            futures.forEach(future -> future.cancel(true));
+            throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static class GeneratedClasses
+    {
+        private final Map<String, GeneratedByteCode> byteCode;
+        private final long classInfoLoaderNanos;
+
+        public GeneratedClasses(Map<String, GeneratedByteCode> byteCode, long classInfoLoaderNanos)
+        {
+            this.byteCode = requireNonNull(byteCode, "byteCode is null");
+            this.classInfoLoaderNanos = classInfoLoaderNanos;
+        }
+
+        public Map<String, GeneratedByteCode> getByteCode()
+        {
+            return byteCode;
+        }
+
+        // the nest members follow all the classes, so the classes keep their position
+        public Map<String, byte[]> getBytecodes()
+        {
+            if (byteCode.values().stream().allMatch(generated -> generated.getNestMembers().isEmpty())) {
+                return transformValues(byteCode, GeneratedByteCode::getBytecode);
+            }
+            Map<String, byte[]> bytecodes = new LinkedHashMap<>(transformValues(byteCode, GeneratedByteCode::getBytecode));
+            byteCode.values().forEach(generated -> bytecodes.putAll(generated.getNestMembers()));
+            return bytecodes;
+        }
+
+        public long getClassInfoLoaderNanos()
+        {
+            return classInfoLoaderNanos;
+        }
     }
 }
@@ -43,12 +43,14 @@
 package io.airlift.bytecode;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.MethodNode;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkState;
 import static io.airlift.bytecode.ParameterizedType.type;
@@ -67,6 +69,11 @@ public class ClassInfo
     private final List<ParameterizedType> interfaces;
     private final List<MethodNode> methods;
 
+    // lazily resolved hierarchy; instances may be shared between threads through a ClassInfoCache
+    private volatile ClassInfo superClassInfo;
+    private volatile List<ClassInfo> interfaceInfos;
+    private volatile Set<ParameterizedType> assignableTypes;
+
     public ClassInfo(ClassInfoLoader loader, ClassNode classNode)
     {
         this(loader,
@@ -121,19 +128,26 @@ public class ClassInfo
         if (superClass == null) {
             return null;
         }
-        return loader.loadClassInfo(superClass);
+        ClassInfo superClassInfo = this.superClassInfo;
+        if (superClassInfo == null) {
+            superClassInfo = loader.loadClassInfo(superClass);
+            this.superClassInfo = superClassInfo;
+        }
+        return superClassInfo;
     }
 
     public List<ClassInfo> getInterfaces()
     {
-        if (interfaces == null) {
-            return ImmutableList.of();
-        }
-        ImmutableList.Builder<ClassInfo> builder = ImmutableList.builder();
-        for (ParameterizedType anInterface : interfaces) {
-            builder.add(loader.loadClassInfo(anInterface));
+        List<ClassInfo> interfaceInfos = this.interfaceInfos;
+        if (interfaceInfos == null) {
+            ImmutableList.Builder<ClassInfo> builder = ImmutableList.builder();
+            for (ParameterizedType anInterface : interfaces) {
+                builder.add(loader.loadClassInfo(anInterface));
+            }
+            interfaceInfos = builder.build();
+            this.interfaceInfos = interfaceInfos;
         }
-        return builder.build();
+        return interfaceInfos;
     }
 
     public List<MethodNode> getMethods()
@@ -147,27 +161,26 @@ public class ClassInfo
         return (getModifiers() & Opcodes.ACC_INTERFACE) > 0;
     }
 
-    private boolean implementsInterface(ClassInfo that)
+    /**
+     * Returns this type, all super classes and all transitively implemented interfaces.
+     */
+    Set<ParameterizedType> getAssignableTypes()
     {
-        for (ClassInfo classInfo = this; classInfo != null; classInfo = classInfo.getSuperclass()) {
-            for (ClassInfo anInterface : classInfo.getInterfaces()) {
-                if (anInterface.type.equals(that.type) || anInterface.implementsInterface(that)) {
-                    return true;
-                }
+        Set<ParameterizedType> assignableTypes = this.assignableTypes;
+        if (assignableTypes == null) {
+            ImmutableSet.Builder<ParameterizedType> builder = ImmutableSet.builder();
+            builder.add(type);
+            ClassInfo superClassInfo = getSuperclass();
+            if (superClassInfo != null) {
+                builder.addAll(superClassInfo.getAssignableTypes());
             }
-        }
-        return false;
-    }
-
-    private boolean isSubclassOf(ClassInfo that)
-    {
-        for (ClassInfo classInfo = this; classInfo != null; classInfo = classInfo.getSuperclass()) {
-            if (classInfo.getSuperclass() != null &&
-                    classInfo.getSuperclass().type.equals(that.type)) {
-                return true;
+            for (ClassInfo anInterface : getInterfaces()) {
+                builder.addAll(anInterface.getAssignableTypes());
             }
+            assignableTypes = builder.build();
+            this.assignableTypes = assignableTypes;
         }
-        return false;
+        return assignableTypes;
     }
 
     public boolean isAssignableFrom(ClassInfo that)
@@ -176,11 +189,7 @@ public class ClassInfo
             return true;
         }
 
-        if (that.isSubclassOf(this)) {
-            return true;
-        }
-
-        if (that.implementsInterface(this)) {
+        if (that.getAssignableTypes().contains(type)) {
             return true;
         }
 
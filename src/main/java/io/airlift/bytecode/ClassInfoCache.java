@@ -0,0 +1,213 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Throwables.throwIfUnchecked;
+import static io.airlift.bytecode.ClassInfoLoader.createSharedClassInfoLoader;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Bounded cache of {@link ClassInfo} that can be shared by any number of
+ * {@link ClassGenerator} and {@link HiddenClassGenerator} instances.
+ * <p>
+ * Entries are keyed by type and the class loader that defines the type, so
+ * the hierarchy of JDK classes and of classes from a common parent loader is
+ * parsed once, no matter how many {@link DynamicClassLoader}s are created.
+ * Class loaders are only weakly referenced by the cache, and the entries of
+ * class loaders that have been collected are removed.
+ */
+@ThreadSafe
+public final class ClassInfoCache
+{
+    public static final long DEFAULT_MAXIMUM_SIZE = 10_000;
+
+    // sentinel key for the bootstrap and platform class loaders
+    private static final ClassLoader JDK_CLASS_LOADER = ClassLoader.getPlatformClassLoader();
+
+    private final Cache<ClassInfoKey, ClassInfo> classInfos;
+    private final ReferenceQueue<ClassLoader> collectedClassLoaders = new ReferenceQueue<>();
+    private final Cache<ClassLoader, ClassInfoLoader> headerClassInfoLoaders = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build();
+    private final Cache<ClassLoader, ClassInfoLoader> methodNodeClassInfoLoaders = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build();
+
+    public ClassInfoCache()
+    {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public ClassInfoCache(long maximumSize)
+    {
+        checkArgument(maximumSize > 0, "maximumSize must be positive");
+        this.classInfos = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    ClassInfo loadClassInfo(ClassLoader classLoader, ParameterizedType type, boolean loadMethodNodes)
+    {
+        removeCollectedClassLoaders();
+        ClassLoader definingClassLoader = getDefiningClassLoader(classLoader, type);
+        try {
+            return classInfos.get(
+                    new ClassInfoKey(definingClassLoader, type, loadMethodNodes, collectedClassLoaders),
+                    () -> getClassInfoLoader(definingClassLoader, loadMethodNodes).readClassInfo(type));
+        }
+        catch (ExecutionException | UncheckedExecutionException e) {
+            throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private ClassInfoLoader getClassInfoLoader(ClassLoader classLoader, boolean loadMethodNodes)
+    {
+        Cache<ClassLoader, ClassInfoLoader> classInfoLoaders = loadMethodNodes ? methodNodeClassInfoLoaders : headerClassInfoLoaders;
+        try {
+            return classInfoLoaders.get(classLoader, () -> createSharedClassInfoLoader(this, classLoader, loadMethodNodes));
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    public long getHitCount()
+    {
+        return classInfos.stats().hitCount();
+    }
+
+    public long getMissCount()
+    {
+        return classInfos.stats().missCount();
+    }
+
+    public long getEvictionCount()
+    {
+        return classInfos.stats().evictionCount();
+    }
+
+    public long size()
+    {
+        removeCollectedClassLoaders();
+        return classInfos.size();
+    }
+
+    public void invalidateAll()
+    {
+        classInfos.invalidateAll();
+    }
+
+    private void removeCollectedClassLoaders()
+    {
+        for (Reference<? extends ClassLoader> reference = collectedClassLoaders.poll(); reference != null; reference = collectedClassLoaders.poll()) {
+            // the key of a collected class loader is only equal to itself
+            classInfos.invalidate(((ClassLoaderReference) reference).getKey());
+        }
+    }
+
+    /**
+     * Find the class loader which will define the type when it is resolved through
+     * the specified class loader. This does not load the type, so only the cases
+     * that can be decided cheaply are unwrapped, and the initiating class loader
+     * is returned otherwise.
+     */
+    private static ClassLoader getDefiningClassLoader(ClassLoader classLoader, ParameterizedType type)
+    {
+        // classes in the java packages can only be defined by the bootstrap or platform class loader
+        if (classLoader == null || type.getClassName().startsWith("java/")) {
+            return JDK_CLASS_LOADER;
+        }
+
+        while (classLoader instanceof DynamicClassLoader dynamicClassLoader) {
+            if (dynamicClassLoader.hasOverrideClassLoader() || dynamicClassLoader.isPendingClass(type.getJavaClassName())) {
+                return dynamicClassLoader;
+            }
+            Class<?> loadedClass = dynamicClassLoader.findDefinedClass(type.getJavaClassName());
+            if (loadedClass != null) {
+                return loadedClass.getClassLoader() == null ? JDK_CLASS_LOADER : loadedClass.getClassLoader();
+            }
+            classLoader = dynamicClassLoader.getParent();
+            if (classLoader == null) {
+                return JDK_CLASS_LOADER;
+            }
+        }
+        return classLoader;
+    }
+
+    private static final class ClassInfoKey
+    {
+        private final ClassLoaderReference classLoader;
+        private final ParameterizedType type;
+        private final boolean loadMethodNodes;
+        private final int hashCode;
+
+        public ClassInfoKey(ClassLoader classLoader, ParameterizedType type, boolean loadMethodNodes, ReferenceQueue<ClassLoader> collectedClassLoaders)
+        {
+            this.classLoader = new ClassLoaderReference(requireNonNull(classLoader, "classLoader is null"), collectedClassLoaders, this);
+            this.type = requireNonNull(type, "type is null");
+            this.loadMethodNodes = loadMethodNodes;
+            this.hashCode = 31 * (31 * System.identityHashCode(classLoader) + type.hashCode()) + Boolean.hashCode(loadMethodNodes);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ClassInfoKey that)) {
+                return false;
+            }
+            ClassLoader classLoader = this.classLoader.get();
+            return classLoader != null && classLoader == that.classLoader.get() && type.equals(that.type) && loadMethodNodes == that.loadMethodNodes;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+    }
+
+    private static final class ClassLoaderReference
+            extends WeakReference<ClassLoader>
+    {
+        private final ClassInfoKey key;
+
+        public ClassLoaderReference(ClassLoader classLoader, ReferenceQueue<ClassLoader> queue, ClassInfoKey key)
+        {
+            super(classLoader, queue);
+            this.key = key;
+        }
+
+        public ClassInfoKey getKey()
+        {
+            return key;
+        }
+    }
+}
@@ -48,62 +48,126 @@ import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.util.CheckClassAdapter;
 
+import javax.annotation.concurrent.ThreadSafe;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.invoke.MethodHandles.Lookup;
-import java.util.HashMap;
+import java.lang.ref.WeakReference;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
+import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.bytecode.Access.toAccessModifier;
 import static io.airlift.bytecode.ParameterizedType.typeFromPathName;
 import static java.util.Objects.requireNonNull;
 
+@ThreadSafe
 public class ClassInfoLoader
 {
     public static ClassInfoLoader createClassInfoLoader(ClassDefinition classDefinition, Lookup lookup)
     {
-        ClassNode classNode = new ClassNode();
-        classDefinition.visit(classNode);
+        return createClassInfoLoader(classDefinition, lookup, Optional.empty(), true);
+    }
 
-        return new ClassInfoLoader(ImmutableMap.of(classDefinition.getType(), classNode), ImmutableMap.of(), new LookupLoader(lookup), true);
+    /**
+     * @param loadMethodNodes if false, only the class header (access, super class and interfaces)
+     * is read, which is all that is needed to compute stack map frames, and
+     * {@link ClassInfo#getMethods()} is not available
+     */
+    public static ClassInfoLoader createClassInfoLoader(ClassDefinition classDefinition, Lookup lookup, Optional<ClassInfoCache> sharedClassInfoCache, boolean loadMethodNodes)
+    {
+        return new ClassInfoLoader(ImmutableList.of(classDefinition), new LookupLoader(lookup), loadMethodNodes, sharedClassInfoCache, false);
+    }
+
+    /**
+     * @param loadMethodNodes if false, only the class header (access, super class and interfaces)
+     * is read, which is all that is needed to compute stack map frames, and
+     * {@link ClassInfo#getMethods()} is not available
+     */
+    public static ClassInfoLoader createClassInfoLoader(Iterable<ClassDefinition> classDefinitions, Lookup lookup, Optional<ClassInfoCache> sharedClassInfoCache, boolean loadMethodNodes)
+    {
+        return new ClassInfoLoader(classDefinitions, new LookupLoader(lookup), loadMethodNodes, sharedClassInfoCache, false);
     }
 
     public static ClassInfoLoader createClassInfoLoader(Iterable<ClassDefinition> classDefinitions, ClassLoader classLoader)
     {
-        ImmutableMap.Builder<ParameterizedType, ClassNode> classNodes = ImmutableMap.builder();
-        for (ClassDefinition classDefinition : classDefinitions) {
-            ClassNode classNode = new ClassNode();
-            classDefinition.visit(classNode);
-            classNodes.put(classDefinition.getType(), classNode);
-        }
-        return new ClassInfoLoader(classNodes.build(), ImmutableMap.of(), new ClassLoaderLoader(classLoader), true);
+        return createClassInfoLoader(classDefinitions, classLoader, Optional.empty(), true);
     }
 
+    /**
+     * @param loadMethodNodes if false, only the class header (access, super class and interfaces)
+     * is read, which is all that is needed to compute stack map frames, and
+     * {@link ClassInfo#getMethods()} is not available
+     */
+    public static ClassInfoLoader createClassInfoLoader(Iterable<ClassDefinition> classDefinitions, ClassLoader classLoader, Optional<ClassInfoCache> sharedClassInfoCache, boolean loadMethodNodes)
+    {
+        return new ClassInfoLoader(classDefinitions, new ClassLoaderLoader(classLoader), loadMethodNodes, sharedClassInfoCache, false);
+    }
+
+    static ClassInfoLoader createSharedClassInfoLoader(ClassInfoCache sharedClassInfoCache, ClassLoader classLoader, boolean loadMethodNodes)
+    {
+        // the shared cache must not keep the class loader alive
+        return new ClassInfoLoader(ImmutableList.of(), new WeakClassLoaderLoader(classLoader), loadMethodNodes, Optional.of(sharedClassInfoCache), true);
+    }
+
+    // class definitions are only visited into class nodes when the method nodes are needed
+    private final Map<ParameterizedType, ClassDefinition> classDefinitions;
     private final Map<ParameterizedType, ClassNode> classNodes;
-    private final Map<ParameterizedType, byte[]> bytecodes;
     private final Loader loader;
-    private final Map<ParameterizedType, ClassInfo> classInfoCache = new HashMap<>();
+    // classes of a batch may be generated in parallel, all sharing this loader
+    private final Map<ParameterizedType, ClassInfo> classInfoCache = new ConcurrentHashMap<>();
     private final boolean loadMethodNodes;
+    private final Optional<ClassInfoCache> sharedClassInfoCache;
+    // shared loaders live as long as the shared cache, so all lookups go through the bounded shared cache
+    private final boolean shared;
 
-    private ClassInfoLoader(Map<ParameterizedType, ClassNode> classNodes, Map<ParameterizedType, byte[]> bytecodes, Loader loader, boolean loadMethodNodes)
+    private ClassInfoLoader(
+            Iterable<ClassDefinition> classDefinitions,
+            Loader loader,
+            boolean loadMethodNodes,
+            Optional<ClassInfoCache> sharedClassInfoCache,
+            boolean shared)
     {
-        this.classNodes = ImmutableMap.copyOf(classNodes);
-        this.bytecodes = ImmutableMap.copyOf(bytecodes);
+        ImmutableMap.Builder<ParameterizedType, ClassDefinition> definitions = ImmutableMap.builder();
+        ImmutableMap.Builder<ParameterizedType, ClassNode> classNodes = ImmutableMap.builder();
+        for (ClassDefinition classDefinition : classDefinitions) {
+            definitions.put(classDefinition.getType(), classDefinition);
+            if (loadMethodNodes) {
+                ClassNode classNode = new ClassNode();
+                classDefinition.visit(classNode);
+                classNodes.put(classDefinition.getType(), classNode);
+            }
+        }
+        this.classDefinitions = definitions.buildOrThrow();
+        this.classNodes = classNodes.buildOrThrow();
         this.loader = loader;
         this.loadMethodNodes = loadMethodNodes;
+        this.sharedClassInfoCache = requireNonNull(sharedClassInfoCache, "sharedClassInfoCache is null");
+        this.shared = shared;
     }
 
     public ClassInfo loadClassInfo(ParameterizedType type)
     {
+        if (shared) {
+            return sharedClassInfoCache.orElseThrow().loadClassInfo(loader.getClassLoader(), type, loadMethodNodes);
+        }
+
         ClassInfo classInfo = classInfoCache.get(type);
         if (classInfo == null) {
-            classInfo = readClassInfoQuick(type);
+            if (sharedClassInfoCache.isPresent() && !classDefinitions.containsKey(type)) {
+                classInfo = sharedClassInfoCache.get().loadClassInfo(loader.getClassLoader(), type, loadMethodNodes);
+            }
+            else {
+                classInfo = readClassInfo(type);
+            }
             classInfoCache.put(type, classInfo);
         }
         return classInfo;
     }
 
-    private ClassInfo readClassInfoQuick(ParameterizedType type)
+    ClassInfo readClassInfo(ParameterizedType type)
     {
         // check for user supplied class node
         ClassNode classNode = classNodes.get(type);
@@ -111,20 +175,24 @@ public class ClassInfoLoader
             return new ClassInfo(this, classNode);
         }
 
-        // check for user supplied byte code
-        ClassReader classReader;
-        byte[] bytecode = bytecodes.get(type);
-        if (bytecode != null) {
-            classReader = new ClassReader(bytecode);
+        // check for user supplied class definition
+        ClassDefinition classDefinition = classDefinitions.get(type);
+        if (classDefinition != null) {
+            return new ClassInfo(
+                    this,
+                    type,
+                    toAccessModifier(classDefinition.getAccess()),
+                    classDefinition.getSuperClass(),
+                    classDefinition.getInterfaces(),
+                    null);
         }
-        else {
-            // load class file from class loader
-            classReader = loader.createByteCodeClassReader(type)
-                    .orElse(null);
-            if (classReader == null) {
-                // load class directly and extract class info from loaded class
-                return new ClassInfo(this, loader.loadClass(type));
-            }
+
+        // load class file from class loader
+        ClassReader classReader = loader.createByteCodeClassReader(type)
+                .orElse(null);
+        if (classReader == null) {
+            // load class directly and extract class info from loaded class
+            return new ClassInfo(this, loader.loadClass(type));
         }
 
         if (loadMethodNodes) {
@@ -139,7 +207,7 @@ public class ClassInfoLoader
             int header = classReader.header;
             int access = classReader.readUnsignedShort(header);
 
-            char[] buf = new char[2048];
+            char[] buf = new char[classReader.getMaxStringLength()];
 
             // read super class name
             int superClassIndex = classReader.getItem(classReader.readUnsignedShort(header + 4));
@@ -165,6 +233,8 @@ public class ClassInfoLoader
 
     private interface Loader
     {
+        ClassLoader getClassLoader();
+
         Optional<ClassReader> createByteCodeClassReader(ParameterizedType type);
 
         Class<?> loadClass(ParameterizedType type);
@@ -180,6 +250,12 @@ public class ClassInfoLoader
             this.lookup = requireNonNull(lookup, "lookup is null");
         }
 
+        @Override
+        public ClassLoader getClassLoader()
+        {
+            return lookup.lookupClass().getClassLoader();
+        }
+
         @Override
         public Optional<ClassReader> createByteCodeClassReader(ParameterizedType type)
         {
@@ -208,8 +284,25 @@ public class ClassInfoLoader
             this.classLoader = requireNonNull(classLoader, "classLoader is null");
         }
 
+        @Override
+        public ClassLoader getClassLoader()
+        {
+            return classLoader;
+        }
+
         @Override
         public Optional<ClassReader> createByteCodeClassReader(ParameterizedType type)
+        {
+            return createByteCodeClassReader(classLoader, type);
+        }
+
+        @Override
+        public Class<?> loadClass(ParameterizedType type)
+        {
+            return loadClass(classLoader, type);
+        }
+
+        static Optional<ClassReader> createByteCodeClassReader(ClassLoader classLoader, ParameterizedType type)
         {
             String classFileName = type.getClassName() + ".class";
             try (InputStream inputStream = classLoader.getResourceAsStream(classFileName)) {
@@ -223,8 +316,7 @@ public class ClassInfoLoader
             }
         }
 
-        @Override
-        public Class<?> loadClass(ParameterizedType type)
+        static Class<?> loadClass(ClassLoader classLoader, ParameterizedType type)
         {
             try {
                 return classLoader.loadClass(type.getJavaClassName());
@@ -234,4 +326,35 @@ public class ClassInfoLoader
             }
         }
     }
+
+    private static class WeakClassLoaderLoader
+            implements Loader
+    {
+        private final WeakReference<ClassLoader> classLoader;
+
+        public WeakClassLoaderLoader(ClassLoader classLoader)
+        {
+            this.classLoader = new WeakReference<>(requireNonNull(classLoader, "classLoader is null"));
+        }
+
+        @Override
+        public ClassLoader getClassLoader()
+        {
+            ClassLoader classLoader = this.classLoader.get();
+            checkState(classLoader != null, "Class loader has been garbage collected");
+            return classLoader;
+        }
+
+        @Override
+        public Optional<ClassReader> createByteCodeClassReader(ParameterizedType type)
+        {
+            return ClassLoaderLoader.createByteCodeClassReader(getClassLoader(), type);
+        }
+
+        @Override
+        public Class<?> loadClass(ParameterizedType type)
+        {
+            return ClassLoaderLoader.loadClass(getClassLoader(), type);
+        }
+    }
 }
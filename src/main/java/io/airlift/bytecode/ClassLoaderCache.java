@@ -0,0 +1,142 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Throwables.throwIfUnchecked;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Cache of classes generated in a class loader of their own, which bounds the metaspace
+ * used by the generated classes. Each entry holds the class loader and the value created
+ * by the generator, for example the generated classes or instances of them, and is weighed
+ * by the size of the bytecode of the classes defined in the class loader. When the total
+ * size exceeds the maximum, the least recently used entries are dropped, so their class
+ * loaders can be unloaded once the classes are no longer used elsewhere.
+ *
+ * @param <K> the key of the generated classes
+ * @param <V> the value created from the generated classes
+ */
+@ThreadSafe
+public final class ClassLoaderCache<K, V>
+{
+    private final ClassLoader parentClassLoader;
+    private final Cache<K, Entry<V>> entries;
+    private final AtomicLong classCount = new AtomicLong();
+    private final AtomicLong byteSize = new AtomicLong();
+
+    public ClassLoaderCache(ClassLoader parentClassLoader, long maximumByteSize)
+    {
+        this.parentClassLoader = requireNonNull(parentClassLoader, "parentClassLoader is null");
+        checkArgument(maximumByteSize > 0, "maximumByteSize must be positive");
+        // a single segment, because the maximum weight is split between the segments
+        this.entries = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maximumByteSize)
+                .<K, Entry<V>>weigher((key, entry) -> (int) Math.min(entry.byteSize(), Integer.MAX_VALUE))
+                .removalListener(this::entryRemoved)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the value for the key, or generates the classes for the key in a new class
+     * loader. The generator is called at most once for concurrent lookups of the same key.
+     */
+    public V get(K key, Function<DynamicClassLoader, V> generator)
+    {
+        requireNonNull(key, "key is null");
+        requireNonNull(generator, "generator is null");
+
+        try {
+            return entries.get(key, () -> {
+                DynamicClassLoader classLoader = new DynamicClassLoader(parentClassLoader);
+                V value = requireNonNull(generator.apply(classLoader), "generator returned null");
+                Entry<V> newEntry = new Entry<>(classLoader, value, classLoader.getDefinedClassCount(), classLoader.getDefinedByteSize());
+                classCount.addAndGet(newEntry.classCount());
+                byteSize.addAndGet(newEntry.byteSize());
+                return newEntry;
+            }).value();
+        }
+        catch (ExecutionException | UncheckedExecutionException e) {
+            throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void entryRemoved(RemovalNotification<K, Entry<V>> notification)
+    {
+        classCount.addAndGet(-notification.getValue().classCount());
+        byteSize.addAndGet(-notification.getValue().byteSize());
+    }
+
+    /**
+     * Number of class loaders in the cache.
+     */
+    public long size()
+    {
+        return entries.size();
+    }
+
+    public long getClassCount()
+    {
+        return classCount.get();
+    }
+
+    /**
+     * Size of the bytecode of the classes in the cache.
+     */
+    public long getByteSize()
+    {
+        return byteSize.get();
+    }
+
+    public long getHitCount()
+    {
+        return entries.stats().hitCount();
+    }
+
+    public long getMissCount()
+    {
+        return entries.stats().missCount();
+    }
+
+    public long getEvictionCount()
+    {
+        return entries.stats().evictionCount();
+    }
+
+    public void invalidate(K key)
+    {
+        entries.invalidate(key);
+    }
+
+    public void invalidateAll()
+    {
+        entries.invalidateAll();
+    }
+
+    private record Entry<V>(DynamicClassLoader classLoader, V value, long classCount, long byteSize) {}
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Groups many small generated classes into shared class loaders. Every class loader
+ * has its own metaspace chunks and dictionary, which cost more than a small class.
+ * <p>
+ * The pool hands out the class loader of the current generation until the maximum
+ * number of classes has been defined in it, or until {@link #nextGeneration()} is
+ * called, for example when a group of classes with the same lifetime is complete.
+ * Classes defined concurrently may exceed the maximum slightly. A class loader, with
+ * all classes of its generation, can be unloaded once none of these classes is
+ * reachable. Objects used by the classes should be bound with a {@link ClassDataBinder}
+ * and {@link ClassGenerator#defineClasses(List, ClassDataBinder)}, which bind them to
+ * each class instead of the class loader.
+ * <p>
+ * The pool holds the class loader of the current generation, and the class loader holds
+ * the classes and class data of its generation. The objects bound to a class therefore
+ * remain reachable until the generation is complete and none of its classes is reachable,
+ * even if the class itself is no longer used. The owner of the pool should start a new
+ * generation, or drop the pool, once its classes are no longer needed.
+ */
+@ThreadSafe
+public final class ClassLoaderPool
+{
+    private final ClassLoader parentClassLoader;
+    private final int maximumClassesPerClassLoader;
+
+    @GuardedBy("this")
+    private PooledClassLoader classLoader;
+    @GuardedBy("this")
+    private long generationCount;
+
+    public ClassLoaderPool(ClassLoader parentClassLoader, int maximumClassesPerClassLoader)
+    {
+        this.parentClassLoader = requireNonNull(parentClassLoader, "parentClassLoader is null");
+        checkArgument(maximumClassesPerClassLoader > 0, "maximumClassesPerClassLoader must be positive");
+        this.maximumClassesPerClassLoader = maximumClassesPerClassLoader;
+    }
+
+    /**
+     * Returns the class loader to define classes with unique names in.
+     */
+    public synchronized DynamicClassLoader getClassLoader()
+    {
+        if (!hasCapacity()) {
+            nextClassLoader();
+        }
+        return classLoader;
+    }
+
+    /**
+     * Returns the class loader to define the class in, which is the class loader of
+     * a new generation if the class name was already requested in the current one.
+     */
+    public synchronized DynamicClassLoader getClassLoader(String className)
+    {
+        requireNonNull(className, "className is null");
+        // a class loader can only define a class name once
+        if (!hasCapacity() || !classLoader.reserveClassName(className)) {
+            nextClassLoader();
+            classLoader.reserveClassName(className);
+        }
+        return classLoader;
+    }
+
+    /**
+     * Define the following classes in a new class loader.
+     */
+    public synchronized void nextGeneration()
+    {
+        classLoader = null;
+    }
+
+    public synchronized long getGenerationCount()
+    {
+        return generationCount;
+    }
+
+    @GuardedBy("this")
+    private boolean hasCapacity()
+    {
+        return classLoader != null && classLoader.getDefinedClassCount() < maximumClassesPerClassLoader;
+    }
+
+    @GuardedBy("this")
+    private void nextClassLoader()
+    {
+        classLoader = new PooledClassLoader(parentClassLoader);
+        generationCount++;
+    }
+
+    private static final class PooledClassLoader
+            extends DynamicClassLoader
+    {
+        static {
+            registerAsParallelCapable();
+        }
+
+        private final Set<String> classNames = ConcurrentHashMap.newKeySet();
+
+        private PooledClassLoader(ClassLoader parentClassLoader)
+        {
+            super(parentClassLoader);
+        }
+
+        boolean reserveClassName(String className)
+        {
+            return classNames.add(className);
+        }
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.collect.ImmutableList;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.bytecode.ParameterizedType.typeFromPathName;
+import static java.util.Objects.requireNonNull;
+import static org.objectweb.asm.Opcodes.ACC_ABSTRACT;
+import static org.objectweb.asm.Opcodes.ACC_BRIDGE;
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_INTERFACE;
+import static org.objectweb.asm.Opcodes.ACC_NATIVE;
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_PROTECTED;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ACC_SYNCHRONIZED;
+import static org.objectweb.asm.Opcodes.ACC_SYNTHETIC;
+import static org.objectweb.asm.Opcodes.ACC_VARARGS;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ASM9;
+import static org.objectweb.asm.Opcodes.ILOAD;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.IRETURN;
+import static org.objectweb.asm.Opcodes.V11;
+
+/**
+ * Moves the methods of a class with more constants or methods than the budget to
+ * synthetic shard classes, which are nestmates of the class so the moved methods
+ * can still access the private members of the class. Instance methods become static
+ * methods taking the instance as the first parameter. Methods that are not private
+ * are replaced by a stub in the class that calls the moved method.
+ * <p>
+ * The size of the constant pool is estimated from the constants of the class before
+ * the stack map frames are computed.
+ */
+@NotThreadSafe
+class ClassSplitter
+{
+    static final String SHARD_SUFFIX = "$Shard";
+    private static final String OBJECT = "java/lang/Object";
+
+    private final ClassInfoLoader classInfoLoader;
+    private final int maximumConstantPoolSize;
+    private final int maximumMethodCount;
+
+    public ClassSplitter(ClassInfoLoader classInfoLoader, int maximumConstantPoolSize, int maximumMethodCount)
+    {
+        this.classInfoLoader = requireNonNull(classInfoLoader, "classInfoLoader is null");
+        checkArgument(maximumConstantPoolSize > 0, "maximumConstantPoolSize must be positive");
+        checkArgument(maximumMethodCount > 0, "maximumMethodCount must be positive");
+        this.maximumConstantPoolSize = maximumConstantPoolSize;
+        this.maximumMethodCount = maximumMethodCount;
+    }
+
+    /**
+     * Returns the class followed by its shards, or only the class if it is within the budget
+     * or none of its methods can be moved. The methods of the class node are modified in place.
+     */
+    public List<ClassNode> split(ClassNode classNode)
+    {
+        if ((classNode.access & ACC_INTERFACE) != 0 || classNode.version < V11 || classNode.nestHostClass != null) {
+            return ImmutableList.of(classNode);
+        }
+
+        ConstantPoolCounter counter = new ConstantPoolCounter(classNode);
+        classNode.methods.forEach(counter::add);
+        if (counter.size() <= maximumConstantPoolSize && classNode.methods.size() <= maximumMethodCount) {
+            return ImmutableList.of(classNode);
+        }
+
+        List<MethodNode> movableMethods = getMovableMethods(classNode);
+        if (movableMethods.isEmpty()) {
+            return ImmutableList.of(classNode);
+        }
+
+        // assign the methods to shards in declaration order
+        List<ClassNode> shards = new ArrayList<>();
+        List<List<MethodNode>> shardMethods = new ArrayList<>();
+        ConstantPoolCounter shardCounter = null;
+        for (MethodNode method : movableMethods) {
+            if (shardCounter != null) {
+                shardCounter.add(method);
+                List<MethodNode> methods = shardMethods.get(shardMethods.size() - 1);
+                if (shardCounter.size() <= maximumConstantPoolSize && methods.size() < maximumMethodCount) {
+                    methods.add(method);
+                    continue;
+                }
+            }
+            ClassNode shard = createShard(classNode, shards.size());
+            shards.add(shard);
+            shardMethods.add(new ArrayList<>(ImmutableList.of(method)));
+            shardCounter = new ConstantPoolCounter(shard);
+            shardCounter.add(method);
+        }
+
+        // calls to static and private methods are bound to the moved method, while the
+        // other methods are still dispatched through the stub in the class
+        Map<String, MovedMethod> directCalls = new HashMap<>();
+        Map<MethodNode, MethodNode> stubs = new HashMap<>();
+        Set<MethodNode> movedMethods = new HashSet<>();
+        for (int i = 0; i < shards.size(); i++) {
+            ClassNode shard = shards.get(i);
+            for (MethodNode method : shardMethods.get(i)) {
+                MovedMethod movedMethod = new MovedMethod(shard.name, getMovedDescriptor(classNode.name, method));
+                if ((method.access & (ACC_STATIC | ACC_PRIVATE)) != 0) {
+                    directCalls.put(method.name + method.desc, movedMethod);
+                }
+                if ((method.access & ACC_PRIVATE) == 0) {
+                    stubs.put(method, createStub(method, movedMethod));
+                }
+                moveMethod(method, movedMethod);
+                movedMethods.add(method);
+                shard.methods.add(method);
+            }
+        }
+
+        List<MethodNode> methods = new ArrayList<>();
+        for (MethodNode method : classNode.methods) {
+            if (stubs.containsKey(method)) {
+                methods.add(stubs.get(method));
+            }
+            else if (!movedMethods.contains(method)) {
+                methods.add(method);
+            }
+        }
+        classNode.methods = methods;
+
+        ImmutableList.Builder<ClassNode> classes = ImmutableList.builder();
+        classes.add(classNode);
+        for (ClassNode shard : shards) {
+            classNode.visitNestMember(shard.name);
+            classes.add(shard);
+        }
+        List<ClassNode> result = classes.build();
+        for (ClassNode clazz : result) {
+            for (MethodNode method : clazz.methods) {
+                bindDirectCalls(classNode.name, method, directCalls);
+            }
+        }
+        return result;
+    }
+
+    private List<MethodNode> getMovableMethods(ClassNode classNode)
+    {
+        // methods referenced by a method handle must stay in the class
+        Set<String> handleTargets = new HashSet<>();
+        for (MethodNode method : classNode.methods) {
+            for (AbstractInsnNode instruction : method.instructions) {
+                if (instruction instanceof InvokeDynamicInsnNode invokeDynamic) {
+                    addHandleTargets(classNode.name, invokeDynamic.bsm, handleTargets);
+                    for (Object argument : invokeDynamic.bsmArgs) {
+                        addHandleTargets(classNode.name, argument, handleTargets);
+                    }
+                }
+                else if (instruction instanceof LdcInsnNode ldc) {
+                    addHandleTargets(classNode.name, ldc.cst, handleTargets);
+                }
+            }
+        }
+
+        Set<String> superclasses = getSuperclasses(classNode);
+        Set<String> declaredMembers = new HashSet<>();
+        for (FieldNode field : classNode.fields) {
+            declaredMembers.add(field.name);
+        }
+        for (MethodNode method : classNode.methods) {
+            declaredMembers.add(method.name + method.desc);
+        }
+
+        List<MethodNode> movableMethods = new ArrayList<>();
+        for (MethodNode method : classNode.methods) {
+            if (isMovable(classNode, method, handleTargets, superclasses, declaredMembers)) {
+                movableMethods.add(method);
+            }
+        }
+        return movableMethods;
+    }
+
+    private static boolean isMovable(ClassNode classNode, MethodNode method, Set<String> handleTargets, Set<String> superclasses, Set<String> declaredMembers)
+    {
+        if (method.name.equals("<init>") || method.name.equals("<clinit>") ||
+                (method.access & (ACC_ABSTRACT | ACC_NATIVE | ACC_SYNCHRONIZED)) != 0 ||
+                handleTargets.contains(method.name + method.desc)) {
+            return false;
+        }
+        for (AbstractInsnNode instruction : method.instructions) {
+            if (instruction instanceof MethodInsnNode invoke) {
+                // super calls are only allowed in the class itself
+                if (invoke.getOpcode() == INVOKESPECIAL && !invoke.name.equals("<init>")) {
+                    return false;
+                }
+                if (!invoke.name.equals("<init>") && isInheritedMember(classNode.name, invoke.owner, invoke.name, invoke.name + invoke.desc, superclasses, declaredMembers)) {
+                    return false;
+                }
+            }
+            else if (instruction instanceof FieldInsnNode field) {
+                if (isInheritedMember(classNode.name, field.owner, field.name, field.name, superclasses, declaredMembers)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // protected members inherited from a superclass in another package are only accessible from subclasses
+    private static boolean isInheritedMember(String className, String owner, String name, String member, Set<String> superclasses, Set<String> declaredMembers)
+    {
+        if (owner.equals(className)) {
+            if (declaredMembers.contains(member)) {
+                return false;
+            }
+            owner = superclasses.isEmpty() ? OBJECT : superclasses.iterator().next();
+        }
+        if (owner.equals(OBJECT)) {
+            return name.equals("clone") || name.equals("finalize");
+        }
+        return superclasses.contains(owner);
+    }
+
+    // superclasses of the class, nearest first, excluding java.lang.Object
+    private Set<String> getSuperclasses(ClassNode classNode)
+    {
+        Set<String> superclasses = new LinkedHashSet<>();
+        if (classNode.superName == null || classNode.superName.equals(OBJECT)) {
+            return superclasses;
+        }
+        ClassInfo classInfo = classInfoLoader.loadClassInfo(typeFromPathName(classNode.superName));
+        while (classInfo != null && !classInfo.getType().getClassName().equals(OBJECT)) {
+            superclasses.add(classInfo.getType().getClassName());
+            classInfo = classInfo.getSuperclass();
+        }
+        return superclasses;
+    }
+
+    private static void addHandleTargets(String className, Object constant, Set<String> handleTargets)
+    {
+        if (constant instanceof Handle handle) {
+            if (handle.getOwner().equals(className)) {
+                handleTargets.add(handle.getName() + handle.getDesc());
+            }
+        }
+        else if (constant instanceof ConstantDynamic constantDynamic) {
+            addHandleTargets(className, constantDynamic.getBootstrapMethod(), handleTargets);
+            for (int i = 0; i < constantDynamic.getBootstrapMethodArgumentCount(); i++) {
+                addHandleTargets(className, constantDynamic.getBootstrapMethodArgument(i), handleTargets);
+            }
+        }
+    }
+
+    private static ClassNode createShard(ClassNode classNode, int index)
+    {
+        ClassNode shard = new ClassNode(ASM9);
+        shard.visit(classNode.version, ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, classNode.name + SHARD_SUFFIX + index, null, OBJECT, null);
+        shard.visitSource(classNode.sourceFile, null);
+        shard.visitNestHost(classNode.name);
+        return shard;
+    }
+
+    private static String getMovedDescriptor(String className, MethodNode method)
+    {
+        if ((method.access & ACC_STATIC) != 0) {
+            return method.desc;
+        }
+        return "(L" + className + ";" + method.desc.substring(1);
+    }
+
+    private static MethodNode createStub(MethodNode method, MovedMethod movedMethod)
+    {
+        MethodNode stub = new MethodNode(
+                ASM9,
+                method.access,
+                method.name,
+                method.desc,
+                method.signature,
+                method.exceptions.toArray(new String[0]));
+        stub.visibleAnnotations = method.visibleAnnotations;
+        stub.invisibleAnnotations = method.invisibleAnnotations;
+        stub.visibleAnnotableParameterCount = method.visibleAnnotableParameterCount;
+        stub.visibleParameterAnnotations = method.visibleParameterAnnotations;
+        stub.invisibleAnnotableParameterCount = method.invisibleAnnotableParameterCount;
+        stub.invisibleParameterAnnotations = method.invisibleParameterAnnotations;
+        stub.parameters = method.parameters;
+
+        int slot = 0;
+        if ((method.access & ACC_STATIC) == 0) {
+            stub.visitVarInsn(ALOAD, slot++);
+        }
+        for (Type argumentType : Type.getArgumentTypes(method.desc)) {
+            stub.visitVarInsn(argumentType.getOpcode(ILOAD), slot);
+            slot += argumentType.getSize();
+        }
+        stub.visitMethodInsn(INVOKESTATIC, movedMethod.owner(), method.name, movedMethod.descriptor(), false);
+        stub.visitInsn(Type.getReturnType(method.desc).getOpcode(IRETURN));
+        stub.visitMaxs(Math.max(slot, Type.getReturnType(method.desc).getSize()), slot);
+        stub.visitEnd();
+        return stub;
+    }
+
+    private static void moveMethod(MethodNode method, MovedMethod movedMethod)
+    {
+        boolean stubbed = (method.access & ACC_PRIVATE) == 0;
+        boolean instanceMethod = (method.access & ACC_STATIC) == 0;
+
+        method.access = (method.access & ~(ACC_PUBLIC | ACC_PROTECTED | ACC_PRIVATE | ACC_FINAL | ACC_VARARGS | ACC_BRIDGE)) | ACC_STATIC | ACC_SYNTHETIC;
+        method.desc = movedMethod.descriptor();
+        method.signature = null;
+        if (stubbed) {
+            // the annotations are declared by the stub
+            method.visibleAnnotations = null;
+            method.invisibleAnnotations = null;
+        }
+        if (stubbed || instanceMethod) {
+            method.visibleAnnotableParameterCount = 0;
+            method.visibleParameterAnnotations = null;
+            method.invisibleAnnotableParameterCount = 0;
+            method.invisibleParameterAnnotations = null;
+            method.parameters = null;
+        }
+    }
+
+    private static void bindDirectCalls(String className, MethodNode method, Map<String, MovedMethod> directCalls)
+    {
+        for (AbstractInsnNode instruction : method.instructions) {
+            if (instruction instanceof MethodInsnNode invoke && invoke.owner.equals(className)) {
+                MovedMethod movedMethod = directCalls.get(invoke.name + invoke.desc);
+                if (movedMethod != null) {
+                    invoke.setOpcode(INVOKESTATIC);
+                    invoke.owner = movedMethod.owner();
+                    invoke.desc = movedMethod.descriptor();
+                    invoke.itf = false;
+                }
+            }
+        }
+    }
+
+    private record MovedMethod(String owner, String descriptor) {}
+
+    // counts the constants of a class with a class writer that is never written
+    private static final class ConstantPoolCounter
+    {
+        private final ClassWriter classWriter = new ClassWriter(0);
+        private int probes;
+
+        public ConstantPoolCounter(ClassNode classNode)
+        {
+            classWriter.visit(classNode.version, classNode.access, classNode.name, classNode.signature, classNode.superName, classNode.interfaces.toArray(new String[0]));
+            if (classNode.sourceFile != null) {
+                classWriter.visitSource(classNode.sourceFile, null);
+            }
+            if (classNode.nestHostClass != null) {
+                classWriter.visitNestHost(classNode.nestHostClass);
+            }
+            for (FieldNode field : classNode.fields) {
+                field.accept(classWriter);
+            }
+        }
+
+        public void add(MethodNode method)
+        {
+            method.accept(classWriter);
+        }
+
+        public int size()
+        {
+            // every probe adds a constant to the pool, which is excluded from the size
+            probes++;
+            return classWriter.newUTF8("\0probe" + probes) - probes;
+        }
+    }
+}
@@ -14,22 +14,35 @@
 package io.airlift.bytecode;
 
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Sets;
-import com.google.common.collect.Sets.SetView;
 
 import java.lang.invoke.MethodHandle;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
 public class DynamicClassLoader
         extends ClassLoader
 {
+    static {
+        // lock each class name separately instead of the whole loader
+        registerAsParallelCapable();
+    }
+
     private final ConcurrentMap<String, byte[]> pendingClasses = new ConcurrentHashMap<>();
+    // classes loaded by the override or parent class loader, which are assumed to not change
+    private final ConcurrentMap<String, Class<?>> delegatedClasses = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, List<Object>> classData = new ConcurrentHashMap<>();
+    private final AtomicLong definedClassCount = new AtomicLong();
+    private final AtomicLong definedByteSize = new AtomicLong();
     private final Map<Long, MethodHandle> callSiteBindings;
     private final Optional<ClassLoader> overrideClassLoader;
 
@@ -54,16 +67,35 @@ public class DynamicClassLoader
 
     public Class<?> defineClass(String className, byte[] bytecode)
     {
-        return defineClass(className, bytecode, 0, bytecode.length);
+        Class<?> clazz = defineClass(className, bytecode, 0, bytecode.length);
+        definedClassCount.incrementAndGet();
+        definedByteSize.addAndGet(bytecode.length);
+        return clazz;
     }
 
     public Map<String, Class<?>> defineClasses(Map<String, byte[]> newClasses)
     {
-        SetView<String> conflicts = Sets.intersection(pendingClasses.keySet(), newClasses.keySet());
-        checkArgument(conflicts.isEmpty(), "The classes %s have already been defined", conflicts);
+        // register each class atomically, so concurrent batches do not need a shared lock
+        Map<String, byte[]> registered = new HashMap<>();
+        Set<String> conflicts = new HashSet<>();
+        for (Entry<String, byte[]> entry : newClasses.entrySet()) {
+            if (pendingClasses.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                registered.put(entry.getKey(), entry.getValue());
+            }
+            else {
+                conflicts.add(entry.getKey());
+            }
+        }
+        // a class loaded earlier would be returned instead of the new bytecode
+        for (String className : registered.keySet()) {
+            if (findLoadedClass(className) != null) {
+                conflicts.add(className);
+            }
+        }
 
-        pendingClasses.putAll(newClasses);
         try {
+            checkArgument(conflicts.isEmpty(), "The classes %s have already been defined", conflicts);
+
             Map<String, Class<?>> classes = new HashMap<>();
             for (String className : newClasses.keySet()) {
                 try {
@@ -78,7 +110,8 @@ public class DynamicClassLoader
             return classes;
         }
         finally {
-            pendingClasses.keySet().removeAll(newClasses.keySet());
+            // only remove the classes of this batch, which may conflict with another batch
+            registered.forEach(pendingClasses::remove);
         }
     }
 
@@ -87,22 +120,107 @@ public class DynamicClassLoader
         return callSiteBindings;
     }
 
+    boolean hasOverrideClassLoader()
+    {
+        return overrideClassLoader.isPresent();
+    }
+
+    Optional<ClassLoader> getOverrideClassLoader()
+    {
+        return overrideClassLoader;
+    }
+
+    // class data of classes that are not hidden, see ClassDataBinder
+    void setClassData(String className, List<Object> classData)
+    {
+        checkArgument(this.classData.putIfAbsent(className, classData) == null, "Class data already set for class %s", className);
+    }
+
+    void removeClassData(String className, List<Object> classData)
+    {
+        this.classData.remove(className, classData);
+    }
+
+    List<Object> getClassData(String className)
+    {
+        return classData.get(className);
+    }
+
+    long getDefinedClassCount()
+    {
+        return definedClassCount.get();
+    }
+
+    // the size of the bytecode of the defined classes, which is an estimate of their metaspace
+    long getDefinedByteSize()
+    {
+        return definedByteSize.get();
+    }
+
+    boolean isPendingClass(String name)
+    {
+        return pendingClasses.containsKey(name);
+    }
+
+    Class<?> findDefinedClass(String name)
+    {
+        return findLoadedClass(name);
+    }
+
     @Override
     protected Class<?> findClass(String name)
             throws ClassNotFoundException
     {
+        Class<?> clazz = findPendingClass(name);
+        if (clazz == null) {
+            throw new ClassNotFoundException(name);
+        }
+        return clazz;
+    }
+
+    private Class<?> findPendingClass(String name)
+    {
+        FindClassEvent event = new FindClassEvent();
+        event.begin();
         byte[] bytecode = pendingClasses.get(name);
         if (bytecode == null) {
-            throw new ClassNotFoundException(name);
+            commitEvent(event, name, null);
+            return null;
         }
 
-        return defineClass(name, bytecode);
+        Class<?> clazz = defineClass(name, bytecode);
+        commitEvent(event, name, bytecode);
+        return clazz;
+    }
+
+    private static void commitEvent(FindClassEvent event, String className, byte[] bytecode)
+    {
+        if (event.shouldCommit()) {
+            event.className = className;
+            event.defined = bytecode != null;
+            event.byteSize = bytecode == null ? 0 : bytecode.length;
+            event.commit();
+        }
     }
 
     @Override
     protected Class<?> loadClass(String name, boolean resolve)
             throws ClassNotFoundException
     {
+        // classes defined here take precedence over classes delegated before they were defined
+        Class<?> loadedClass = findLoadedClass(name);
+        if (loadedClass != null) {
+            return resolveClass(loadedClass, resolve);
+        }
+
+        // classes of other loaders do not need the lock, unless the class is about to be defined here
+        if (!pendingClasses.containsKey(name)) {
+            Class<?> delegatedClass = delegatedClasses.get(name);
+            if (delegatedClass != null) {
+                return resolveClass(delegatedClass, resolve);
+            }
+        }
+
         // grab the magic lock
         synchronized (getClassLoadingLock(name)) {
             // Check if class is in the loaded classes cache
@@ -111,28 +229,32 @@ public class DynamicClassLoader
                 return resolveClass(cachedClass, resolve);
             }
 
-            try {
-                Class<?> clazz = findClass(name);
+            Class<?> clazz = findPendingClass(name);
+            if (clazz != null) {
                 return resolveClass(clazz, resolve);
             }
-            catch (ClassNotFoundException ignored) {
-                // not a local class
-            }
 
-            if (overrideClassLoader.isPresent()) {
-                try {
-                    return resolveClass(overrideClassLoader.get().loadClass(name), resolve);
-                }
-                catch (ClassNotFoundException e) {
-                    // not in override loader
-                }
-            }
-
-            Class<?> clazz = getParent().loadClass(name);
+            clazz = loadDelegatedClass(name);
+            delegatedClasses.putIfAbsent(name, clazz);
             return resolveClass(clazz, resolve);
         }
     }
 
+    private Class<?> loadDelegatedClass(String name)
+            throws ClassNotFoundException
+    {
+        if (overrideClassLoader.isPresent()) {
+            try {
+                return overrideClassLoader.get().loadClass(name);
+            }
+            catch (ClassNotFoundException e) {
+                // not in override loader
+            }
+        }
+
+        return getParent().loadClass(name);
+    }
+
     private Class<?> resolveClass(Class<?> clazz, boolean resolve)
     {
         if (resolve) {
@@ -17,44 +17,79 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import io.airlift.bytecode.control.TryCatch;
 import io.airlift.bytecode.control.TryCatch.CatchBlock;
+import io.airlift.bytecode.expression.BytecodeExpression;
 
 import java.lang.invoke.CallSite;
 import java.lang.invoke.ConstantCallSite;
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleInfo;
 import java.lang.invoke.MethodHandleProxies;
 import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Throwables.throwIfUnchecked;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.MoreCollectors.onlyElement;
+import static com.google.common.primitives.Primitives.isWrapperType;
+import static com.google.common.primitives.Primitives.wrap;
 import static io.airlift.bytecode.Access.FINAL;
+import static io.airlift.bytecode.Access.PRIVATE;
 import static io.airlift.bytecode.Access.PUBLIC;
 import static io.airlift.bytecode.Access.SYNTHETIC;
 import static io.airlift.bytecode.Access.a;
 import static io.airlift.bytecode.ClassGenerator.classGenerator;
-import static io.airlift.bytecode.FastMethodHandleProxies.Bootstrap.BOOTSTRAP_METHOD;
+import static io.airlift.bytecode.HiddenClassGenerator.hiddenClassGenerator;
 import static io.airlift.bytecode.Parameter.arg;
 import static io.airlift.bytecode.ParameterizedType.type;
 import static io.airlift.bytecode.ParameterizedType.typeFromJavaClassName;
-import static io.airlift.bytecode.expression.BytecodeExpressions.invokeDynamic;
+import static io.airlift.bytecode.expression.BytecodeExpressions.invokeStatic;
+import static java.lang.String.format;
+import static java.lang.invoke.MethodHandleInfo.REF_invokeInterface;
+import static java.lang.invoke.MethodHandleInfo.REF_invokeStatic;
+import static java.lang.invoke.MethodHandleInfo.REF_invokeVirtual;
 import static java.lang.invoke.MethodType.methodType;
 import static java.util.Arrays.stream;
+import static java.util.Objects.requireNonNull;
 
 public final class FastMethodHandleProxies
 {
     private static final AtomicLong CLASS_ID = new AtomicLong();
 
+    // the proxy class of each interface, which is unloaded with the interface
+    private static final ClassValue<ProxyFactory> PROXY_FACTORIES = new ClassValue<>()
+    {
+        @Override
+        protected ProxyFactory computeValue(Class<?> type)
+        {
+            return createProxyFactory(type);
+        }
+    };
+
     private FastMethodHandleProxies() {}
 
     /**
      * Faster version of {@link MethodHandleProxies#asInterfaceInstance(Class, MethodHandle)}.
+     * <p>
+     * The proxies of an interface share one generated class, which holds the target
+     * in a final field, so creating a proxy only allocates the proxy. Use
+     * {@link #asInterfaceInstance(String, Class, MethodHandle)} to bind the target
+     * as a constant of a class of its own.
      *
      * @param <T> the desired type of the wrapper, a single-method interface
      * @param type a class object representing {@code T}
@@ -63,8 +98,17 @@ public final class FastMethodHandleProxies
      */
     public static <T> T asInterfaceInstance(Class<T> type, MethodHandle target)
     {
-        String className = "$gen." + type.getName() + "_" + CLASS_ID.incrementAndGet();
-        return asInterfaceInstance(className, type, target);
+        checkArgument(type.isInterface() && Modifier.isPublic(type.getModifiers()), "not a public interface: %s", type.getName());
+
+        ProxyFactory proxyFactory = PROXY_FACTORIES.get(type);
+        MethodHandle adaptedTarget = target.asType(proxyFactory.methodType());
+        try {
+            return type.cast(proxyFactory.constructor().invokeExact(adaptedTarget));
+        }
+        catch (Throwable e) {
+            throwIfUnchecked(e);
+            throw new RuntimeException(e);
+        }
     }
 
     /**
@@ -89,9 +133,342 @@ public final class FastMethodHandleProxies
         classDefinition.declareDefaultConstructor(a(PUBLIC));
 
         Method method = getSingleAbstractMethod(type);
+        MethodHandle adaptedTarget = target.asType(methodType(method.getReturnType(), method.getParameterTypes()));
+        ClassDataBinder classDataBinder = new ClassDataBinder();
+        declareProxyMethod(classDefinition, method, (methodDefinition, parameters) -> classDataBinder.bind(adaptedTarget)
+                .invoke("invokeExact", type(method.getReturnType()), parameters));
+
+        // note this will not work if interface class is not visible from this class loader,
+        // but we must use this class loader to ensure the class data bootstrap method is visible
+        // the proxy has a class loader of its own, so the target is unreachable with the proxy
+        DynamicClassLoader dynamicClassLoader = new DynamicClassLoader(FastMethodHandleProxies.class.getClassLoader());
+        Class<? extends T> newClass = classGenerator(dynamicClassLoader).defineClass(classDefinition, type, classDataBinder);
+        try {
+            return newClass.getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Faster version of {@link MethodHandleProxies#asInterfaceInstance(Class, MethodHandle)}
+     * that defines the proxy as a hidden class in the package of the lookup class. The target
+     * is bound as a constant through the class data of the proxy class. The interface only
+     * needs to be accessible from the lookup class, no class loader is created, and the
+     * proxy class can be unloaded as soon as the proxy is unreachable.
+     * <p>
+     * When the target is a direct method handle to a static, virtual or interface method
+     * that is accessible from the package of the lookup class, the proxy calls the method
+     * directly instead of invoking the target.
+     *
+     * @param <T> the desired type of the wrapper, a single-method interface
+     * @param lookup a lookup with full privilege access, in which the proxy class is defined
+     * @param type a class object representing {@code T}
+     * @param target the method handle to invoke from the wrapper
+     * @return a correctly-typed wrapper for the given target
+     */
+    public static <T> T asInterfaceInstance(Lookup lookup, Class<T> type, MethodHandle target)
+    {
+        checkArgument(type.isInterface(), "not an interface: %s", type.getName());
+        return asInstance(lookup, type, ImmutableMap.of(getSingleAbstractMethod(type), target));
+    }
+
+    /**
+     * Creates an instance of the interface or class that implements each abstract method
+     * with the static method of the same name and method type in the implementation class.
+     *
+     * @param <T> the type of the instance, an interface or a class with an accessible no-arg constructor
+     * @param lookup a lookup with full privilege access, in which the implementation methods are
+     * found and the proxy class is defined
+     * @param type a class object representing {@code T}
+     * @param implementation the class containing the static implementation methods
+     * @return an instance of {@code T}
+     */
+    public static <T> T asInstance(Lookup lookup, Class<T> type, Class<?> implementation)
+    {
+        // abstract methods that only differ in the return type are implemented by the method with the most specific return type
+        Map<MethodSignature, Method> abstractMethods = new LinkedHashMap<>();
+        for (Method method : getOverridableMethods(type).values()) {
+            if (Modifier.isAbstract(method.getModifiers())) {
+                abstractMethods.merge(MethodSignature.of(method).withoutReturnType(), method, (first, second) ->
+                        first.getReturnType().isAssignableFrom(second.getReturnType()) ? second : first);
+            }
+        }
+
+        ImmutableMap.Builder<Method, MethodHandle> methods = ImmutableMap.builder();
+        for (Method method : abstractMethods.values()) {
+            try {
+                methods.put(method, lookup.findStatic(implementation, method.getName(), methodType(method.getReturnType(), method.getParameterTypes())));
+            }
+            catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException(format("no implementation of %s in %s", method, implementation.getName()), e);
+            }
+        }
+        return asInstance(lookup, type, methods.buildOrThrow());
+    }
+
+    /**
+     * Creates an instance of the interface or class that implements each method in the map
+     * by invoking the method handle it is mapped to.
+     *
+     * @param <T> the type of the instance, an interface or a class with an accessible no-arg constructor
+     * @param lookup a lookup with full privilege access, in which the proxy class is defined
+     * @param type a class object representing {@code T}
+     * @param methods the method handle invoked by each method, which must include every abstract method of {@code T}
+     * @return an instance of {@code T}
+     * @see #proxyConstructor(Lookup, Class, MethodType, Map)
+     */
+    public static <T> T asInstance(Lookup lookup, Class<T> type, Map<Method, MethodHandle> methods)
+    {
+        MethodHandle constructor = proxyConstructor(lookup, type, methodType(void.class), methods);
+        try {
+            return type.cast(constructor.invoke());
+        }
+        catch (Throwable e) {
+            throwIfUnchecked(e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Defines a proxy class of the interface or class that implements each method in the
+     * map by invoking the method handle it is mapped to, and returns its constructor. The
+     * proxy class is a hidden class in the package of the lookup class, and each method
+     * handle is bound as a constant through the class data of the proxy class, or called
+     * directly as described in {@link #asInterfaceInstance(Lookup, Class, MethodHandle)}.
+     * Abstract methods must be mapped, unless a mapped method has the same name and parameter
+     * types, such as a method with a covariant return type, in which case they invoke the method
+     * handle of that method. Methods that are not mapped, such as default methods of interfaces,
+     * are inherited.
+     *
+     * @param lookup a lookup with full privilege access, in which the proxy class is defined
+     * @param type the interface or class extended by the proxy class
+     * @param constructorType the type of the constructor of {@code type} invoked by the proxy constructor,
+     * which must be {@code ()void} for interfaces
+     * @param methods the method handle invoked by each method, which must include every abstract method of {@code type}
+     * @return a method handle with the parameters of {@code constructorType}, which returns a new {@code type}
+     */
+    public static MethodHandle proxyConstructor(Lookup lookup, Class<?> type, MethodType constructorType, Map<Method, MethodHandle> methods)
+    {
+        checkArgument(!type.isPrimitive() && !type.isArray() && !Modifier.isFinal(type.getModifiers()), "type can not be extended: %s", type.getName());
+        checkArgument(constructorType.returnType() == void.class, "constructor type does not return void: %s", constructorType);
+        checkArgument(lookup.hasFullPrivilegeAccess(), "lookup does not have full privilege access: %s", lookup);
+        try {
+            lookup.accessClass(type);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("type is not accessible from the lookup: " + type.getName(), e);
+        }
+
+        Map<MethodSignature, Method> overridableMethods = getOverridableMethods(type);
+        Map<MethodSignature, MethodHandle> targets = new LinkedHashMap<>();
+        Map<MethodSignature, MethodHandle> targetsWithoutReturnType = new LinkedHashMap<>();
+        methods.forEach((method, target) -> {
+            MethodSignature signature = MethodSignature.of(method);
+            Method overriddenMethod = overridableMethods.get(signature);
+            checkArgument(overriddenMethod != null && isOverridable(lookup, overriddenMethod.getModifiers(), overriddenMethod.getDeclaringClass()), "method can not be overridden: %s", method);
+            targets.put(signature, requireNonNull(target, "target is null"));
+            targetsWithoutReturnType.putIfAbsent(signature.withoutReturnType(), target);
+        });
+        for (Map.Entry<MethodSignature, Method> entry : overridableMethods.entrySet()) {
+            if (Modifier.isAbstract(entry.getValue().getModifiers()) && !targets.containsKey(entry.getKey())) {
+                // the JVM does not link methods that only differ in the return type, so each of them is implemented
+                MethodHandle target = targetsWithoutReturnType.get(entry.getKey().withoutReturnType());
+                checkArgument(target != null, "no method handle for abstract method: %s", entry.getValue());
+                targets.put(entry.getKey(), target);
+            }
+        }
+
+        Class<?> superclass = type.isInterface() ? Object.class : type;
+        try {
+            Constructor<?> superConstructor = superclass.getDeclaredConstructor(constructorType.parameterArray());
+            checkArgument(isOverridable(lookup, superConstructor.getModifiers(), superclass), "constructor is not accessible: %s", superConstructor);
+        }
+        catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(format("%s does not have a constructor %s", superclass.getName(), constructorType), e);
+        }
+
+        String packageName = lookup.lookupClass().getPackageName();
+        ClassDefinition classDefinition = new ClassDefinition(
+                a(PUBLIC, FINAL, SYNTHETIC),
+                typeFromJavaClassName((packageName.isEmpty() ? "" : packageName + ".") + type.getSimpleName() + "$FastProxy"),
+                type(superclass),
+                type.isInterface() ? new ParameterizedType[] {type(type)} : new ParameterizedType[0]);
+
+        List<Parameter> constructorParameters = new ArrayList<>();
+        for (int i = 0; i < constructorType.parameterCount(); i++) {
+            constructorParameters.add(arg("arg" + i, constructorType.parameterType(i)));
+        }
+        MethodDefinition constructor = classDefinition.declareConstructor(a(PUBLIC), constructorParameters);
+        BytecodeBlock constructorBody = constructor.getBody().append(constructor.getThis());
+        constructorParameters.forEach(constructorBody::append);
+        constructorBody
+                .invokeConstructor(superclass, constructorType.parameterList())
+                .ret();
+
+        ClassDataBinder classDataBinder = new ClassDataBinder();
+        targets.forEach((signature, target) -> {
+            Method method = overridableMethods.get(signature);
+            MethodHandle adaptedTarget = target.asType(methodType(method.getReturnType(), method.getParameterTypes()));
+            declareProxyMethod(classDefinition, method, (methodDefinition, parameters) -> invokeDirect(lookup, target, method, parameters)
+                    .orElseGet(() -> classDataBinder.bind(adaptedTarget).invoke("invokeExact", type(method.getReturnType()), parameters)));
+        });
+
+        Class<?> proxyClass = hiddenClassGenerator(lookup).defineHiddenClass(classDefinition, type, classDataBinder);
+        try {
+            return lookup.findConstructor(proxyClass, constructorType)
+                    .asType(constructorType.changeReturnType(type));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Optional<BytecodeExpression> invokeDirect(Lookup lookup, MethodHandle target, Method method, List<Parameter> parameters)
+    {
+        // the proxy class is not a nestmate of the lookup class, so it can only call members accessible from its package
+        Lookup packageLookup = lookup.dropLookupMode(Lookup.PRIVATE);
+        if (target.isVarargsCollector()) {
+            return Optional.empty();
+        }
+
+        MethodHandleInfo methodInfo;
+        try {
+            methodInfo = packageLookup.revealDirect(target);
+        }
+        catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        int referenceKind = methodInfo.getReferenceKind();
+        if (referenceKind != REF_invokeStatic && referenceKind != REF_invokeVirtual && referenceKind != REF_invokeInterface) {
+            return Optional.empty();
+        }
+
+        MethodType targetType = target.type();
         Class<?>[] parameterTypes = method.getParameterTypes();
-        MethodHandle adaptedTarget = target.asType(methodType(method.getReturnType(), parameterTypes));
+        List<BytecodeExpression> arguments = new ArrayList<>();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            Optional<BytecodeExpression> argument = convert(packageLookup, parameters.get(i), parameterTypes[i], targetType.parameterType(i));
+            if (argument.isEmpty()) {
+                return Optional.empty();
+            }
+            arguments.add(argument.get());
+        }
+
+        BytecodeExpression invocation;
+        if (referenceKind == REF_invokeStatic) {
+            if (!isAccessible(packageLookup, methodInfo.getDeclaringClass())) {
+                return Optional.empty();
+            }
+            invocation = invokeStatic(
+                    type(methodInfo.getDeclaringClass()),
+                    methodInfo.getName(),
+                    type(targetType.returnType()),
+                    targetType.parameterList().stream().map(ParameterizedType::type).collect(toImmutableList()),
+                    arguments);
+        }
+        else {
+            // the receiver has the type of the class the method was looked up in, which is accessible even if the declaring class is not
+            invocation = arguments.get(0).invoke(
+                    methodInfo.getName(),
+                    type(targetType.returnType()),
+                    targetType.dropParameterTypes(0, 1).parameterList().stream().map(ParameterizedType::type).collect(toImmutableList()),
+                    arguments.subList(1, arguments.size()));
+        }
 
+        if (method.getReturnType() == void.class) {
+            return Optional.of(invocation.pop());
+        }
+        if (targetType.returnType() == void.class) {
+            return Optional.empty();
+        }
+        return convert(packageLookup, invocation, targetType.returnType(), method.getReturnType());
+    }
+
+    // only the conversions of MethodHandle.asType that a cast performs identically
+    private static Optional<BytecodeExpression> convert(Lookup lookup, BytecodeExpression value, Class<?> sourceType, Class<?> targetType)
+    {
+        if (sourceType == targetType) {
+            return Optional.of(value);
+        }
+        if (!isAccessible(lookup, targetType)) {
+            return Optional.empty();
+        }
+        if (sourceType.isPrimitive() && targetType.isPrimitive()) {
+            return Optional.of(value.cast(targetType));
+        }
+        if (sourceType.isPrimitive()) {
+            if (targetType == wrap(sourceType) || targetType == Object.class) {
+                return Optional.of(value.cast(targetType));
+            }
+            return Optional.empty();
+        }
+        if (targetType.isPrimitive()) {
+            if (sourceType == wrap(targetType)) {
+                return Optional.of(value.cast(targetType));
+            }
+            return Optional.empty();
+        }
+        if (isWrapperType(sourceType) && isWrapperType(targetType)) {
+            return Optional.empty();
+        }
+        return Optional.of(value.cast(targetType));
+    }
+
+    private static boolean isAccessible(Lookup lookup, Class<?> type)
+    {
+        if (type.isPrimitive()) {
+            return true;
+        }
+        try {
+            lookup.accessClass(type);
+            return true;
+        }
+        catch (IllegalAccessException e) {
+            return false;
+        }
+    }
+
+    private static ProxyFactory createProxyFactory(Class<?> type)
+    {
+        ClassDefinition classDefinition = new ClassDefinition(
+                a(PUBLIC, FINAL, SYNTHETIC),
+                typeFromJavaClassName("$gen." + type.getName() + "_" + CLASS_ID.incrementAndGet()),
+                type(Object.class),
+                type(type));
+
+        FieldDefinition targetField = classDefinition.declareField(a(PRIVATE, FINAL), "target", MethodHandle.class);
+        Parameter targetParameter = arg("target", MethodHandle.class);
+        MethodDefinition constructor = classDefinition.declareConstructor(a(PUBLIC), targetParameter);
+        constructor.getBody()
+                .append(constructor.getThis())
+                .invokeConstructor(Object.class)
+                .append(constructor.getThis().setField(targetField, targetParameter))
+                .ret();
+
+        Method method = getSingleAbstractMethod(type);
+        declareProxyMethod(classDefinition, method, (methodDefinition, parameters) -> methodDefinition.getThis()
+                .getField(targetField)
+                .invoke("invokeExact", type(method.getReturnType()), parameters));
+
+        // the generated class only references types visible from the class loader of the interface
+        ClassLoader parentClassLoader = type.getClassLoader() == null ? FastMethodHandleProxies.class.getClassLoader() : type.getClassLoader();
+        Class<?> proxyClass = classGenerator(parentClassLoader).defineClass(classDefinition, type);
+        try {
+            MethodHandle proxyConstructor = MethodHandles.publicLookup()
+                    .findConstructor(proxyClass, methodType(void.class, MethodHandle.class))
+                    .asType(methodType(Object.class, MethodHandle.class));
+            return new ProxyFactory(methodType(method.getReturnType(), method.getParameterTypes()), proxyConstructor);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void declareProxyMethod(ClassDefinition classDefinition, Method method, BiFunction<MethodDefinition, List<Parameter>, BytecodeExpression> invoker)
+    {
+        Class<?>[] parameterTypes = method.getParameterTypes();
         List<Parameter> parameters = new ArrayList<>();
         for (int i = 0; i < parameterTypes.length; i++) {
             parameters.add(arg("arg" + i, parameterTypes[i]));
@@ -103,13 +480,7 @@ public final class FastMethodHandleProxies
                 type(method.getReturnType()),
                 parameters);
 
-        BytecodeNode invocation = invokeDynamic(
-                BOOTSTRAP_METHOD,
-                ImmutableList.of(),
-                method.getName(),
-                method.getReturnType(),
-                parameters)
-                .ret();
+        BytecodeNode invocation = invoker.apply(methodDefinition, parameters).ret();
 
         ImmutableList.Builder<ParameterizedType> exceptionTypes = ImmutableList.builder();
         exceptionTypes.add(type(RuntimeException.class), type(Error.class));
@@ -130,18 +501,51 @@ public final class FastMethodHandleProxies
                 new CatchBlock(throwUndeclared, ImmutableList.of())));
 
         methodDefinition.getBody().append(invocation);
+    }
 
-        // note this will not work if interface class is not visible from this class loader,
-        // but we must use this class loader to ensure the bootstrap method is visible
-        ClassLoader targetClassLoader = FastMethodHandleProxies.class.getClassLoader();
-        DynamicClassLoader dynamicClassLoader = new DynamicClassLoader(targetClassLoader, ImmutableMap.of(0L, adaptedTarget));
-        Class<? extends T> newClass = classGenerator(dynamicClassLoader).defineClass(classDefinition, type);
-        try {
-            return newClass.getDeclaredConstructor().newInstance();
+    // the methods that a subclass of the type could override, where the methods of classes take precedence over the methods of interfaces
+    private static Map<MethodSignature, Method> getOverridableMethods(Class<?> type)
+    {
+        Map<MethodSignature, Method> methods = new LinkedHashMap<>();
+        // bridge methods are not overridden, but they implement the methods they override
+        Set<MethodSignature> bridges = new HashSet<>();
+        for (Class<?> clazz = type.isInterface() ? Object.class : type; clazz != null; clazz = clazz.getSuperclass()) {
+            for (Method method : clazz.getDeclaredMethods()) {
+                if (!Modifier.isStatic(method.getModifiers()) && !Modifier.isPrivate(method.getModifiers())) {
+                    addOverridableMethod(methods, bridges, method);
+                }
+            }
         }
-        catch (ReflectiveOperationException e) {
-            throw new RuntimeException(e);
+        for (Method method : type.getMethods()) {
+            if (!Modifier.isStatic(method.getModifiers())) {
+                addOverridableMethod(methods, bridges, method);
+            }
         }
+        return methods;
+    }
+
+    private static void addOverridableMethod(Map<MethodSignature, Method> methods, Set<MethodSignature> bridges, Method method)
+    {
+        MethodSignature signature = MethodSignature.of(method);
+        if (method.isBridge()) {
+            bridges.add(signature);
+        }
+        else if (!bridges.contains(signature)) {
+            methods.putIfAbsent(signature, method);
+        }
+    }
+
+    private static boolean isOverridable(Lookup lookup, int modifiers, Class<?> declaringClass)
+    {
+        if (Modifier.isPrivate(modifiers) || Modifier.isFinal(modifiers)) {
+            return false;
+        }
+        if (Modifier.isPublic(modifiers) || Modifier.isProtected(modifiers)) {
+            return true;
+        }
+        // package private members can only be accessed from the same runtime package
+        return declaringClass.getPackageName().equals(lookup.lookupClass().getPackageName()) &&
+                declaringClass.getClassLoader() == lookup.lookupClass().getClassLoader();
     }
 
     private static <T> Method getSingleAbstractMethod(Class<T> type)
@@ -169,6 +573,22 @@ public final class FastMethodHandleProxies
                 !Arrays.equals(method.getParameterTypes(), parameterTypes);
     }
 
+    private record ProxyFactory(MethodType methodType, MethodHandle constructor) {}
+
+    // the name and descriptor of a method, as methods with covariant return types are distinct methods in the class file
+    private record MethodSignature(String name, MethodType type)
+    {
+        static MethodSignature of(Method method)
+        {
+            return new MethodSignature(method.getName(), methodType(method.getReturnType(), method.getParameterTypes()));
+        }
+
+        MethodSignature withoutReturnType()
+        {
+            return new MethodSignature(name, type.changeReturnType(void.class));
+        }
+    }
+
     public static final class Bootstrap
     {
         public static final Method BOOTSTRAP_METHOD;
@@ -0,0 +1,40 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("io.airlift.bytecode.FindClass")
+@Label("Find Class")
+@Category({"Airlift", "Bytecode"})
+@Description("Class lookup in a DynamicClassLoader, which defines the class if it is pending")
+class FindClassEvent
+        extends Event
+{
+    @Label("Class Name")
+    String className;
+
+    @Label("Defined")
+    @Description("The class was pending in the class loader and has been defined")
+    boolean defined;
+
+    @Label("Byte Size")
+    @DataAmount
+    long byteSize;
+}
@@ -0,0 +1,907 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+import static org.objectweb.asm.Opcodes.AALOAD;
+import static org.objectweb.asm.Opcodes.AASTORE;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACONST_NULL;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ANEWARRAY;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.ARRAYLENGTH;
+import static org.objectweb.asm.Opcodes.ASM9;
+import static org.objectweb.asm.Opcodes.ASTORE;
+import static org.objectweb.asm.Opcodes.ATHROW;
+import static org.objectweb.asm.Opcodes.BALOAD;
+import static org.objectweb.asm.Opcodes.BASTORE;
+import static org.objectweb.asm.Opcodes.BIPUSH;
+import static org.objectweb.asm.Opcodes.CALOAD;
+import static org.objectweb.asm.Opcodes.CASTORE;
+import static org.objectweb.asm.Opcodes.CHECKCAST;
+import static org.objectweb.asm.Opcodes.D2F;
+import static org.objectweb.asm.Opcodes.D2I;
+import static org.objectweb.asm.Opcodes.D2L;
+import static org.objectweb.asm.Opcodes.DADD;
+import static org.objectweb.asm.Opcodes.DALOAD;
+import static org.objectweb.asm.Opcodes.DASTORE;
+import static org.objectweb.asm.Opcodes.DCMPG;
+import static org.objectweb.asm.Opcodes.DCMPL;
+import static org.objectweb.asm.Opcodes.DCONST_0;
+import static org.objectweb.asm.Opcodes.DCONST_1;
+import static org.objectweb.asm.Opcodes.DDIV;
+import static org.objectweb.asm.Opcodes.DLOAD;
+import static org.objectweb.asm.Opcodes.DMUL;
+import static org.objectweb.asm.Opcodes.DNEG;
+import static org.objectweb.asm.Opcodes.DOUBLE;
+import static org.objectweb.asm.Opcodes.DREM;
+import static org.objectweb.asm.Opcodes.DRETURN;
+import static org.objectweb.asm.Opcodes.DSTORE;
+import static org.objectweb.asm.Opcodes.DSUB;
+import static org.objectweb.asm.Opcodes.DUP;
+import static org.objectweb.asm.Opcodes.DUP2;
+import static org.objectweb.asm.Opcodes.DUP2_X1;
+import static org.objectweb.asm.Opcodes.DUP2_X2;
+import static org.objectweb.asm.Opcodes.DUP_X1;
+import static org.objectweb.asm.Opcodes.DUP_X2;
+import static org.objectweb.asm.Opcodes.F2D;
+import static org.objectweb.asm.Opcodes.F2I;
+import static org.objectweb.asm.Opcodes.F2L;
+import static org.objectweb.asm.Opcodes.FADD;
+import static org.objectweb.asm.Opcodes.FALOAD;
+import static org.objectweb.asm.Opcodes.FASTORE;
+import static org.objectweb.asm.Opcodes.FCMPG;
+import static org.objectweb.asm.Opcodes.FCMPL;
+import static org.objectweb.asm.Opcodes.FCONST_0;
+import static org.objectweb.asm.Opcodes.FCONST_1;
+import static org.objectweb.asm.Opcodes.FCONST_2;
+import static org.objectweb.asm.Opcodes.FDIV;
+import static org.objectweb.asm.Opcodes.FLOAD;
+import static org.objectweb.asm.Opcodes.FLOAT;
+import static org.objectweb.asm.Opcodes.FMUL;
+import static org.objectweb.asm.Opcodes.FNEG;
+import static org.objectweb.asm.Opcodes.FREM;
+import static org.objectweb.asm.Opcodes.FRETURN;
+import static org.objectweb.asm.Opcodes.FSTORE;
+import static org.objectweb.asm.Opcodes.FSUB;
+import static org.objectweb.asm.Opcodes.F_NEW;
+import static org.objectweb.asm.Opcodes.GETFIELD;
+import static org.objectweb.asm.Opcodes.GETSTATIC;
+import static org.objectweb.asm.Opcodes.GOTO;
+import static org.objectweb.asm.Opcodes.I2B;
+import static org.objectweb.asm.Opcodes.I2C;
+import static org.objectweb.asm.Opcodes.I2D;
+import static org.objectweb.asm.Opcodes.I2F;
+import static org.objectweb.asm.Opcodes.I2L;
+import static org.objectweb.asm.Opcodes.I2S;
+import static org.objectweb.asm.Opcodes.IADD;
+import static org.objectweb.asm.Opcodes.IALOAD;
+import static org.objectweb.asm.Opcodes.IAND;
+import static org.objectweb.asm.Opcodes.IASTORE;
+import static org.objectweb.asm.Opcodes.ICONST_0;
+import static org.objectweb.asm.Opcodes.ICONST_1;
+import static org.objectweb.asm.Opcodes.ICONST_2;
+import static org.objectweb.asm.Opcodes.ICONST_3;
+import static org.objectweb.asm.Opcodes.ICONST_4;
+import static org.objectweb.asm.Opcodes.ICONST_5;
+import static org.objectweb.asm.Opcodes.ICONST_M1;
+import static org.objectweb.asm.Opcodes.IDIV;
+import static org.objectweb.asm.Opcodes.IFEQ;
+import static org.objectweb.asm.Opcodes.IFGE;
+import static org.objectweb.asm.Opcodes.IFGT;
+import static org.objectweb.asm.Opcodes.IFLE;
+import static org.objectweb.asm.Opcodes.IFLT;
+import static org.objectweb.asm.Opcodes.IFNE;
+import static org.objectweb.asm.Opcodes.IFNONNULL;
+import static org.objectweb.asm.Opcodes.IFNULL;
+import static org.objectweb.asm.Opcodes.IF_ACMPEQ;
+import static org.objectweb.asm.Opcodes.IF_ACMPNE;
+import static org.objectweb.asm.Opcodes.IF_ICMPEQ;
+import static org.objectweb.asm.Opcodes.IF_ICMPGE;
+import static org.objectweb.asm.Opcodes.IF_ICMPGT;
+import static org.objectweb.asm.Opcodes.IF_ICMPLE;
+import static org.objectweb.asm.Opcodes.IF_ICMPLT;
+import static org.objectweb.asm.Opcodes.IF_ICMPNE;
+import static org.objectweb.asm.Opcodes.IINC;
+import static org.objectweb.asm.Opcodes.ILOAD;
+import static org.objectweb.asm.Opcodes.IMUL;
+import static org.objectweb.asm.Opcodes.INEG;
+import static org.objectweb.asm.Opcodes.INSTANCEOF;
+import static org.objectweb.asm.Opcodes.INTEGER;
+import static org.objectweb.asm.Opcodes.INVOKEDYNAMIC;
+import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+import static org.objectweb.asm.Opcodes.IOR;
+import static org.objectweb.asm.Opcodes.IREM;
+import static org.objectweb.asm.Opcodes.IRETURN;
+import static org.objectweb.asm.Opcodes.ISHL;
+import static org.objectweb.asm.Opcodes.ISHR;
+import static org.objectweb.asm.Opcodes.ISTORE;
+import static org.objectweb.asm.Opcodes.ISUB;
+import static org.objectweb.asm.Opcodes.IUSHR;
+import static org.objectweb.asm.Opcodes.IXOR;
+import static org.objectweb.asm.Opcodes.L2D;
+import static org.objectweb.asm.Opcodes.L2F;
+import static org.objectweb.asm.Opcodes.L2I;
+import static org.objectweb.asm.Opcodes.LADD;
+import static org.objectweb.asm.Opcodes.LALOAD;
+import static org.objectweb.asm.Opcodes.LAND;
+import static org.objectweb.asm.Opcodes.LASTORE;
+import static org.objectweb.asm.Opcodes.LCMP;
+import static org.objectweb.asm.Opcodes.LCONST_0;
+import static org.objectweb.asm.Opcodes.LCONST_1;
+import static org.objectweb.asm.Opcodes.LDC;
+import static org.objectweb.asm.Opcodes.LDIV;
+import static org.objectweb.asm.Opcodes.LLOAD;
+import static org.objectweb.asm.Opcodes.LMUL;
+import static org.objectweb.asm.Opcodes.LNEG;
+import static org.objectweb.asm.Opcodes.LONG;
+import static org.objectweb.asm.Opcodes.LOOKUPSWITCH;
+import static org.objectweb.asm.Opcodes.LOR;
+import static org.objectweb.asm.Opcodes.LREM;
+import static org.objectweb.asm.Opcodes.LRETURN;
+import static org.objectweb.asm.Opcodes.LSHL;
+import static org.objectweb.asm.Opcodes.LSHR;
+import static org.objectweb.asm.Opcodes.LSTORE;
+import static org.objectweb.asm.Opcodes.LSUB;
+import static org.objectweb.asm.Opcodes.LUSHR;
+import static org.objectweb.asm.Opcodes.LXOR;
+import static org.objectweb.asm.Opcodes.MONITORENTER;
+import static org.objectweb.asm.Opcodes.MONITOREXIT;
+import static org.objectweb.asm.Opcodes.MULTIANEWARRAY;
+import static org.objectweb.asm.Opcodes.NEW;
+import static org.objectweb.asm.Opcodes.NEWARRAY;
+import static org.objectweb.asm.Opcodes.NOP;
+import static org.objectweb.asm.Opcodes.NULL;
+import static org.objectweb.asm.Opcodes.POP;
+import static org.objectweb.asm.Opcodes.POP2;
+import static org.objectweb.asm.Opcodes.PUTFIELD;
+import static org.objectweb.asm.Opcodes.PUTSTATIC;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.SALOAD;
+import static org.objectweb.asm.Opcodes.SASTORE;
+import static org.objectweb.asm.Opcodes.SIPUSH;
+import static org.objectweb.asm.Opcodes.SWAP;
+import static org.objectweb.asm.Opcodes.TABLESWITCH;
+import static org.objectweb.asm.Opcodes.TOP;
+import static org.objectweb.asm.Opcodes.T_BOOLEAN;
+import static org.objectweb.asm.Opcodes.T_BYTE;
+import static org.objectweb.asm.Opcodes.T_CHAR;
+import static org.objectweb.asm.Opcodes.T_DOUBLE;
+import static org.objectweb.asm.Opcodes.T_FLOAT;
+import static org.objectweb.asm.Opcodes.T_INT;
+import static org.objectweb.asm.Opcodes.T_LONG;
+import static org.objectweb.asm.Opcodes.T_SHORT;
+import static org.objectweb.asm.Opcodes.UNINITIALIZED_THIS;
+
+/**
+ * Computes the stack map frames and the maximum stack and locals of each method
+ * in a single forward pass over the instructions, instead of the iterative data
+ * flow analysis of {@link ClassWriter#COMPUTE_FRAMES}.
+ * <p>
+ * Every variable declared in a {@link Scope} is written to the local variable
+ * table, so the type of each local variable slot is taken from its declaration
+ * rather than inferred, and the class hierarchy is only consulted when two
+ * different reference types are merged on the stack. This relies on the shape
+ * of the code produced by this library: all edges into a jump target or
+ * exception handler are visited before the target itself, except for loop back
+ * edges, which must match the frame already computed for the target. Methods
+ * that do not have this shape are rejected. Unreachable instructions are removed.
+ */
+class FrameComputingClassVisitor
+        extends ClassVisitor
+{
+    private final SmartClassWriter classWriter;
+    private String owner;
+
+    public FrameComputingClassVisitor(ClassVisitor classVisitor, SmartClassWriter classWriter)
+    {
+        super(ASM9, classVisitor);
+        this.classWriter = requireNonNull(classWriter, "classWriter is null");
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces)
+    {
+        this.owner = name;
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions)
+    {
+        return new MethodNode(ASM9, access, name, descriptor, signature, exceptions)
+        {
+            @Override
+            public void visitEnd()
+            {
+                if (instructions.size() > 0) {
+                    try {
+                        new MethodFrameComputer(this).computeFrames();
+                    }
+                    catch (RuntimeException e) {
+                        throw new CompilationException(format("Error computing stack map frames for method %s.%s%s", owner, name, desc), e);
+                    }
+                }
+                accept(cv);
+            }
+        };
+    }
+
+    private final class MethodFrameComputer
+    {
+        private final MethodNode method;
+        private final int maxLocals;
+        private final Object[] declaredTypes;
+        private final Set<LabelNode> frameLabels = new HashSet<>();
+        private final Map<LabelNode, List<TryCatchBlockNode>> tryCatchBlocksByStart = new HashMap<>();
+        private final Map<LabelNode, List<TryCatchBlockNode>> tryCatchBlocksByEnd = new HashMap<>();
+        private final List<TryCatchBlockNode> activeTryCatchBlocks = new ArrayList<>();
+        private final Map<LabelNode, Frame> incomingFrames = new HashMap<>();
+        // frame computed for each visited frame label, or null if the label was not reachable
+        private final Map<LabelNode, Frame> visitedFrames = new HashMap<>();
+        private final Map<LabelNode, String> uninitializedTypes = new HashMap<>();
+        private int maxStack;
+
+        public MethodFrameComputer(MethodNode method)
+        {
+            this.method = method;
+
+            int maxLocals = Type.getArgumentsAndReturnSizes(method.desc) >> 2;
+            if ((method.access & ACC_STATIC) != 0) {
+                maxLocals--;
+            }
+            for (AbstractInsnNode node = method.instructions.getFirst(); node != null; node = node.getNext()) {
+                if (node instanceof VarInsnNode varInsn) {
+                    int size = (node.getOpcode() == LLOAD || node.getOpcode() == DLOAD || node.getOpcode() == LSTORE || node.getOpcode() == DSTORE) ? 2 : 1;
+                    maxLocals = Math.max(maxLocals, varInsn.var + size);
+                }
+                else if (node instanceof IincInsnNode iincInsn) {
+                    maxLocals = Math.max(maxLocals, iincInsn.var + 1);
+                }
+                else if (node instanceof JumpInsnNode jumpInsn) {
+                    frameLabels.add(jumpInsn.label);
+                }
+                else if (node instanceof TableSwitchInsnNode tableSwitch) {
+                    frameLabels.add(tableSwitch.dflt);
+                    frameLabels.addAll(tableSwitch.labels);
+                }
+                else if (node instanceof LookupSwitchInsnNode lookupSwitch) {
+                    frameLabels.add(lookupSwitch.dflt);
+                    frameLabels.addAll(lookupSwitch.labels);
+                }
+            }
+            for (TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks) {
+                frameLabels.add(tryCatchBlock.handler);
+                tryCatchBlocksByStart.computeIfAbsent(tryCatchBlock.start, ignored -> new ArrayList<>()).add(tryCatchBlock);
+                tryCatchBlocksByEnd.computeIfAbsent(tryCatchBlock.end, ignored -> new ArrayList<>()).add(tryCatchBlock);
+            }
+            if (method.localVariables != null) {
+                for (LocalVariableNode localVariable : method.localVariables) {
+                    maxLocals = Math.max(maxLocals, localVariable.index + Type.getType(localVariable.desc).getSize());
+                }
+            }
+            this.maxLocals = maxLocals;
+
+            // slots are never reused within a method, so each slot has a single declared type
+            declaredTypes = new Object[maxLocals];
+            if (method.localVariables != null) {
+                Set<Integer> conflicts = new HashSet<>();
+                for (LocalVariableNode localVariable : method.localVariables) {
+                    Object type = toFrameType(Type.getType(localVariable.desc));
+                    Object existing = declaredTypes[localVariable.index];
+                    if (existing != null && !existing.equals(type)) {
+                        conflicts.add(localVariable.index);
+                    }
+                    declaredTypes[localVariable.index] = type;
+                }
+                for (int slot : conflicts) {
+                    declaredTypes[slot] = null;
+                }
+            }
+        }
+
+        public void computeFrames()
+        {
+            Frame frame = createInitialFrame();
+            boolean frameRequired = false;
+
+            AbstractInsnNode next;
+            for (AbstractInsnNode node = method.instructions.getFirst(); node != null; node = next) {
+                next = node.getNext();
+                switch (node.getType()) {
+                    case AbstractInsnNode.LABEL -> {
+                        LabelNode label = (LabelNode) node;
+                        boolean tryCatchBlockStarted = updateActiveTryCatchBlocks(label);
+                        if (frameLabels.contains(label)) {
+                            Frame incoming = incomingFrames.remove(label);
+                            if (frame == null) {
+                                frame = incoming;
+                            }
+                            else if (incoming != null) {
+                                mergeFrame(frame, incoming);
+                            }
+                            visitedFrames.put(label, frame == null ? null : frame.copy());
+                            frameRequired |= frame != null;
+                        }
+                        if (frame != null && (tryCatchBlockStarted || frameLabels.contains(label))) {
+                            for (TryCatchBlockNode tryCatchBlock : activeTryCatchBlocks) {
+                                mergeIntoHandler(tryCatchBlock, frame);
+                            }
+                        }
+                    }
+                    case AbstractInsnNode.LINE -> {
+                        // line numbers do not affect frames
+                    }
+                    case AbstractInsnNode.FRAME -> method.instructions.remove(node);
+                    default -> {
+                        if (frame == null) {
+                            // unreachable code would require a frame, so it is removed
+                            method.instructions.remove(node);
+                        }
+                        else {
+                            if (frameRequired) {
+                                method.instructions.insertBefore(node, frame.toFrameNode());
+                                frameRequired = false;
+                            }
+                            frame = execute(node, frame);
+                        }
+                    }
+                }
+            }
+            checkState(incomingFrames.isEmpty(), "Jump targets are not in the method: %s", incomingFrames.keySet());
+
+            method.tryCatchBlocks.removeIf(MethodFrameComputer::isEmpty);
+            method.maxStack = maxStack;
+            method.maxLocals = maxLocals;
+        }
+
+        private Frame createInitialFrame()
+        {
+            Frame frame = new Frame(maxLocals);
+            int slot = 0;
+            if ((method.access & ACC_STATIC) == 0) {
+                frame.locals[slot++] = method.name.equals("<init>") ? UNINITIALIZED_THIS : owner;
+            }
+            for (Type argumentType : Type.getArgumentTypes(method.desc)) {
+                frame.locals[slot] = toFrameType(argumentType);
+                slot += argumentType.getSize();
+            }
+            return frame;
+        }
+
+        private boolean updateActiveTryCatchBlocks(LabelNode label)
+        {
+            List<TryCatchBlockNode> ended = tryCatchBlocksByEnd.get(label);
+            if (ended != null) {
+                activeTryCatchBlocks.removeAll(ended);
+            }
+            List<TryCatchBlockNode> started = tryCatchBlocksByStart.get(label);
+            if (started == null) {
+                return false;
+            }
+            activeTryCatchBlocks.addAll(started);
+            return true;
+        }
+
+        private void mergeIntoHandler(TryCatchBlockNode tryCatchBlock, Frame frame)
+        {
+            checkState(!visitedFrames.containsKey(tryCatchBlock.handler), "Exception handler is before the end of the try block");
+            Frame handlerFrame = new Frame(frame.locals.clone());
+            handlerFrame.push(tryCatchBlock.type == null ? "java/lang/Throwable" : tryCatchBlock.type);
+            mergeInto(tryCatchBlock.handler, handlerFrame);
+        }
+
+        private void mergeInto(LabelNode label, Frame frame)
+        {
+            maxStack = Math.max(maxStack, frame.stackSize);
+            if (visitedFrames.containsKey(label)) {
+                checkBackwardJump(visitedFrames.get(label), frame);
+                return;
+            }
+            Frame incoming = incomingFrames.get(label);
+            if (incoming == null) {
+                incomingFrames.put(label, frame.copy());
+            }
+            else {
+                mergeFrame(incoming, frame);
+            }
+        }
+
+        private void checkBackwardJump(Frame target, Frame frame)
+        {
+            checkState(target != null, "Backward jump to unreachable code");
+            checkState(target.stack.size() == frame.stack.size(), "Backward jump with a different stack size");
+            for (int i = 0; i < target.stack.size(); i++) {
+                checkState(isCompatible(target.stack.get(i), frame.stack.get(i)), "Backward jump with an incompatible stack");
+            }
+            for (int i = 0; i < maxLocals; i++) {
+                checkState(target.locals[i] == TOP || isCompatible(target.locals[i], frame.locals[i]), "Backward jump with an incompatible local variable in slot %s", i);
+            }
+        }
+
+        private void mergeFrame(Frame frame, Frame other)
+        {
+            checkState(frame.stack.size() == other.stack.size(), "Inconsistent stack size at jump target: %s vs %s", frame.stack, other.stack);
+            for (int i = 0; i < maxLocals; i++) {
+                Object value = frame.locals[i];
+                Object otherValue = other.locals[i];
+                if (!value.equals(otherValue)) {
+                    frame.locals[i] = isReference(value) && isReference(otherValue) ? mergeReferences(value, otherValue) : TOP;
+                }
+            }
+            for (int i = 0; i < frame.stack.size(); i++) {
+                Object value = frame.stack.get(i);
+                Object otherValue = other.stack.get(i);
+                if (!value.equals(otherValue)) {
+                    checkState(isReference(value) && isReference(otherValue), "Inconsistent stack at jump target: %s vs %s", frame.stack, other.stack);
+                    frame.stack.set(i, mergeReferences(value, otherValue));
+                }
+            }
+        }
+
+        private Object mergeReferences(Object value, Object otherValue)
+        {
+            if (value.equals(NULL)) {
+                return otherValue;
+            }
+            if (otherValue.equals(NULL)) {
+                return value;
+            }
+            String type = (String) value;
+            String otherType = (String) otherValue;
+            if (type.startsWith("[") || otherType.startsWith("[")) {
+                if (type.startsWith("[L") && otherType.startsWith("[L")) {
+                    String elementType = type.substring(2, type.length() - 1);
+                    String otherElementType = otherType.substring(2, otherType.length() - 1);
+                    return "[L" + mergeReferences(elementType, otherElementType) + ";";
+                }
+                return "java/lang/Object";
+            }
+            return classWriter.getCommonSuperClass(type, otherType);
+        }
+
+        private Frame execute(AbstractInsnNode node, Frame frame)
+        {
+            int opcode = node.getOpcode();
+            switch (opcode) {
+                case NOP -> {}
+                case ACONST_NULL -> frame.push(NULL);
+                case ICONST_M1, ICONST_0, ICONST_1, ICONST_2, ICONST_3, ICONST_4, ICONST_5, BIPUSH, SIPUSH -> frame.push(INTEGER);
+                case LCONST_0, LCONST_1 -> frame.push(LONG);
+                case FCONST_0, FCONST_1, FCONST_2 -> frame.push(FLOAT);
+                case DCONST_0, DCONST_1 -> frame.push(DOUBLE);
+                case LDC -> frame.push(getConstantType(((LdcInsnNode) node).cst));
+                case ILOAD -> frame.push(INTEGER);
+                case LLOAD -> frame.push(LONG);
+                case FLOAD -> frame.push(FLOAT);
+                case DLOAD -> frame.push(DOUBLE);
+                case ALOAD -> {
+                    int slot = ((VarInsnNode) node).var;
+                    checkState(isReference(frame.locals[slot]) || frame.locals[slot] instanceof LabelNode || frame.locals[slot].equals(UNINITIALIZED_THIS),
+                            "Local variable slot %s is not initialized", slot);
+                    frame.push(frame.locals[slot]);
+                }
+                case IALOAD, BALOAD, CALOAD, SALOAD -> frame.pop(2).push(INTEGER);
+                case LALOAD -> frame.pop(2).push(LONG);
+                case FALOAD -> frame.pop(2).push(FLOAT);
+                case DALOAD -> frame.pop(2).push(DOUBLE);
+                case AALOAD -> {
+                    frame.pop();
+                    frame.push(getElementType(frame.pop()));
+                }
+                case ISTORE -> store(frame, ((VarInsnNode) node).var, INTEGER);
+                case LSTORE -> store(frame, ((VarInsnNode) node).var, LONG);
+                case FSTORE -> store(frame, ((VarInsnNode) node).var, FLOAT);
+                case DSTORE -> store(frame, ((VarInsnNode) node).var, DOUBLE);
+                case ASTORE -> store(frame, ((VarInsnNode) node).var, frame.peek());
+                case IASTORE, LASTORE, FASTORE, DASTORE, AASTORE, BASTORE, CASTORE, SASTORE -> frame.pop(3);
+                case POP -> frame.pop();
+                case POP2 -> frame.pop(isCategory2(frame.peek()) ? 1 : 2);
+                case DUP -> frame.push(frame.peek());
+                case DUP_X1 -> {
+                    Object value1 = frame.pop();
+                    Object value2 = frame.pop();
+                    frame.push(value1).push(value2).push(value1);
+                }
+                case DUP_X2 -> {
+                    Object value1 = frame.pop();
+                    Object value2 = frame.pop();
+                    if (isCategory2(value2)) {
+                        frame.push(value1).push(value2).push(value1);
+                    }
+                    else {
+                        Object value3 = frame.pop();
+                        frame.push(value1).push(value3).push(value2).push(value1);
+                    }
+                }
+                case DUP2 -> {
+                    Object value1 = frame.pop();
+                    if (isCategory2(value1)) {
+                        frame.push(value1).push(value1);
+                    }
+                    else {
+                        Object value2 = frame.pop();
+                        frame.push(value2).push(value1).push(value2).push(value1);
+                    }
+                }
+                case DUP2_X1 -> {
+                    Object value1 = frame.pop();
+                    if (isCategory2(value1)) {
+                        Object value2 = frame.pop();
+                        frame.push(value1).push(value2).push(value1);
+                    }
+                    else {
+                        Object value2 = frame.pop();
+                        Object value3 = frame.pop();
+                        frame.push(value2).push(value1).push(value3).push(value2).push(value1);
+                    }
+                }
+                case DUP2_X2 -> {
+                    Object value1 = frame.pop();
+                    if (isCategory2(value1)) {
+                        Object value2 = frame.pop();
+                        if (isCategory2(value2)) {
+                            frame.push(value1).push(value2).push(value1);
+                        }
+                        else {
+                            Object value3 = frame.pop();
+                            frame.push(value1).push(value3).push(value2).push(value1);
+                        }
+                    }
+                    else {
+                        Object value2 = frame.pop();
+                        Object value3 = frame.pop();
+                        if (isCategory2(value3)) {
+                            frame.push(value2).push(value1).push(value3).push(value2).push(value1);
+                        }
+                        else {
+                            Object value4 = frame.pop();
+                            frame.push(value2).push(value1).push(value4).push(value3).push(value2).push(value1);
+                        }
+                    }
+                }
+                case SWAP -> {
+                    Object value1 = frame.pop();
+                    Object value2 = frame.pop();
+                    frame.push(value1).push(value2);
+                }
+                case IADD, ISUB, IMUL, IDIV, IREM, ISHL, ISHR, IUSHR, IAND, IOR, IXOR, LCMP, FCMPL, FCMPG, DCMPL, DCMPG -> frame.pop(2).push(INTEGER);
+                case LADD, LSUB, LMUL, LDIV, LREM, LSHL, LSHR, LUSHR, LAND, LOR, LXOR -> frame.pop(2).push(LONG);
+                case FADD, FSUB, FMUL, FDIV, FREM -> frame.pop(2).push(FLOAT);
+                case DADD, DSUB, DMUL, DDIV, DREM -> frame.pop(2).push(DOUBLE);
+                case INEG, L2I, F2I, D2I, I2B, I2C, I2S, ARRAYLENGTH, INSTANCEOF -> frame.pop(1).push(INTEGER);
+                case LNEG, I2L, F2L, D2L -> frame.pop(1).push(LONG);
+                case FNEG, I2F, L2F, D2F -> frame.pop(1).push(FLOAT);
+                case DNEG, I2D, L2D, F2D -> frame.pop(1).push(DOUBLE);
+                case IINC -> {}
+                case IFEQ, IFNE, IFLT, IFGE, IFGT, IFLE, IFNULL, IFNONNULL -> mergeInto(((JumpInsnNode) node).label, frame.pop(1));
+                case IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPGE, IF_ICMPGT, IF_ICMPLE, IF_ACMPEQ, IF_ACMPNE -> mergeInto(((JumpInsnNode) node).label, frame.pop(2));
+                case GOTO -> {
+                    mergeInto(((JumpInsnNode) node).label, frame);
+                    return null;
+                }
+                case TABLESWITCH -> {
+                    TableSwitchInsnNode tableSwitch = (TableSwitchInsnNode) node;
+                    frame.pop();
+                    mergeInto(tableSwitch.dflt, frame);
+                    tableSwitch.labels.forEach(label -> mergeInto(label, frame));
+                    return null;
+                }
+                case LOOKUPSWITCH -> {
+                    LookupSwitchInsnNode lookupSwitch = (LookupSwitchInsnNode) node;
+                    frame.pop();
+                    mergeInto(lookupSwitch.dflt, frame);
+                    lookupSwitch.labels.forEach(label -> mergeInto(label, frame));
+                    return null;
+                }
+                case IRETURN, LRETURN, FRETURN, DRETURN, ARETURN, RETURN, ATHROW -> {
+                    return null;
+                }
+                case GETSTATIC -> frame.push(toFrameType(Type.getType(((FieldInsnNode) node).desc)));
+                case PUTSTATIC -> frame.pop();
+                case GETFIELD -> frame.pop(1).push(toFrameType(Type.getType(((FieldInsnNode) node).desc)));
+                case PUTFIELD -> frame.pop(2);
+                case INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC, INVOKEINTERFACE -> {
+                    MethodInsnNode methodInsn = (MethodInsnNode) node;
+                    frame.pop(Type.getArgumentTypes(methodInsn.desc).length);
+                    if (opcode != INVOKESTATIC) {
+                        Object receiver = frame.pop();
+                        if (opcode == INVOKESPECIAL && methodInsn.name.equals("<init>")) {
+                            initialize(frame, receiver);
+                        }
+                    }
+                    pushReturnType(frame, methodInsn.desc);
+                }
+                case INVOKEDYNAMIC -> {
+                    InvokeDynamicInsnNode invokeDynamic = (InvokeDynamicInsnNode) node;
+                    frame.pop(Type.getArgumentTypes(invokeDynamic.desc).length);
+                    pushReturnType(frame, invokeDynamic.desc);
+                }
+                case NEW -> {
+                    // uninitialized values are identified by a label on the new instruction
+                    LabelNode label = new LabelNode();
+                    method.instructions.insertBefore(node, label);
+                    uninitializedTypes.put(label, ((TypeInsnNode) node).desc);
+                    frame.push(label);
+                }
+                case NEWARRAY -> frame.pop(1).push("[" + getPrimitiveArrayElementDescriptor(((IntInsnNode) node).operand));
+                case ANEWARRAY -> frame.pop(1).push("[" + toDescriptor(((TypeInsnNode) node).desc));
+                case CHECKCAST -> frame.pop(1).push(((TypeInsnNode) node).desc);
+                case MONITORENTER, MONITOREXIT -> frame.pop();
+                case MULTIANEWARRAY -> {
+                    MultiANewArrayInsnNode multiANewArray = (MultiANewArrayInsnNode) node;
+                    frame.pop(multiANewArray.dims).push(multiANewArray.desc);
+                }
+                default -> throw new IllegalStateException("Unsupported opcode: " + opcode);
+            }
+            maxStack = Math.max(maxStack, frame.stackSize);
+            return frame;
+        }
+
+        private void store(Frame frame, int slot, Object value)
+        {
+            frame.pop();
+            // prefer the declared type, so values merged at jump targets do not require the class hierarchy
+            Object declaredType = declaredTypes[slot];
+            if (declaredType != null && isReference(value) && isReference(declaredType)) {
+                value = declaredType;
+            }
+            if (slot > 0 && isCategory2(frame.locals[slot - 1])) {
+                frame.locals[slot - 1] = TOP;
+            }
+            frame.locals[slot] = value;
+            if (isCategory2(value)) {
+                frame.locals[slot + 1] = TOP;
+            }
+        }
+
+        private void initialize(Frame frame, Object uninitialized)
+        {
+            Object type;
+            if (uninitialized.equals(UNINITIALIZED_THIS)) {
+                type = owner;
+            }
+            else if (uninitialized instanceof LabelNode label) {
+                type = uninitializedTypes.get(label);
+            }
+            else {
+                return;
+            }
+            for (int i = 0; i < maxLocals; i++) {
+                if (frame.locals[i].equals(uninitialized)) {
+                    frame.locals[i] = type;
+                }
+            }
+            frame.stack.replaceAll(value -> value.equals(uninitialized) ? type : value);
+        }
+
+        private static void pushReturnType(Frame frame, String methodDescriptor)
+        {
+            Type returnType = Type.getReturnType(methodDescriptor);
+            if (returnType.getSort() != Type.VOID) {
+                frame.push(toFrameType(returnType));
+            }
+        }
+
+        private static boolean isEmpty(TryCatchBlockNode tryCatchBlock)
+        {
+            for (AbstractInsnNode node = tryCatchBlock.start; node != null && node != tryCatchBlock.end; node = node.getNext()) {
+                if (node.getOpcode() >= 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Frame
+    {
+        private final Object[] locals;
+        private final List<Object> stack;
+        private int stackSize;
+
+        private Frame(int maxLocals)
+        {
+            this(new Object[maxLocals]);
+            Arrays.fill(locals, TOP);
+        }
+
+        private Frame(Object[] locals)
+        {
+            this(locals, new ArrayList<>(), 0);
+        }
+
+        private Frame(Object[] locals, List<Object> stack, int stackSize)
+        {
+            this.locals = locals;
+            this.stack = stack;
+            this.stackSize = stackSize;
+        }
+
+        public Frame copy()
+        {
+            return new Frame(locals.clone(), new ArrayList<>(stack), stackSize);
+        }
+
+        public Frame push(Object value)
+        {
+            stack.add(value);
+            stackSize += isCategory2(value) ? 2 : 1;
+            return this;
+        }
+
+        public Object peek()
+        {
+            checkState(!stack.isEmpty(), "Stack is empty");
+            return stack.get(stack.size() - 1);
+        }
+
+        public Object pop()
+        {
+            checkState(!stack.isEmpty(), "Stack is empty");
+            Object value = stack.remove(stack.size() - 1);
+            stackSize -= isCategory2(value) ? 2 : 1;
+            return value;
+        }
+
+        public Frame pop(int count)
+        {
+            for (int i = 0; i < count; i++) {
+                pop();
+            }
+            return this;
+        }
+
+        public FrameNode toFrameNode()
+        {
+            List<Object> frameLocals = new ArrayList<>();
+            int lastLocal = 0;
+            for (int i = 0; i < locals.length; i++) {
+                frameLocals.add(locals[i]);
+                if (!locals[i].equals(TOP)) {
+                    lastLocal = frameLocals.size();
+                }
+                if (isCategory2(locals[i])) {
+                    i++;
+                }
+            }
+            return new FrameNode(F_NEW, lastLocal, frameLocals.subList(0, lastLocal).toArray(), stack.size(), stack.toArray());
+        }
+    }
+
+    private static Object toFrameType(Type type)
+    {
+        return switch (type.getSort()) {
+            case Type.BOOLEAN, Type.CHAR, Type.BYTE, Type.SHORT, Type.INT -> INTEGER;
+            case Type.FLOAT -> FLOAT;
+            case Type.LONG -> LONG;
+            case Type.DOUBLE -> DOUBLE;
+            case Type.ARRAY -> type.getDescriptor();
+            case Type.OBJECT -> type.getInternalName();
+            default -> throw new IllegalArgumentException("Unsupported type: " + type);
+        };
+    }
+
+    private static Object getConstantType(Object constant)
+    {
+        if (constant instanceof Integer) {
+            return INTEGER;
+        }
+        if (constant instanceof Float) {
+            return FLOAT;
+        }
+        if (constant instanceof Long) {
+            return LONG;
+        }
+        if (constant instanceof Double) {
+            return DOUBLE;
+        }
+        if (constant instanceof String) {
+            return "java/lang/String";
+        }
+        if (constant instanceof Type type) {
+            return type.getSort() == Type.METHOD ? "java/lang/invoke/MethodType" : "java/lang/Class";
+        }
+        if (constant instanceof Handle) {
+            return "java/lang/invoke/MethodHandle";
+        }
+        if (constant instanceof ConstantDynamic constantDynamic) {
+            return toFrameType(Type.getType(constantDynamic.getDescriptor()));
+        }
+        throw new IllegalArgumentException("Unsupported constant: " + constant);
+    }
+
+    private static Object getElementType(Object arrayType)
+    {
+        if (arrayType.equals(NULL)) {
+            return NULL;
+        }
+        checkState(arrayType instanceof String type && type.startsWith("["), "Not an array: %s", arrayType);
+        return toFrameType(Type.getType(((String) arrayType).substring(1)));
+    }
+
+    private static String getPrimitiveArrayElementDescriptor(int arrayType)
+    {
+        return switch (arrayType) {
+            case T_BOOLEAN -> "Z";
+            case T_CHAR -> "C";
+            case T_FLOAT -> "F";
+            case T_DOUBLE -> "D";
+            case T_BYTE -> "B";
+            case T_SHORT -> "S";
+            case T_INT -> "I";
+            case T_LONG -> "J";
+            default -> throw new IllegalArgumentException("Unsupported array type: " + arrayType);
+        };
+    }
+
+    private static String toDescriptor(String internalName)
+    {
+        return internalName.startsWith("[") ? internalName : "L" + internalName + ";";
+    }
+
+    private static boolean isReference(Object value)
+    {
+        return value instanceof String || value.equals(NULL);
+    }
+
+    private static boolean isCompatible(Object expected, Object actual)
+    {
+        return expected.equals(actual) || (isReference(expected) && isReference(actual));
+    }
+
+    private static boolean isCategory2(Object value)
+    {
+        return value.equals(LONG) || value.equals(DOUBLE);
+    }
+}
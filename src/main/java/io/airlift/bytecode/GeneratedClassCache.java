@@ -0,0 +1,187 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static io.airlift.bytecode.ClassDefinitionFingerprint.fingerprint;
+
+/**
+ * Cache of generated classes keyed by the structure of their class definitions.
+ * <p>
+ * When a {@link ClassGenerator} using this cache defines a batch of class definitions
+ * that is structurally identical to a batch defined before, differing at most in the
+ * names of the classes in the batch, the classes defined for the earlier batch are
+ * returned and no bytecode is generated. The classes, their metaspace and their
+ * compiled code are shared by every user, so the generated classes must not have
+ * mutable static state, and they are not defined in the class loader of the generator
+ * that hit the cache. Classes are only shared between class loaders with the same
+ * parent and override class loaders and the same call site bindings.
+ * <p>
+ * Classes are only weakly referenced by the cache, so they can still be unloaded.
+ */
+@ThreadSafe
+public final class GeneratedClassCache
+{
+    public static final long DEFAULT_MAXIMUM_SIZE = 1_000;
+
+    private final Cache<HashCode, CachedClasses> classes;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public GeneratedClassCache()
+    {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public GeneratedClassCache(long maximumSize)
+    {
+        checkArgument(maximumSize > 0, "maximumSize must be positive");
+        this.classes = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    Map<String, Class<?>> getClasses(DynamicClassLoader classLoader, List<ClassDefinition> classDefinitions, Supplier<Map<String, Class<?>>> classDefiner)
+    {
+        ClassCacheEvent event = new ClassCacheEvent();
+        event.begin();
+        HashCode key = createKey(classLoader, classDefinitions);
+
+        CachedClasses cachedClasses = classes.getIfPresent(key);
+        if (cachedClasses != null) {
+            Optional<List<Class<?>>> definedClasses = cachedClasses.getClasses(classLoader);
+            if (definedClasses.isPresent()) {
+                hitCount.incrementAndGet();
+                commitEvent(event, true, classDefinitions);
+                ImmutableMap.Builder<String, Class<?>> result = ImmutableMap.builder();
+                for (int i = 0; i < classDefinitions.size(); i++) {
+                    result.put(classDefinitions.get(i).getType().getJavaClassName(), definedClasses.get().get(i));
+                }
+                return result.buildOrThrow();
+            }
+        }
+
+        missCount.incrementAndGet();
+        // the definition of the classes is recorded by its own event
+        commitEvent(event, false, classDefinitions);
+        Map<String, Class<?>> definedClasses = classDefiner.get();
+        classes.put(key, new CachedClasses(classDefinitions.stream()
+                .map(classDefinition -> definedClasses.get(classDefinition.getType().getJavaClassName()))
+                .collect(toImmutableList())));
+        return definedClasses;
+    }
+
+    private static void commitEvent(ClassCacheEvent event, boolean hit, List<ClassDefinition> classDefinitions)
+    {
+        if (event.shouldCommit()) {
+            event.cache = ClassCacheEvent.GENERATED_CLASS_CACHE;
+            event.hit = hit;
+            event.className = classDefinitions.isEmpty() ? null : classDefinitions.get(0).getType().getJavaClassName();
+            event.classCount = classDefinitions.size();
+            event.commit();
+        }
+    }
+
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    public long getEvictionCount()
+    {
+        return classes.stats().evictionCount();
+    }
+
+    public long size()
+    {
+        return classes.size();
+    }
+
+    public void invalidateAll()
+    {
+        classes.invalidateAll();
+    }
+
+    private static HashCode createKey(DynamicClassLoader classLoader, List<ClassDefinition> classDefinitions)
+    {
+        // the environment is only hashed here, and it is compared exactly on a hit
+        Hasher hasher = Hashing.sha256().newHasher()
+                .putBytes(fingerprint(classDefinitions).asBytes())
+                .putInt(System.identityHashCode(classLoader.getParent()))
+                .putInt(System.identityHashCode(classLoader.getOverrideClassLoader().orElse(null)));
+        for (Entry<Long, MethodHandle> binding : classLoader.getCallSiteBindings().entrySet()) {
+            hasher.putLong(binding.getKey()).putInt(System.identityHashCode(binding.getValue()));
+        }
+        return hasher.hash();
+    }
+
+    private static final class CachedClasses
+    {
+        private final List<WeakReference<Class<?>>> classes;
+
+        public CachedClasses(List<Class<?>> classes)
+        {
+            this.classes = classes.stream()
+                    .map(WeakReference<Class<?>>::new)
+                    .collect(toImmutableList());
+        }
+
+        public Optional<List<Class<?>>> getClasses(DynamicClassLoader classLoader)
+        {
+            ImmutableList.Builder<Class<?>> result = ImmutableList.builder();
+            for (WeakReference<Class<?>> reference : classes) {
+                Class<?> clazz = reference.get();
+                if (clazz == null) {
+                    return Optional.empty();
+                }
+                result.add(clazz);
+            }
+            List<Class<?>> definedClasses = result.build();
+
+            DynamicClassLoader definingClassLoader = (DynamicClassLoader) definedClasses.get(0).getClassLoader();
+            if (definingClassLoader.getParent() != classLoader.getParent() ||
+                    !definingClassLoader.getOverrideClassLoader().equals(classLoader.getOverrideClassLoader()) ||
+                    !definingClassLoader.getCallSiteBindings().equals(classLoader.getCallSiteBindings())) {
+                return Optional.empty();
+            }
+            return Optional.of(definedClasses);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("io.airlift.bytecode.HiddenClassDefinition")
+@Label("Hidden Class Definition")
+@Category({"Airlift", "Bytecode"})
+@Description("Generation and definition of a hidden class by a HiddenClassGenerator")
+class HiddenClassDefinitionEvent
+        extends Event
+{
+    @Label("Class Name")
+    String className;
+
+    @Label("Byte Size")
+    @DataAmount
+    long byteSize;
+}
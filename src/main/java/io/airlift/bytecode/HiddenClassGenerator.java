@@ -13,47 +13,83 @@
  */
 package io.airlift.bytecode;
 
+import com.google.common.collect.ImmutableMap;
+import io.airlift.bytecode.ByteCodeGenerator.GeneratedByteCode;
+
 import java.io.Writer;
 import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodHandles.Lookup.ClassOption;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.bytecode.ClassGenerationStats.createClassGenerationStats;
 import static io.airlift.bytecode.ClassInfoLoader.createClassInfoLoader;
+import static java.lang.invoke.MethodHandles.Lookup.ClassOption.NESTMATE;
 
 public class HiddenClassGenerator
 {
     private final Lookup lookup;
     private final ByteCodeGenerator byteCodeGenerator;
+    private final Optional<ClassInfoCache> classInfoCache;
+    private final boolean loadMethodNodes;
+    private final Optional<ClassGenerationListener> listener;
 
     public static HiddenClassGenerator hiddenClassGenerator(Lookup lookup)
     {
-        return new HiddenClassGenerator(lookup, ByteCodeGenerator.byteCodeGenerator());
+        return new HiddenClassGenerator(lookup, ByteCodeGenerator.byteCodeGenerator(), Optional.empty(), false, Optional.empty());
     }
 
-    private HiddenClassGenerator(Lookup lookup, ByteCodeGenerator byteCodeGenerator)
+    private HiddenClassGenerator(Lookup lookup, ByteCodeGenerator byteCodeGenerator, Optional<ClassInfoCache> classInfoCache, boolean loadMethodNodes, Optional<ClassGenerationListener> listener)
     {
         this.lookup = lookup;
         this.byteCodeGenerator = byteCodeGenerator;
+        this.classInfoCache = classInfoCache;
+        this.loadMethodNodes = loadMethodNodes;
+        this.listener = listener;
     }
 
     public HiddenClassGenerator fakeLineNumbers(boolean fakeLineNumbers)
     {
-        return new HiddenClassGenerator(lookup, byteCodeGenerator.fakeLineNumbers(fakeLineNumbers));
+        return new HiddenClassGenerator(lookup, byteCodeGenerator.fakeLineNumbers(fakeLineNumbers), classInfoCache, loadMethodNodes, listener);
+    }
+
+    /**
+     * Compute the stack map frames of each method in a single pass from the declared
+     * types of the local variables, instead of with the data flow analysis of the ASM
+     * class writer. The class hierarchy is only loaded when two different types are
+     * merged on the stack.
+     */
+    public HiddenClassGenerator computeFramesFromDeclaredTypes(boolean computeFramesFromDeclaredTypes)
+    {
+        return new HiddenClassGenerator(lookup, byteCodeGenerator.computeFramesFromDeclaredTypes(computeFramesFromDeclaredTypes), classInfoCache, loadMethodNodes, listener);
+    }
+
+    /**
+     * Move statements of methods with more bytecode than the maximum size to
+     * private static methods of the class, so the methods can be compiled by the
+     * JIT. HotSpot does not compile methods larger than 8000 bytes.
+     */
+    public HiddenClassGenerator maximumMethodSize(int maximumMethodSize)
+    {
+        return new HiddenClassGenerator(lookup, byteCodeGenerator.maximumMethodSize(maximumMethodSize), classInfoCache, loadMethodNodes, listener);
     }
 
     public HiddenClassGenerator runAsmVerifier(boolean runAsmVerifier)
     {
-        return new HiddenClassGenerator(lookup, byteCodeGenerator.runAsmVerifier(runAsmVerifier ? new LookupClassLoader(lookup) : null));
+        return new HiddenClassGenerator(lookup, byteCodeGenerator.runAsmVerifier(runAsmVerifier ? new LookupClassLoader(lookup) : null), classInfoCache, loadMethodNodes, listener);
     }
 
     public HiddenClassGenerator dumpRawBytecode(boolean dumpRawBytecode)
     {
-        return new HiddenClassGenerator(lookup, byteCodeGenerator.dumpRawBytecode(dumpRawBytecode));
+        return new HiddenClassGenerator(lookup, byteCodeGenerator.dumpRawBytecode(dumpRawBytecode), classInfoCache, loadMethodNodes, listener);
     }
 
     public HiddenClassGenerator outputTo(Writer output)
     {
-        return new HiddenClassGenerator(lookup, byteCodeGenerator.outputTo(output));
+        return new HiddenClassGenerator(lookup, byteCodeGenerator.outputTo(output), classInfoCache, loadMethodNodes, listener);
     }
 
     public HiddenClassGenerator dumpClassFilesTo(Path dumpClassPath)
@@ -63,27 +99,110 @@ public class HiddenClassGenerator
 
     public HiddenClassGenerator dumpClassFilesTo(Optional<Path> dumpClassPath)
     {
-        return new HiddenClassGenerator(lookup, byteCodeGenerator.dumpClassFilesTo(dumpClassPath));
+        return new HiddenClassGenerator(lookup, byteCodeGenerator.dumpClassFilesTo(dumpClassPath), classInfoCache, loadMethodNodes, listener);
+    }
+
+    public HiddenClassGenerator classInfoCache(ClassInfoCache classInfoCache)
+    {
+        return new HiddenClassGenerator(lookup, byteCodeGenerator, Optional.of(classInfoCache), loadMethodNodes, listener);
+    }
+
+    /**
+     * Read the full class file, including the method bodies, of each class referenced
+     * during stack map frame computation. Frame computation only needs the class
+     * hierarchy, so by default only the class header is read.
+     */
+    public HiddenClassGenerator loadMethodNodes(boolean loadMethodNodes)
+    {
+        return new HiddenClassGenerator(lookup, byteCodeGenerator, classInfoCache, loadMethodNodes, listener);
+    }
+
+    /**
+     * Report the timings and sizes of every class generated and defined to the listener.
+     */
+    public HiddenClassGenerator listener(ClassGenerationListener listener)
+    {
+        return new HiddenClassGenerator(lookup, byteCodeGenerator, classInfoCache, loadMethodNodes, Optional.of(listener));
     }
 
     public <T> Class<? extends T> defineHiddenClass(ClassDefinition classDefinition, Class<T> superType, Optional<Object> classData)
     {
-        ClassInfoLoader classInfoLoader = createClassInfoLoader(classDefinition, lookup);
-        byte[] bytecode = byteCodeGenerator.generateByteCode(classInfoLoader, classDefinition);
+        long start = System.nanoTime();
+        ClassInfoLoader classInfoLoader = createClassInfoLoader(classDefinition, lookup, classInfoCache, loadMethodNodes);
+        long classInfoLoaderNanos = System.nanoTime() - start;
+        return defineHiddenClass(lookup, classInfoLoader, classInfoLoaderNanos, classDefinition, classData)
+                .lookupClass()
+                .asSubclass(superType);
+    }
+
+    public <T> Class<? extends T> defineHiddenClass(ClassDefinition classDefinition, Class<T> superType, ClassDataBinder classDataBinder)
+    {
+        return defineHiddenClass(classDefinition, superType, Optional.of(classDataBinder.getClassData()));
+    }
+
+    /**
+     * Define the classes as hidden classes in one nest, so the classes can access the
+     * private members of each other. The first class is the nest host, and the other
+     * classes are defined as its nestmates. Hidden classes can not be referenced by name,
+     * so the classes can only reach each other through method handles or class objects,
+     * for example passed as class data, which is the same for all classes.
+     *
+     * @return the classes by the name of their class definition, in the order of the definitions
+     */
+    public Map<String, Class<?>> defineHiddenClasses(List<ClassDefinition> classDefinitions, Optional<Object> classData)
+    {
+        checkArgument(!classDefinitions.isEmpty(), "classDefinitions is empty");
+
+        long start = System.nanoTime();
+        ClassInfoLoader classInfoLoader = createClassInfoLoader(classDefinitions, lookup, classInfoCache, loadMethodNodes);
+        long classInfoLoaderNanos = (System.nanoTime() - start) / classDefinitions.size();
+
+        Lookup nestHostLookup = defineHiddenClass(lookup, classInfoLoader, classInfoLoaderNanos, classDefinitions.get(0), classData);
+        ImmutableMap.Builder<String, Class<?>> classes = ImmutableMap.builder();
+        classes.put(classDefinitions.get(0).getType().getJavaClassName(), nestHostLookup.lookupClass());
+        for (ClassDefinition classDefinition : classDefinitions.subList(1, classDefinitions.size())) {
+            Lookup nestMemberLookup = defineHiddenClass(nestHostLookup, classInfoLoader, classInfoLoaderNanos, classDefinition, classData, NESTMATE);
+            classes.put(classDefinition.getType().getJavaClassName(), nestMemberLookup.lookupClass());
+        }
+        return classes.buildOrThrow();
+    }
 
+    private Lookup defineHiddenClass(Lookup definingLookup, ClassInfoLoader classInfoLoader, long classInfoLoaderNanos, ClassDefinition classDefinition, Optional<Object> classData, ClassOption... options)
+    {
+        HiddenClassDefinitionEvent event = new HiddenClassDefinitionEvent();
+        event.begin();
+        GeneratedByteCode generatedByteCode = byteCodeGenerator.generate(classInfoLoader, classDefinition);
+        byte[] bytecode = generatedByteCode.getBytecode();
+
+        long defineStart = System.nanoTime();
         Lookup definedClassLookup;
         try {
             if (classData.isEmpty()) {
-                definedClassLookup = lookup.defineHiddenClass(bytecode, true);
+                definedClassLookup = definingLookup.defineHiddenClass(bytecode, true, options);
             }
             else {
-                definedClassLookup = lookup.defineHiddenClassWithClassData(bytecode, classData.get(), true);
+                definedClassLookup = definingLookup.defineHiddenClassWithClassData(bytecode, classData.get(), true, options);
             }
         }
         catch (IllegalAccessException e) {
             throw new RuntimeException(e);
         }
-        return definedClassLookup.lookupClass().asSubclass(superType);
+
+        // hidden classes are initialized when they are defined
+        long defineNanos = System.nanoTime() - defineStart;
+        listener.ifPresent(listener -> listener.classGenerated(createClassGenerationStats(
+                definedClassLookup.lookupClass().getName(),
+                generatedByteCode,
+                classInfoLoaderNanos,
+                defineNanos,
+                0)));
+
+        if (event.shouldCommit()) {
+            event.className = definedClassLookup.lookupClass().getName();
+            event.byteSize = bytecode.length;
+            event.commit();
+        }
+        return definedClassLookup;
     }
 
     private static class LookupClassLoader
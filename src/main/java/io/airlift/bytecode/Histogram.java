@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A lock free histogram of non-negative values with a bucket for each power of two,
+ * so quantiles are accurate to within a factor of two.
+ */
+@ThreadSafe
+public final class Histogram
+{
+    // bucket 0 holds zero, and bucket i holds values in [2^(i-1), 2^i)
+    private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE + 1);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void add(long value)
+    {
+        checkArgument(value >= 0, "value is negative");
+        buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    public long getSum()
+    {
+        return sum.sum();
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    public double getMean()
+    {
+        long count = getCount();
+        return count == 0 ? Double.NaN : (double) getSum() / count;
+    }
+
+    /**
+     * Returns an upper bound of the value at the quantile, which is at most twice the
+     * actual value, or zero if the histogram is empty.
+     */
+    public long getQuantile(double quantile)
+    {
+        checkArgument(quantile >= 0 && quantile <= 1, "quantile must be between 0 and 1");
+        long[] counts = getBucketCounts();
+        long total = 0;
+        for (long bucketCount : counts) {
+            total += bucketCount;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank && counts[bucket] > 0) {
+                return Math.min(getUpperBound(bucket), getMax());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of values in each bucket. Bucket 0 holds zero, and bucket
+     * {@code i} holds the values in {@code [2^(i-1), 2^i)}.
+     */
+    public long[] getBucketCounts()
+    {
+        long[] counts = new long[buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return counts;
+    }
+
+    private static long getUpperBound(int bucket)
+    {
+        if (bucket == 0) {
+            return 0;
+        }
+        if (bucket >= Long.SIZE - 1) {
+            return Long.MAX_VALUE;
+        }
+        return (1L << bucket) - 1;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Histogram{count=%s, mean=%.1f, p50=%s, p99=%s, max=%s}".formatted(getCount(), getMean(), getQuantile(0.5), getQuantile(0.99), getMax());
+    }
+}
@@ -18,6 +18,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Streams;
+import io.airlift.bytecode.MethodSplitter.SplitMethod;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.tree.InsnNode;
@@ -212,6 +213,11 @@ public class MethodDefinition
     }
 
     public void visit(ClassVisitor visitor, boolean addReturn)
+    {
+        visit(visitor, addReturn, new MethodSplitter(declaringClass, Integer.MAX_VALUE));
+    }
+
+    void visit(ClassVisitor visitor, boolean addReturn, MethodSplitter methodSplitter)
     {
         String[] exceptions = new String[this.exceptions.size()];
         for (int i = 0; i < exceptions.length; i++) {
@@ -240,12 +246,14 @@ public class MethodDefinition
                 parameterAnnotation.visitParameterAnnotation(parameterIndex, methodVisitor);
             }
         }
+        List<SplitMethod> splitMethods = ImmutableList.of();
         if (!declaringClass.isInterface()) {
             // visit code
             methodVisitor.visitCode();
 
             // visit instructions
-            MethodGenerationContext generationContext = new MethodGenerationContext(methodVisitor);
+            splitMethods = methodSplitter.split(this);
+            MethodGenerationContext generationContext = new MethodGenerationContext(methodVisitor, splitMethods);
             generationContext.enterScope(scope);
             body.accept(methodVisitor, generationContext);
             if (addReturn) {
@@ -256,6 +264,10 @@ public class MethodDefinition
         // done
         methodVisitor.visitMaxs(-1, -1);
         methodVisitor.visitEnd();
+
+        for (SplitMethod splitMethod : splitMethods) {
+            splitMethod.visit(visitor, splitMethods);
+        }
     }
 
     public String toSourceString()
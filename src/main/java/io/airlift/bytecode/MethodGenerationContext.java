@@ -14,6 +14,8 @@
 package io.airlift.bytecode;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.bytecode.MethodSplitter.SplitMethod;
 import io.airlift.bytecode.debug.LocalVariableNode;
 import io.airlift.bytecode.instruction.LabelNode;
 import org.objectweb.asm.MethodVisitor;
@@ -22,7 +24,9 @@ import org.objectweb.asm.Type;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -41,9 +45,25 @@ public class MethodGenerationContext
 
     private int currentLineNumber = -1;
 
+    private final Map<BytecodeBlock, Map<Integer, SplitMethod>> splitMethods;
+
     public MethodGenerationContext(MethodVisitor methodVisitor)
+    {
+        this(methodVisitor, ImmutableList.of());
+    }
+
+    MethodGenerationContext(MethodVisitor methodVisitor, List<SplitMethod> splitMethods)
     {
         this.methodVisitor = requireNonNull(methodVisitor, "methodVisitor is null");
+        if (splitMethods.isEmpty()) {
+            this.splitMethods = ImmutableMap.of();
+        }
+        else {
+            this.splitMethods = new IdentityHashMap<>();
+            for (SplitMethod splitMethod : splitMethods) {
+                this.splitMethods.computeIfAbsent(splitMethod.getBlock(), ignored -> new HashMap<>()).put(splitMethod.getStart(), splitMethod);
+            }
+        }
     }
 
     public void enterScope(Scope scope)
@@ -88,6 +108,14 @@ public class MethodGenerationContext
         return slot;
     }
 
+    /**
+     * Returns the methods the nodes of the block have been moved to, by the index of the first moved node.
+     */
+    Map<Integer, SplitMethod> getSplitMethods(BytecodeBlock block)
+    {
+        return splitMethods.getOrDefault(block, ImmutableMap.of());
+    }
+
     public boolean updateLineNumber(int lineNumber)
     {
         if (lineNumber == currentLineNumber) {
@@ -0,0 +1,734 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multiset;
+import io.airlift.bytecode.control.FlowControl;
+import io.airlift.bytecode.debug.LineNumberNode;
+import io.airlift.bytecode.expression.BytecodeExpression;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.common.collect.Sets.newIdentityHashSet;
+import static io.airlift.bytecode.Access.FINAL;
+import static io.airlift.bytecode.Access.STATIC;
+import static io.airlift.bytecode.MethodDefinition.methodDescription;
+import static io.airlift.bytecode.ParameterizedType.type;
+import static io.airlift.bytecode.instruction.VariableInstruction.loadVariable;
+import static io.airlift.bytecode.instruction.VariableInstruction.storeVariable;
+import static java.util.Objects.requireNonNull;
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SYNTHETIC;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ASM9;
+import static org.objectweb.asm.Opcodes.ASTORE;
+import static org.objectweb.asm.Opcodes.ATHROW;
+import static org.objectweb.asm.Opcodes.GOTO;
+import static org.objectweb.asm.Opcodes.IINC;
+import static org.objectweb.asm.Opcodes.ILOAD;
+import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.IRETURN;
+import static org.objectweb.asm.Opcodes.ISTORE;
+import static org.objectweb.asm.Opcodes.PUTSTATIC;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.SIPUSH;
+
+/**
+ * Moves statements out of method bodies that are larger than a maximum size
+ * into private static methods of the same class. HotSpot does not compile
+ * methods larger than 8000 bytes of bytecode, and the class file format does
+ * not allow methods larger than 64 KB.
+ * <p>
+ * A sequence of statements of a block can be moved when it does not return
+ * from the method, does not assign a final static field, which is only
+ * allowed in the class initializer, and no jump crosses the boundary of the
+ * sequence. The variables the statements may read before assigning them are passed as
+ * arguments to the split method, and the variable the statements assign, if
+ * it is read by the rest of the method, is returned. Sequences that assign
+ * more than one such variable are not moved. The size of the bytecode is
+ * estimated, so the limit is approximate.
+ */
+@NotThreadSafe
+final class MethodSplitter
+{
+    // moving smaller sequences of statements only adds the overhead of a call
+    private static final int MINIMUM_SPLIT_SIZE = 64;
+    private static final int MAXIMUM_PARAMETER_SLOTS = 255;
+
+    private final ClassDefinition classDefinition;
+    private final int maximumMethodSize;
+    private Set<String> methodNames;
+    private Set<String> finalStaticFields;
+
+    MethodSplitter(ClassDefinition classDefinition, int maximumMethodSize)
+    {
+        this.classDefinition = requireNonNull(classDefinition, "classDefinition is null");
+        checkArgument(maximumMethodSize > 0, "maximumMethodSize must be positive");
+        this.maximumMethodSize = maximumMethodSize;
+    }
+
+    /**
+     * Returns the methods split out of the body of the specified method, in
+     * the order they must be added to the class.
+     */
+    List<SplitMethod> split(MethodDefinition method)
+    {
+        // the statements of a constructor may use the uninitialized object
+        if (maximumMethodSize == Integer.MAX_VALUE || classDefinition.isInterface() || method.getName().equals("<init>")) {
+            return ImmutableList.of();
+        }
+        return new BodySplitter(method).split();
+    }
+
+    private String createMethodName(MethodDefinition method)
+    {
+        if (methodNames == null) {
+            methodNames = new HashSet<>();
+            classDefinition.getMethods().forEach(definition -> methodNames.add(definition.getName()));
+        }
+
+        String baseName = method.getName().equals("<clinit>") ? "classInitializer" : method.getName();
+        for (int index = 0; ; index++) {
+            String name = baseName + "$split" + index;
+            if (methodNames.add(name)) {
+                return name;
+            }
+        }
+    }
+
+    private boolean assignsFinalStaticField(Recording recording)
+    {
+        if (finalStaticFields == null) {
+            finalStaticFields = classDefinition.getFields().stream()
+                    .filter(field -> field.getAccess().contains(STATIC) && field.getAccess().contains(FINAL))
+                    .map(FieldDefinition::getName)
+                    .collect(toImmutableSet());
+        }
+        return !finalStaticFields.isEmpty() && recording.assignsStaticField(classDefinition.getType().getClassName(), finalStaticFields);
+    }
+
+    private final class BodySplitter
+    {
+        private final MethodDefinition method;
+        private final List<SplitMethod> splitMethods = new ArrayList<>();
+        private final Set<BytecodeBlock> splitBlocks = newIdentityHashSet();
+        private Recording methodRecording;
+
+        private BodySplitter(MethodDefinition method)
+        {
+            this.method = requireNonNull(method, "method is null");
+        }
+
+        private List<SplitMethod> split()
+        {
+            methodRecording = record(ImmutableList.of(method.getBody()));
+            split(method.getBody());
+            return ImmutableList.copyOf(splitMethods);
+        }
+
+        private void split(BytecodeBlock block)
+        {
+            if (methodRecording.getSize() <= maximumMethodSize || !splitBlocks.add(block)) {
+                return;
+            }
+
+            // statements that are too large to be moved as a whole are split first
+            List<BytecodeNode> nodes = block.getChildNodes();
+            for (BytecodeNode node : nodes) {
+                if (record(ImmutableList.of(node)).getSize() > maximumMethodSize) {
+                    if (node instanceof BytecodeBlock nestedBlock) {
+                        split(nestedBlock);
+                    }
+                    else {
+                        findBlocks(node).forEach(this::split);
+                    }
+                }
+            }
+
+            int[] sizes = nodes.stream()
+                    .mapToInt(node -> record(ImmutableList.of(node)).getSize())
+                    .toArray();
+            int start = 0;
+            while (start < nodes.size() && methodRecording.getSize() > maximumMethodSize) {
+                int end = start;
+                int size = 0;
+                while (end < nodes.size() && isStatement(nodes.get(end)) && size + sizes[end] <= maximumMethodSize) {
+                    size += sizes[end];
+                    end++;
+                }
+
+                // whether the statements can be moved depends on which statements are included, so try fewer statements when they can not
+                Optional<SplitMethod> splitMethod = Optional.empty();
+                for (int count = end - start; count > 0 && splitMethod.isEmpty(); count /= 2) {
+                    splitMethod = createSplitMethod(block, nodes, start, count);
+                }
+
+                if (splitMethod.isPresent()) {
+                    splitMethods.add(splitMethod.get());
+                    methodRecording = record(ImmutableList.of(method.getBody()));
+                    start += splitMethod.get().getNodeCount();
+                }
+                else {
+                    start++;
+                }
+            }
+        }
+
+        private Optional<SplitMethod> createSplitMethod(BytecodeBlock block, List<BytecodeNode> nodes, int start, int count)
+        {
+            Recording recording = record(nodes.subList(start, start + count));
+            if (recording.getSize() < MINIMUM_SPLIT_SIZE || recording.getSize() > maximumMethodSize || !recording.isSelfContained(methodRecording) || assignsFinalStaticField(recording)) {
+                return Optional.empty();
+            }
+
+            Optional<VariableUsage> variableUsage = recording.analyzeVariables();
+            if (variableUsage.isEmpty()) {
+                return Optional.empty();
+            }
+
+            List<Variable> parameters = new ArrayList<>();
+            List<Variable> localVariables = new ArrayList<>();
+            Optional<Variable> result = Optional.empty();
+            int parameterSlots = 0;
+            for (Entry<Variable, Integer> entry : recording.getVariableSlots().entrySet()) {
+                Variable variable = entry.getKey();
+                int slot = entry.getValue();
+                boolean readBeforeAssigned = variableUsage.get().readBeforeAssigned().get(slot);
+                if (readBeforeAssigned) {
+                    // the 'this' variable must be in the first slot
+                    parameters.add(variable.getName().equals("this") ? 0 : parameters.size(), variable);
+                    parameterSlots += getSlotSize(variable);
+                }
+                else {
+                    localVariables.add(variable);
+                }
+
+                if (variableUsage.get().assigned().get(slot) && methodRecording.getReadCount(variable) > recording.getReadCount(variable)) {
+                    // the value can only be returned if it is assigned in the split method
+                    if (result.isPresent() || !(readBeforeAssigned || variableUsage.get().assignedAtExit().get(slot))) {
+                        return Optional.empty();
+                    }
+                    result = Optional.of(variable);
+                }
+            }
+            if (parameterSlots > MAXIMUM_PARAMETER_SLOTS) {
+                return Optional.empty();
+            }
+
+            return Optional.of(new SplitMethod(
+                    classDefinition.getType(),
+                    createMethodName(method),
+                    block,
+                    start,
+                    count,
+                    parameters,
+                    localVariables,
+                    result));
+        }
+
+        private Recording record(List<BytecodeNode> nodes)
+        {
+            RecordingMethodNode methodNode = new RecordingMethodNode();
+            VariableRecordingContext generationContext = new VariableRecordingContext(methodNode, splitMethods);
+            for (BytecodeNode node : nodes) {
+                node.accept(methodNode, generationContext);
+            }
+            return new Recording(methodNode, generationContext.getVariableSlots());
+        }
+    }
+
+    private static List<BytecodeBlock> findBlocks(BytecodeNode node)
+    {
+        List<BytecodeBlock> blocks = new ArrayList<>();
+        for (BytecodeNode child : node.getChildNodes()) {
+            if (child instanceof BytecodeBlock block) {
+                blocks.add(block);
+            }
+            else {
+                blocks.addAll(findBlocks(child));
+            }
+        }
+        return blocks;
+    }
+
+    // statements do not use or leave values on the stack
+    private static boolean isStatement(BytecodeNode node)
+    {
+        if (node instanceof FlowControl || node instanceof io.airlift.bytecode.instruction.LabelNode || node instanceof LineNumberNode) {
+            return true;
+        }
+        if (node instanceof BytecodeExpression expression) {
+            return expression.getType().getPrimitiveType() == void.class;
+        }
+        if (node instanceof BytecodeBlock block) {
+            return block.getChildNodes().stream().allMatch(MethodSplitter::isStatement);
+        }
+        return false;
+    }
+
+    private static int getSlotSize(Variable variable)
+    {
+        return Type.getType(variable.getType().getType()).getSize();
+    }
+
+    private record VariableUsage(BitSet readBeforeAssigned, BitSet assigned, BitSet assignedAtExit) {}
+
+    private static final class Recording
+    {
+        private final List<AbstractInsnNode> instructions;
+        private final List<TryCatchBlockNode> tryCatchBlocks;
+        private final Set<Label> labels;
+        private final Multiset<Label> labelReferences;
+        private final Map<Variable, Integer> variableSlots;
+        private final Multiset<Variable> variableReads = HashMultiset.create();
+        private final int size;
+
+        private Recording(RecordingMethodNode methodNode, Map<Variable, Integer> variableSlots)
+        {
+            this.instructions = ImmutableList.copyOf(methodNode.instructions);
+            this.tryCatchBlocks = ImmutableList.copyOf(methodNode.tryCatchBlocks);
+            this.labels = methodNode.getLabels();
+            this.labelReferences = methodNode.getLabelReferences();
+            this.variableSlots = variableSlots;
+
+            Map<Integer, Variable> variablesBySlot = new HashMap<>();
+            variableSlots.forEach((variable, slot) -> variablesBySlot.put(slot, variable));
+
+            int size = 0;
+            for (AbstractInsnNode instruction : instructions) {
+                size += estimateSize(instruction);
+                if (isRead(instruction)) {
+                    variableReads.add(variablesBySlot.get(getSlot(instruction)));
+                }
+            }
+            this.size = size;
+        }
+
+        public int getSize()
+        {
+            return size;
+        }
+
+        public Map<Variable, Integer> getVariableSlots()
+        {
+            return variableSlots;
+        }
+
+        public int getReadCount(Variable variable)
+        {
+            return variableReads.count(variable);
+        }
+
+        public boolean isSelfContained(Recording methodRecording)
+        {
+            for (AbstractInsnNode instruction : instructions) {
+                if (instruction.getOpcode() >= IRETURN && instruction.getOpcode() <= RETURN) {
+                    return false;
+                }
+            }
+            for (Label label : labelReferences.elementSet()) {
+                if (!labels.contains(label)) {
+                    return false;
+                }
+            }
+            for (Label label : labels) {
+                if (methodRecording.labelReferences.count(label) > labelReferences.count(label)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean assignsStaticField(String owner, Set<String> fieldNames)
+        {
+            for (AbstractInsnNode instruction : instructions) {
+                if (instruction instanceof FieldInsnNode field && field.getOpcode() == PUTSTATIC && field.owner.equals(owner) && fieldNames.contains(field.name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Finds the variables that may be read before they are assigned, and
+         * the variables that are assigned on every path to the end of the
+         * instructions, with a data flow analysis of the instructions.
+         */
+        public Optional<VariableUsage> analyzeVariables()
+        {
+            Map<LabelNode, Integer> labelIndexes = new IdentityHashMap<>();
+            for (int index = 0; index < instructions.size(); index++) {
+                if (instructions.get(index) instanceof LabelNode label) {
+                    labelIndexes.put(label, index);
+                }
+            }
+
+            BitSet readBeforeAssigned = new BitSet();
+            BitSet assigned = new BitSet();
+            // the assigned variables on entry of each instruction, and of the end of the instructions
+            BitSet[] states = new BitSet[instructions.size() + 1];
+            Deque<Integer> worklist = new ArrayDeque<>();
+            states[0] = new BitSet();
+            worklist.add(0);
+            while (!worklist.isEmpty()) {
+                int index = worklist.poll();
+                if (index == instructions.size()) {
+                    continue;
+                }
+                AbstractInsnNode instruction = instructions.get(index);
+                BitSet state = states[index];
+
+                for (TryCatchBlockNode tryCatchBlock : tryCatchBlocks) {
+                    if (labelIndexes.get(tryCatchBlock.start) <= index && index < labelIndexes.get(tryCatchBlock.end)) {
+                        merge(states, worklist, labelIndexes.get(tryCatchBlock.handler), state);
+                    }
+                }
+
+                if (isRead(instruction) && !state.get(getSlot(instruction))) {
+                    readBeforeAssigned.set(getSlot(instruction));
+                }
+                if (isWrite(instruction)) {
+                    assigned.set(getSlot(instruction));
+                    state = (BitSet) state.clone();
+                    state.set(getSlot(instruction));
+                }
+
+                if (instruction instanceof JumpInsnNode jump) {
+                    merge(states, worklist, labelIndexes.get(jump.label), state);
+                    if (jump.getOpcode() != GOTO) {
+                        merge(states, worklist, index + 1, state);
+                    }
+                }
+                else if (instruction instanceof TableSwitchInsnNode tableSwitch) {
+                    merge(states, worklist, labelIndexes.get(tableSwitch.dflt), state);
+                    for (LabelNode label : tableSwitch.labels) {
+                        merge(states, worklist, labelIndexes.get(label), state);
+                    }
+                }
+                else if (instruction instanceof LookupSwitchInsnNode lookupSwitch) {
+                    merge(states, worklist, labelIndexes.get(lookupSwitch.dflt), state);
+                    for (LabelNode label : lookupSwitch.labels) {
+                        merge(states, worklist, labelIndexes.get(label), state);
+                    }
+                }
+                else if (instruction.getOpcode() != ATHROW) {
+                    merge(states, worklist, index + 1, state);
+                }
+            }
+
+            BitSet assignedAtExit = states[instructions.size()];
+            if (assignedAtExit == null) {
+                // the statements never complete normally
+                return Optional.empty();
+            }
+            return Optional.of(new VariableUsage(readBeforeAssigned, assigned, assignedAtExit));
+        }
+
+        private static void merge(BitSet[] states, Deque<Integer> worklist, int index, BitSet state)
+        {
+            if (states[index] == null) {
+                states[index] = (BitSet) state.clone();
+                worklist.add(index);
+                return;
+            }
+
+            BitSet merged = (BitSet) states[index].clone();
+            merged.and(state);
+            if (!merged.equals(states[index])) {
+                states[index] = merged;
+                worklist.add(index);
+            }
+        }
+
+        private static boolean isRead(AbstractInsnNode instruction)
+        {
+            int opcode = instruction.getOpcode();
+            return (opcode >= ILOAD && opcode <= ALOAD) || opcode == IINC;
+        }
+
+        private static boolean isWrite(AbstractInsnNode instruction)
+        {
+            int opcode = instruction.getOpcode();
+            return (opcode >= ISTORE && opcode <= ASTORE) || opcode == IINC;
+        }
+
+        private static int getSlot(AbstractInsnNode instruction)
+        {
+            if (instruction instanceof IincInsnNode increment) {
+                return increment.var;
+            }
+            return ((VarInsnNode) instruction).var;
+        }
+
+        private static int estimateSize(AbstractInsnNode instruction)
+        {
+            int opcode = instruction.getOpcode();
+            if (opcode < 0) {
+                // labels, line numbers and frames
+                return 0;
+            }
+            return switch (instruction.getType()) {
+                case AbstractInsnNode.INSN -> 1;
+                case AbstractInsnNode.INT_INSN -> opcode == SIPUSH ? 3 : 2;
+                case AbstractInsnNode.VAR_INSN -> ((VarInsnNode) instruction).var < 4 ? 1 : 2;
+                case AbstractInsnNode.LDC_INSN -> ((LdcInsnNode) instruction).cst instanceof Long || ((LdcInsnNode) instruction).cst instanceof Double ? 3 : 2;
+                case AbstractInsnNode.IINC_INSN -> 3;
+                case AbstractInsnNode.METHOD_INSN -> opcode == INVOKEINTERFACE ? 5 : 3;
+                case AbstractInsnNode.INVOKE_DYNAMIC_INSN -> 5;
+                case AbstractInsnNode.TABLESWITCH_INSN -> 16 + 4 * ((TableSwitchInsnNode) instruction).labels.size();
+                case AbstractInsnNode.LOOKUPSWITCH_INSN -> 12 + 8 * ((LookupSwitchInsnNode) instruction).labels.size();
+                case AbstractInsnNode.MULTIANEWARRAY_INSN -> 4;
+                default -> 3;
+            };
+        }
+    }
+
+    private static final class RecordingMethodNode
+            extends MethodNode
+    {
+        private final Map<Label, LabelNode> labelNodes = new IdentityHashMap<>();
+        private final Set<Label> labels = newIdentityHashSet();
+        private final Multiset<Label> labelReferences = HashMultiset.create();
+
+        private RecordingMethodNode()
+        {
+            super(ASM9);
+            tryCatchBlocks = new ArrayList<>();
+        }
+
+        public Set<Label> getLabels()
+        {
+            return labels;
+        }
+
+        public Multiset<Label> getLabelReferences()
+        {
+            return labelReferences;
+        }
+
+        // the labels of the recorded nodes are also used by the class writer, so they are not bound to this method node
+        @Override
+        protected LabelNode getLabelNode(Label label)
+        {
+            return labelNodes.computeIfAbsent(label, ignored -> new LabelNode());
+        }
+
+        @Override
+        public void visitLabel(Label label)
+        {
+            labels.add(label);
+            super.visitLabel(label);
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label)
+        {
+            labelReferences.add(label);
+            super.visitJumpInsn(opcode, label);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels)
+        {
+            labelReferences.add(dflt);
+            labelReferences.addAll(List.of(labels));
+            super.visitTableSwitchInsn(min, max, dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels)
+        {
+            labelReferences.add(dflt);
+            labelReferences.addAll(List.of(labels));
+            super.visitLookupSwitchInsn(dflt, keys, labels);
+        }
+
+        @Override
+        public void visitTryCatchBlock(Label start, Label end, Label handler, String type)
+        {
+            labelReferences.add(start);
+            labelReferences.add(end);
+            labelReferences.add(handler);
+            super.visitTryCatchBlock(start, end, handler, type);
+        }
+    }
+
+    // assigns slots to the variables in the order they are used, as the nodes are not in a scope
+    private static final class VariableRecordingContext
+            extends MethodGenerationContext
+    {
+        private final Map<Variable, Integer> variableSlots = new LinkedHashMap<>();
+        private int nextSlot;
+
+        private VariableRecordingContext(MethodVisitor methodVisitor, List<SplitMethod> splitMethods)
+        {
+            super(methodVisitor, splitMethods);
+        }
+
+        public Map<Variable, Integer> getVariableSlots()
+        {
+            return variableSlots;
+        }
+
+        @Override
+        public int getVariableSlot(Variable variable)
+        {
+            Integer slot = variableSlots.get(variable);
+            if (slot == null) {
+                slot = nextSlot;
+                variableSlots.put(variable, slot);
+                nextSlot += getSlotSize(variable);
+            }
+            return slot;
+        }
+    }
+
+    static final class SplitMethod
+    {
+        private final ParameterizedType declaringClass;
+        private final String name;
+        private final BytecodeBlock block;
+        private final int start;
+        private final int nodeCount;
+        private final List<Variable> parameters;
+        private final List<Variable> localVariables;
+        private final Optional<Variable> result;
+
+        private SplitMethod(
+                ParameterizedType declaringClass,
+                String name,
+                BytecodeBlock block,
+                int start,
+                int nodeCount,
+                List<Variable> parameters,
+                List<Variable> localVariables,
+                Optional<Variable> result)
+        {
+            this.declaringClass = requireNonNull(declaringClass, "declaringClass is null");
+            this.name = requireNonNull(name, "name is null");
+            this.block = requireNonNull(block, "block is null");
+            this.start = start;
+            this.nodeCount = nodeCount;
+            this.parameters = ImmutableList.copyOf(requireNonNull(parameters, "parameters is null"));
+            this.localVariables = ImmutableList.copyOf(requireNonNull(localVariables, "localVariables is null"));
+            this.result = requireNonNull(result, "result is null");
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public BytecodeBlock getBlock()
+        {
+            return block;
+        }
+
+        public int getStart()
+        {
+            return start;
+        }
+
+        public int getNodeCount()
+        {
+            return nodeCount;
+        }
+
+        public String getMethodDescriptor()
+        {
+            return methodDescription(
+                    result.map(Variable::getType).orElse(type(void.class)),
+                    parameters.stream().map(Variable::getType).collect(toImmutableList()));
+        }
+
+        /**
+         * Emits the call of this method in place of the moved nodes.
+         */
+        public void invoke(MethodVisitor visitor, MethodGenerationContext generationContext)
+        {
+            for (Variable parameter : parameters) {
+                loadVariable(parameter).accept(visitor, generationContext);
+            }
+            visitor.visitMethodInsn(INVOKESTATIC, declaringClass.getClassName(), name, getMethodDescriptor(), false);
+            if (result.isPresent()) {
+                storeVariable(result.get()).accept(visitor, generationContext);
+            }
+        }
+
+        public void visit(ClassVisitor visitor, List<SplitMethod> splitMethods)
+        {
+            MethodVisitor methodVisitor = visitor.visitMethod(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC, name, getMethodDescriptor(), null, null);
+            if (methodVisitor == null) {
+                return;
+            }
+
+            methodVisitor.visitCode();
+            Scope scope = new Scope(ImmutableList.<Variable>builder()
+                    .addAll(parameters)
+                    .addAll(localVariables)
+                    .build());
+            MethodGenerationContext generationContext = new MethodGenerationContext(methodVisitor, splitMethods);
+            generationContext.enterScope(scope);
+            for (BytecodeNode node : block.getChildNodes().subList(start, start + nodeCount)) {
+                node.accept(methodVisitor, generationContext);
+            }
+            if (result.isPresent()) {
+                loadVariable(result.get()).accept(methodVisitor, generationContext);
+                methodVisitor.visitInsn(Type.getType(result.get().getType().getType()).getOpcode(IRETURN));
+            }
+            else {
+                methodVisitor.visitInsn(RETURN);
+            }
+            generationContext.exitScope(scope);
+            methodVisitor.visitMaxs(-1, -1);
+            methodVisitor.visitEnd();
+        }
+    }
+}
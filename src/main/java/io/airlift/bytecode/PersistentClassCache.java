@@ -0,0 +1,624 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.objectweb.asm.ClassWriter;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Suppliers.memoize;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static io.airlift.bytecode.ParameterizedType.typeFromPathName;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Persistent cache of generated bytecode on local disk, so classes generated
+ * by a previous run of the process do not have to be generated again.
+ * <p>
+ * Entries are keyed by the structural fingerprint of the class definitions, which
+ * does not include the names of the generated classes, combined with the versions of
+ * this library and ASM and the options of the generator that change the bytecode. When
+ * a library is not packaged with a version, for example when running from a build
+ * directory, the content of its classes is used instead. The class definitions are still
+ * visited to compute the fingerprint, but on a hit {@link ClassGenerator} does not
+ * compute frames or write class files: it renames the classes in the constant pool of
+ * the stored bytecode to the requested names and defines them.
+ * <p>
+ * The stack map frames of the stored bytecode depend on the class hierarchy of the types
+ * that are merged in the frames, which the fingerprint does not cover. Each entry records
+ * the superclass and interfaces of these types, and an entry is only used when the class
+ * loader of the generator sees the same hierarchy. Otherwise, the classes are generated
+ * again and replace the entry.
+ * <p>
+ * The bytecode is stored in an append-only file that is memory mapped for reads. Each
+ * record is protected by a checksum: a torn record at the end of the file, for example
+ * after a crash, is truncated when the cache is opened, and a record that fails the
+ * check when it is read is treated as a miss. When the file grows over the maximum
+ * size, it is compacted by rewriting the most recently written entries to a new file.
+ * A directory can only be used by one cache at a time.
+ */
+@ThreadSafe
+public final class PersistentClassCache
+        implements Closeable
+{
+    public static final long DEFAULT_MAXIMUM_SIZE = 256L * 1024 * 1024;
+
+    private static final String DATA_FILE_NAME = "classes.bin";
+    private static final String LOCK_FILE_NAME = "classes.lock";
+    private static final int MAGIC = 0xB17EC0DE;
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    // record length and checksum
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int KEY_SIZE = 32;
+
+    private static final Supplier<String> LIBRARY_VERSION = memoize(() -> getVersion(PersistentClassCache.class));
+    private static final Supplier<String> ASM_VERSION = memoize(() -> getVersion(ClassWriter.class));
+
+    private final Path dataFile;
+    private final long maximumSize;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    @GuardedBy("this")
+    private FileChannel channel;
+    @GuardedBy("this")
+    private MappedByteBuffer mappedData;
+    @GuardedBy("this")
+    private long fileSize;
+    // record offsets in the order the records were written
+    @GuardedBy("this")
+    private final Map<HashCode, Record> records = new LinkedHashMap<>();
+    @GuardedBy("this")
+    private long hitCount;
+    @GuardedBy("this")
+    private long missCount;
+    @GuardedBy("this")
+    private long corruptRecordCount;
+    @GuardedBy("this")
+    private long staleRecordCount;
+    @GuardedBy("this")
+    private long compactionCount;
+
+    public PersistentClassCache(Path directory)
+    {
+        this(directory, DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public PersistentClassCache(Path directory, long maximumSize)
+    {
+        requireNonNull(directory, "directory is null");
+        checkArgument(maximumSize > HEADER_SIZE, "maximumSize is too small");
+        checkArgument(maximumSize <= Integer.MAX_VALUE, "maximumSize must be less than 2GB");
+        this.dataFile = directory.resolve(DATA_FILE_NAME);
+        this.maximumSize = maximumSize;
+        try {
+            Files.createDirectories(directory);
+            lockChannel = FileChannel.open(directory.resolve(LOCK_FILE_NAME), CREATE, WRITE);
+            lock = lockChannel.tryLock();
+            if (lock == null) {
+                lockChannel.close();
+                throw new IllegalStateException("Class cache directory is in use by another process: " + directory);
+            }
+            synchronized (this) {
+                open();
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to open class cache: " + directory, e);
+        }
+    }
+
+    static HashCode createKey(List<ClassDefinition> classDefinitions, ByteCodeGenerator byteCodeGenerator)
+    {
+        return Hashing.sha256().newHasher()
+                .putBytes(ClassDefinitionFingerprint.fingerprint(classDefinitions).asBytes())
+                .putInt(FORMAT_VERSION)
+                .putString(LIBRARY_VERSION.get(), UTF_8)
+                .putString(ASM_VERSION.get(), UTF_8)
+                .putInt(byteCodeGenerator.getBytecodeOptions())
+                .putInt(byteCodeGenerator.getMaximumMethodSize())
+                .putInt(byteCodeGenerator.getMaximumConstantPoolSize())
+                .putInt(byteCodeGenerator.getMaximumMethodCount())
+                .hash();
+    }
+
+    private static String getVersion(Class<?> clazz)
+    {
+        String version = clazz.getPackage().getImplementationVersion();
+        if (version != null) {
+            return version;
+        }
+
+        // not a packaged release, so identify the build by the content of its classes
+        try {
+            CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+            if (codeSource != null && codeSource.getLocation() != null) {
+                Path location = Path.of(codeSource.getLocation().toURI());
+                Hasher hasher = Hashing.sha256().newHasher();
+                if (Files.isDirectory(location)) {
+                    List<Path> files;
+                    try (Stream<Path> paths = Files.walk(location)) {
+                        files = paths.filter(Files::isRegularFile).sorted().collect(toImmutableList());
+                    }
+                    for (Path file : files) {
+                        hasher.putString(location.relativize(file).toString(), UTF_8);
+                        hasher.putBytes(Files.readAllBytes(file));
+                    }
+                }
+                else {
+                    hasher.putBytes(Files.readAllBytes(location));
+                }
+                return "build-" + hasher.hash();
+            }
+        }
+        catch (IOException | URISyntaxException | RuntimeException ignored) {
+        }
+        // entries can not be shared with other processes
+        return "process-" + UUID.randomUUID();
+    }
+
+    /**
+     * Describes the class hierarchy of the types, and of all their supertypes, as it is
+     * seen by the class info loader, excluding the types generated with the entry.
+     */
+    static Map<String, String> describeHierarchy(ClassInfoLoader classInfoLoader, Set<String> types, Set<String> generatedTypes)
+    {
+        Map<String, String> hierarchy = new TreeMap<>();
+        Set<String> visited = new HashSet<>();
+        Deque<ClassInfo> queue = new ArrayDeque<>();
+        for (String type : types) {
+            if (visited.add(type)) {
+                queue.add(classInfoLoader.loadClassInfo(typeFromPathName(type)));
+            }
+        }
+        while (!queue.isEmpty()) {
+            ClassInfo classInfo = queue.remove();
+            String type = classInfo.getType().getClassName();
+            if (!generatedTypes.contains(type)) {
+                hierarchy.put(type, describeType(classInfo));
+            }
+            List<ClassInfo> supertypes = new ArrayList<>(classInfo.getInterfaces());
+            if (classInfo.getSuperclass() != null) {
+                supertypes.add(classInfo.getSuperclass());
+            }
+            for (ClassInfo supertype : supertypes) {
+                if (visited.add(supertype.getType().getClassName())) {
+                    queue.add(supertype);
+                }
+            }
+        }
+        return hierarchy;
+    }
+
+    static boolean isCurrentHierarchy(ClassInfoLoader classInfoLoader, Map<String, String> hierarchy)
+    {
+        for (Entry<String, String> entry : hierarchy.entrySet()) {
+            try {
+                if (!describeType(classInfoLoader.loadClassInfo(typeFromPathName(entry.getKey()))).equals(entry.getValue())) {
+                    return false;
+                }
+            }
+            catch (RuntimeException e) {
+                // the type is no longer visible
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String describeType(ClassInfo classInfo)
+    {
+        StringBuilder description = new StringBuilder(classInfo.isInterface() ? "interface" : "class");
+        if (classInfo.getSuperclass() != null) {
+            description.append(" extends ").append(classInfo.getSuperclass().getType().getClassName());
+        }
+        for (ClassInfo anInterface : classInfo.getInterfaces()) {
+            description.append(" ").append(anInterface.getType().getClassName());
+        }
+        return description.toString();
+    }
+
+    /**
+     * Returns the classes stored for the key, if the class hierarchy they depend on is current.
+     * The bytecode of the classes is keyed by class name, in the order of the class definitions
+     * the entry was created from, followed by their nest members.
+     */
+    Optional<CachedClasses> get(HashCode key, Predicate<Map<String, String>> isCurrentHierarchy)
+    {
+        ClassCacheEvent event = new ClassCacheEvent();
+        event.begin();
+        Optional<CachedClasses> cachedClasses = read(key);
+
+        // the hierarchy is checked without holding the lock, because it may load classes
+        boolean stale = cachedClasses.isPresent() && !isCurrentHierarchy.test(cachedClasses.get().hierarchy());
+        if (stale) {
+            cachedClasses = Optional.empty();
+        }
+        synchronized (this) {
+            if (stale) {
+                staleRecordCount++;
+            }
+            if (cachedClasses.isPresent()) {
+                hitCount++;
+            }
+            else {
+                missCount++;
+            }
+        }
+        commitEvent(event, cachedClasses.map(CachedClasses::bytecodes).orElse(ImmutableMap.of()));
+        return cachedClasses;
+    }
+
+    private synchronized Optional<CachedClasses> read(HashCode key)
+    {
+        checkState(channel != null, "Class cache is closed");
+        Record record = records.get(key);
+        if (record == null) {
+            return Optional.empty();
+        }
+        Optional<CachedClasses> cachedClasses = readRecord(record);
+        if (cachedClasses.isEmpty()) {
+            records.remove(key);
+            corruptRecordCount++;
+        }
+        return cachedClasses;
+    }
+
+    private static void commitEvent(ClassCacheEvent event, Map<String, byte[]> classes)
+    {
+        if (event.shouldCommit()) {
+            event.cache = ClassCacheEvent.PERSISTENT_CLASS_CACHE;
+            event.hit = !classes.isEmpty();
+            event.className = classes.keySet().stream().findFirst().orElse(null);
+            event.classCount = classes.size();
+            event.byteSize = classes.values().stream().mapToLong(bytecode -> bytecode.length).sum();
+            event.commit();
+        }
+    }
+
+    synchronized void put(HashCode key, Map<String, byte[]> bytecodes, Map<String, String> hierarchy)
+    {
+        checkState(channel != null, "Class cache is closed");
+        byte[] payload = createPayload(key, bytecodes, hierarchy);
+        long recordSize = RECORD_HEADER_SIZE + payload.length;
+        if (HEADER_SIZE + recordSize > maximumSize) {
+            return;
+        }
+
+        try {
+            if (fileSize + recordSize > maximumSize) {
+                // leave room for new records, so compaction is not required for every put
+                compact(maximumSize / 2 - recordSize);
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length)
+                    .putInt(payload.length)
+                    .putInt((int) crc.getValue())
+                    .put(payload)
+                    .flip();
+            long offset = fileSize;
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            fileSize += recordSize;
+
+            // move the entry to the end, so it is kept the longest by compaction
+            records.remove(key);
+            records.put(key, new Record(offset, payload.length));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to write class cache: " + dataFile, e);
+        }
+    }
+
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+    public synchronized long getCorruptRecordCount()
+    {
+        return corruptRecordCount;
+    }
+
+    /**
+     * Entries that were not used, because the class hierarchy they depend on changed.
+     */
+    public synchronized long getStaleRecordCount()
+    {
+        return staleRecordCount;
+    }
+
+    public synchronized long getCompactionCount()
+    {
+        return compactionCount;
+    }
+
+    public synchronized long size()
+    {
+        return records.size();
+    }
+
+    public synchronized long getFileSize()
+    {
+        return fileSize;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+                mappedData = null;
+            }
+            lock.release();
+            lockChannel.close();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to close class cache: " + dataFile, e);
+        }
+    }
+
+    @GuardedBy("this")
+    private void open()
+            throws IOException
+    {
+        channel = FileChannel.open(dataFile, CREATE, READ, WRITE);
+        fileSize = channel.size();
+        records.clear();
+
+        if (fileSize < HEADER_SIZE || !hasValidHeader()) {
+            // new file, or written by an incompatible version
+            channel.truncate(0);
+            channel.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(FORMAT_VERSION).flip(), 0);
+            fileSize = HEADER_SIZE;
+        }
+        remap();
+
+        long offset = HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= fileSize) {
+            int length = mappedData.getInt((int) offset);
+            if (length < KEY_SIZE || offset + RECORD_HEADER_SIZE + length > fileSize) {
+                break;
+            }
+            Record record = new Record(offset, length);
+            if (!isValid(record)) {
+                break;
+            }
+            HashCode key = readKey(record);
+            records.remove(key);
+            records.put(key, record);
+            offset += RECORD_HEADER_SIZE + length;
+        }
+
+        if (offset < fileSize) {
+            // a torn or damaged record, and everything after it, is dropped
+            corruptRecordCount++;
+            channel.truncate(offset);
+            fileSize = offset;
+            remap();
+        }
+    }
+
+    @GuardedBy("this")
+    private boolean hasValidHeader()
+            throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // keep reading
+        }
+        header.flip();
+        return header.remaining() == HEADER_SIZE && header.getInt() == MAGIC && header.getInt() == FORMAT_VERSION;
+    }
+
+    @GuardedBy("this")
+    private void remap()
+            throws IOException
+    {
+        checkState(fileSize <= Integer.MAX_VALUE, "Class cache file is too large");
+        mappedData = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+    }
+
+    @GuardedBy("this")
+    private Optional<CachedClasses> readRecord(Record record)
+    {
+        try {
+            if (record.offset() + RECORD_HEADER_SIZE + record.length() > mappedData.capacity()) {
+                remap();
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to read class cache: " + dataFile, e);
+        }
+        if (!isValid(record)) {
+            return Optional.empty();
+        }
+
+        ByteBuffer payload = mappedData.slice((int) record.offset() + RECORD_HEADER_SIZE + KEY_SIZE, record.length() - KEY_SIZE);
+        Map<String, byte[]> bytecodes = new LinkedHashMap<>();
+        int classCount = payload.getInt();
+        for (int i = 0; i < classCount; i++) {
+            String name = readString(payload);
+            byte[] bytecode = new byte[payload.getInt()];
+            payload.get(bytecode);
+            bytecodes.put(name, bytecode);
+        }
+        Map<String, String> hierarchy = new LinkedHashMap<>();
+        int typeCount = payload.getInt();
+        for (int i = 0; i < typeCount; i++) {
+            hierarchy.put(readString(payload), readString(payload));
+        }
+        return Optional.of(new CachedClasses(bytecodes, hierarchy));
+    }
+
+    private static String readString(ByteBuffer buffer)
+    {
+        byte[] value = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(value);
+        return new String(value, UTF_8);
+    }
+
+    @GuardedBy("this")
+    private boolean isValid(Record record)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(mappedData.slice((int) record.offset() + RECORD_HEADER_SIZE, record.length()));
+        return mappedData.getInt((int) record.offset()) == record.length() &&
+                mappedData.getInt((int) record.offset() + 4) == (int) crc.getValue();
+    }
+
+    @GuardedBy("this")
+    private HashCode readKey(Record record)
+    {
+        byte[] key = new byte[KEY_SIZE];
+        mappedData.get((int) record.offset() + RECORD_HEADER_SIZE, key);
+        return HashCode.fromBytes(key);
+    }
+
+    @GuardedBy("this")
+    private void compact(long targetSize)
+            throws IOException
+    {
+        if (mappedData.capacity() < fileSize) {
+            remap();
+        }
+
+        // keep the most recently written records that fit in the target size
+        List<Entry<HashCode, Record>> retained = new ArrayList<>(records.entrySet());
+        long retainedSize = HEADER_SIZE + retained.stream()
+                .mapToLong(entry -> RECORD_HEADER_SIZE + entry.getValue().length())
+                .sum();
+        Iterator<Entry<HashCode, Record>> iterator = retained.iterator();
+        while (retainedSize > targetSize && iterator.hasNext()) {
+            retainedSize -= RECORD_HEADER_SIZE + iterator.next().getValue().length();
+            iterator.remove();
+        }
+
+        Path temporaryFile = dataFile.resolveSibling(DATA_FILE_NAME + ".tmp");
+        Map<HashCode, Record> compacted = new LinkedHashMap<>();
+        try (FileChannel output = FileChannel.open(temporaryFile, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            long offset = 0;
+            offset += output.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(FORMAT_VERSION).flip(), offset);
+            for (Entry<HashCode, Record> entry : retained) {
+                Record record = entry.getValue();
+                ByteBuffer data = mappedData.slice((int) record.offset(), RECORD_HEADER_SIZE + record.length());
+                compacted.put(entry.getKey(), new Record(offset, record.length()));
+                while (data.hasRemaining()) {
+                    offset += output.write(data, offset);
+                }
+            }
+        }
+
+        channel.close();
+        Files.move(temporaryFile, dataFile, ATOMIC_MOVE, REPLACE_EXISTING);
+        channel = FileChannel.open(dataFile, READ, WRITE);
+        fileSize = channel.size();
+        remap();
+        records.clear();
+        records.putAll(compacted);
+        compactionCount++;
+    }
+
+    private static byte[] createPayload(HashCode key, Map<String, byte[]> bytecodes, Map<String, String> hierarchy)
+    {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(payload)) {
+            output.write(key.asBytes());
+            output.writeInt(bytecodes.size());
+            for (Entry<String, byte[]> entry : bytecodes.entrySet()) {
+                writeString(output, entry.getKey());
+                output.writeInt(entry.getValue().length);
+                output.write(entry.getValue());
+            }
+            output.writeInt(hierarchy.size());
+            for (Entry<String, String> entry : hierarchy.entrySet()) {
+                writeString(output, entry.getKey());
+                writeString(output, entry.getValue());
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return payload.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream output, String value)
+            throws IOException
+    {
+        byte[] bytes = value.getBytes(UTF_8);
+        checkArgument(bytes.length <= 0xFFFF, "String is too long: %s", value);
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+
+    private record Record(long offset, int length) {}
+
+    record CachedClasses(Map<String, byte[]> bytecodes, Map<String, String> hierarchy) {}
+}
@@ -60,6 +60,13 @@ public class Scope
         }
     }
 
+    // used by methods split out of a method body, which use the variables of the original method
+    Scope(List<Variable> variables)
+    {
+        thisVariable = null;
+        allVariables.addAll(variables);
+    }
+
     public List<Variable> getVariables()
     {
         return ImmutableList.copyOf(allVariables);
@@ -15,21 +15,58 @@ package io.airlift.bytecode;
 
 import org.objectweb.asm.ClassWriter;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
 import static io.airlift.bytecode.ParameterizedType.typeFromPathName;
 
 public class SmartClassWriter
         extends ClassWriter
 {
     private final ClassInfoLoader classInfoLoader;
+    private final Map<String, Map<String, String>> commonSuperClasses = new HashMap<>();
 
     public SmartClassWriter(ClassInfoLoader classInfoLoader)
     {
-        super(ClassWriter.COMPUTE_FRAMES);
+        this(classInfoLoader, ClassWriter.COMPUTE_FRAMES);
+    }
+
+    public SmartClassWriter(ClassInfoLoader classInfoLoader, int flags)
+    {
+        super(flags);
         this.classInfoLoader = classInfoLoader;
     }
 
     @Override
     protected String getCommonSuperClass(String aType, String bType)
+    {
+        // the result is symmetric, so only cache one order of each pair
+        if (aType.compareTo(bType) > 0) {
+            String temp = aType;
+            aType = bType;
+            bType = temp;
+        }
+
+        Map<String, String> aCommonSuperClasses = commonSuperClasses.computeIfAbsent(aType, ignored -> new HashMap<>());
+        String commonSuperClass = aCommonSuperClasses.get(bType);
+        if (commonSuperClass == null) {
+            commonSuperClass = computeCommonSuperClass(aType, bType);
+            aCommonSuperClasses.put(bType, commonSuperClass);
+        }
+        return commonSuperClass;
+    }
+
+    // the types whose hierarchy was used to compute the stack map frames
+    Set<String> getHierarchyTypes()
+    {
+        Set<String> types = new HashSet<>(commonSuperClasses.keySet());
+        commonSuperClasses.values().forEach(otherTypes -> types.addAll(otherTypes.keySet()));
+        return types;
+    }
+
+    private String computeCommonSuperClass(String aType, String bType)
     {
         ClassInfo aClassInfo = classInfoLoader.loadClassInfo(typeFromPathName(aType));
         ClassInfo bClassInfo = classInfoLoader.loadClassInfo(typeFromPathName(bType));
@@ -24,6 +24,8 @@ import org.objectweb.asm.MethodVisitor;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.bytecode.OpCode.GOTO;
+import static io.airlift.bytecode.OpCode.IFEQ;
 
 public class DoWhileLoop
         implements FlowControl
@@ -91,20 +93,13 @@ public class DoWhileLoop
     {
         checkState(!condition.isEmpty(), "DoWhileLoop does not have a condition set");
 
-        BytecodeBlock block = new BytecodeBlock()
-                .visitLabel(beginLabel)
-                .append(new BytecodeBlock()
-                        .setDescription("body")
-                        .append(body))
-                .visitLabel(continueLabel)
-                .append(new BytecodeBlock()
-                        .setDescription("condition")
-                        .append(condition))
-                .ifFalseGoto(endLabel)
-                .gotoLabel(beginLabel)
-                .visitLabel(endLabel);
-
-        block.accept(visitor, generationContext);
+        beginLabel.accept(visitor, generationContext);
+        body.accept(visitor, generationContext);
+        continueLabel.accept(visitor, generationContext);
+        condition.accept(visitor, generationContext);
+        visitor.visitJumpInsn(IFEQ.getOpCode(), endLabel.getLabel());
+        visitor.visitJumpInsn(GOTO.getOpCode(), beginLabel.getLabel());
+        endLabel.accept(visitor, generationContext);
     }
 
     @Override
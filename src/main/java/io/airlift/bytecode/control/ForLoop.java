@@ -24,6 +24,8 @@ import org.objectweb.asm.MethodVisitor;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.bytecode.OpCode.GOTO;
+import static io.airlift.bytecode.OpCode.IFEQ;
 
 public class ForLoop
         implements FlowControl
@@ -117,30 +119,18 @@ public class ForLoop
     {
         checkState(!condition.isEmpty(), "ForLoop does not have a condition set");
 
-        BytecodeBlock block = new BytecodeBlock();
+        initialize.accept(visitor, generationContext);
 
-        block.append(new BytecodeBlock()
-                .setDescription("initialize")
-                .append(initialize));
+        beginLabel.accept(visitor, generationContext);
+        condition.accept(visitor, generationContext);
+        visitor.visitJumpInsn(IFEQ.getOpCode(), endLabel.getLabel());
 
-        block.visitLabel(beginLabel)
-                .append(new BytecodeBlock()
-                        .setDescription("condition")
-                        .append(condition))
-                .ifFalseGoto(endLabel);
+        body.accept(visitor, generationContext);
 
-        block.append(new BytecodeBlock()
-                .setDescription("body")
-                .append(body));
-
-        block.visitLabel(continueLabel)
-                .append(new BytecodeBlock()
-                        .setDescription("update")
-                        .append(update))
-                .gotoLabel(beginLabel)
-                .visitLabel(endLabel);
-
-        block.accept(visitor, generationContext);
+        continueLabel.accept(visitor, generationContext);
+        update.accept(visitor, generationContext);
+        visitor.visitJumpInsn(GOTO.getOpCode(), beginLabel.getLabel());
+        endLabel.accept(visitor, generationContext);
     }
 
     @Override
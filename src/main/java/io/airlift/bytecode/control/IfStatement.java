@@ -24,6 +24,8 @@ import org.objectweb.asm.MethodVisitor;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.bytecode.OpCode.GOTO;
+import static io.airlift.bytecode.OpCode.IFEQ;
 
 public class IfStatement
         implements FlowControl
@@ -94,35 +96,25 @@ public class IfStatement
         checkState(!condition.isEmpty(), "IfStatement does not have a condition set");
         checkState(!ifTrue.isEmpty() || !ifFalse.isEmpty(), "IfStatement does not have a true or false block set");
 
-        BytecodeBlock block = new BytecodeBlock();
-
         // if !condition goto false;
-        block.append(new BytecodeBlock()
-                .setDescription("condition")
-                .append(condition));
-        block.ifFalseGoto(falseLabel);
+        condition.accept(visitor, generationContext);
+        visitor.visitJumpInsn(IFEQ.getOpCode(), falseLabel.getLabel());
 
         if (!ifTrue.isEmpty()) {
-            block.append(new BytecodeBlock()
-                    .setDescription("ifTrue")
-                    .append(ifTrue));
+            ifTrue.accept(visitor, generationContext);
         }
 
         if (!ifFalse.isEmpty()) {
             // close true case by skipping to end
-            block.gotoLabel(outLabel);
+            visitor.visitJumpInsn(GOTO.getOpCode(), outLabel.getLabel());
 
-            block.visitLabel(falseLabel);
-            block.append(new BytecodeBlock()
-                    .setDescription("ifFalse")
-                    .append(ifFalse));
-            block.visitLabel(outLabel);
+            falseLabel.accept(visitor, generationContext);
+            ifFalse.accept(visitor, generationContext);
+            outLabel.accept(visitor, generationContext);
         }
         else {
-            block.visitLabel(falseLabel);
+            falseLabel.accept(visitor, generationContext);
         }
-
-        block.accept(visitor, generationContext);
     }
 
     @Override
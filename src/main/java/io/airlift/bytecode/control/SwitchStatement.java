@@ -15,7 +15,6 @@ package io.airlift.bytecode.control;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedSet;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
 import io.airlift.bytecode.BytecodeVisitor;
 import io.airlift.bytecode.MethodGenerationContext;
@@ -30,6 +29,7 @@ import java.util.Set;
 import java.util.SortedSet;
 
 import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.bytecode.OpCode.GOTO;
 import static java.util.Comparator.comparing;
 import static java.util.Objects.requireNonNull;
 
@@ -105,28 +105,24 @@ public class SwitchStatement
             index++;
         }
 
-        // build case blocks
-        BytecodeBlock block = new BytecodeBlock();
+        // emit code
+        expression.accept(visitor, generationContext);
+        visitor.visitLookupSwitchInsn(defaultLabel.getLabel(), keys, labels);
 
+        // case blocks
         for (CaseStatement caseStatement : cases) {
-            block.visitLabel(caseStatement.getLabel())
-                    .append(caseStatement.getBody())
-                    .gotoLabel(endLabel);
+            caseStatement.getLabel().accept(visitor, generationContext);
+            caseStatement.getBody().accept(visitor, generationContext);
+            visitor.visitJumpInsn(GOTO.getOpCode(), endLabel.getLabel());
         }
 
-        // build default block
-        block.visitLabel(defaultLabel);
-
+        // default block
+        defaultLabel.accept(visitor, generationContext);
         if (defaultBody != null) {
-            block.append(defaultBody);
+            defaultBody.accept(visitor, generationContext);
         }
 
-        block.visitLabel(endLabel);
-
-        // emit code
-        expression.accept(visitor, generationContext);
-        visitor.visitLookupSwitchInsn(defaultLabel.getLabel(), keys, labels);
-        block.accept(visitor, generationContext);
+        endLabel.accept(visitor, generationContext);
     }
 
     @Override
@@ -14,19 +14,18 @@
 package io.airlift.bytecode.control;
 
 import com.google.common.collect.ImmutableList;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
 import io.airlift.bytecode.BytecodeVisitor;
 import io.airlift.bytecode.MethodGenerationContext;
 import io.airlift.bytecode.ParameterizedType;
-import io.airlift.bytecode.instruction.LabelNode;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Stream;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static io.airlift.bytecode.OpCode.GOTO;
 import static java.util.Objects.requireNonNull;
 
 public class TryCatch
@@ -67,50 +66,35 @@ public class TryCatch
     @Override
     public void accept(MethodVisitor visitor, MethodGenerationContext generationContext)
     {
-        LabelNode tryStart = new LabelNode("tryStart");
-        LabelNode tryEnd = new LabelNode("tryEnd");
-        List<LabelNode> handlers = new ArrayList<>();
-        LabelNode done = new LabelNode("done");
-
-        BytecodeBlock block = new BytecodeBlock();
+        Label tryStart = new Label();
+        Label tryEnd = new Label();
+        Label[] handlers = new Label[catchBlocks.size()];
+        Label done = new Label();
 
         // try block
-        block.visitLabel(tryStart)
-                .append(tryNode)
-                .visitLabel(tryEnd)
-                .gotoLabel(done);
+        visitor.visitLabel(tryStart);
+        tryNode.accept(visitor, generationContext);
+        visitor.visitLabel(tryEnd);
+        visitor.visitJumpInsn(GOTO.getOpCode(), done);
 
         // catch blocks
         for (int i = 0; i < catchBlocks.size(); i++) {
-            BytecodeNode handlerBlock = catchBlocks.get(i).getHandler();
-            LabelNode handler = new LabelNode("handler" + i);
-            handlers.add(handler);
-            block.visitLabel(handler)
-                    .append(handlerBlock);
+            handlers[i] = new Label();
+            visitor.visitLabel(handlers[i]);
+            catchBlocks.get(i).getHandler().accept(visitor, generationContext);
         }
 
         // all done
-        block.visitLabel(done);
-
-        block.accept(visitor, generationContext);
+        visitor.visitLabel(done);
 
         // exception table
         for (int i = 0; i < catchBlocks.size(); i++) {
-            LabelNode handler = handlers.get(i);
             List<ParameterizedType> exceptionTypes = catchBlocks.get(i).getExceptionTypes();
             for (ParameterizedType type : exceptionTypes) {
-                visitor.visitTryCatchBlock(
-                        tryStart.getLabel(),
-                        tryEnd.getLabel(),
-                        handler.getLabel(),
-                        type.getClassName());
+                visitor.visitTryCatchBlock(tryStart, tryEnd, handlers[i], type.getClassName());
             }
             if (exceptionTypes.isEmpty()) {
-                visitor.visitTryCatchBlock(
-                        tryStart.getLabel(),
-                        tryEnd.getLabel(),
-                        handler.getLabel(),
-                        null);
+                visitor.visitTryCatchBlock(tryStart, tryEnd, handlers[i], null);
             }
         }
     }
@@ -24,6 +24,8 @@ import org.objectweb.asm.MethodVisitor;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.bytecode.OpCode.GOTO;
+import static io.airlift.bytecode.OpCode.IFEQ;
 
 public class WhileLoop
         implements FlowControl
@@ -90,15 +92,12 @@ public class WhileLoop
     {
         checkState(!condition.isEmpty(), "WhileLoop does not have a condition set");
 
-        BytecodeBlock block = new BytecodeBlock()
-                .visitLabel(continueLabel)
-                .append(condition)
-                .ifZeroGoto(endLabel)
-                .append(body)
-                .gotoLabel(continueLabel)
-                .visitLabel(endLabel);
-
-        block.accept(visitor, generationContext);
+        continueLabel.accept(visitor, generationContext);
+        condition.accept(visitor, generationContext);
+        visitor.visitJumpInsn(IFEQ.getOpCode(), endLabel.getLabel());
+        body.accept(visitor, generationContext);
+        visitor.visitJumpInsn(GOTO.getOpCode(), continueLabel.getLabel());
+        endLabel.accept(visitor, generationContext);
     }
 
     @Override
@@ -14,19 +14,19 @@
 package io.airlift.bytecode.expression;
 
 import com.google.common.collect.ImmutableList;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
-import io.airlift.bytecode.MethodGenerationContext;
 import io.airlift.bytecode.instruction.LabelNode;
 
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.bytecode.OpCode.GOTO;
+import static io.airlift.bytecode.OpCode.IFEQ;
 import static io.airlift.bytecode.ParameterizedType.type;
 import static java.util.Objects.requireNonNull;
 
 class AndBytecodeExpression
-        extends BytecodeExpression
+        extends EmittingBytecodeExpression
 {
     private final BytecodeExpression left;
     private final BytecodeExpression right;
@@ -41,17 +41,16 @@ class AndBytecodeExpression
     }
 
     @Override
-    public BytecodeNode getBytecode(MethodGenerationContext generationContext)
+    protected void emit(Emitter emitter)
     {
         LabelNode falseLabel = new LabelNode("false");
         LabelNode endLabel = new LabelNode("end");
-        return new BytecodeBlock()
-                .append(left)
-                .ifFalseGoto(falseLabel)
+        emitter.append(left)
+                .jump(IFEQ, falseLabel)
                 .append(right)
-                .ifFalseGoto(falseLabel)
+                .jump(IFEQ, falseLabel)
                 .push(true)
-                .gotoLabel(endLabel)
+                .jump(GOTO, endLabel)
                 .visitLabel(falseLabel)
                 .push(false)
                 .visitLabel(endLabel);
@@ -14,9 +14,7 @@
 package io.airlift.bytecode.expression;
 
 import com.google.common.collect.ImmutableList;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
-import io.airlift.bytecode.MethodGenerationContext;
 import io.airlift.bytecode.OpCode;
 import io.airlift.bytecode.ParameterizedType;
 
@@ -26,7 +24,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 
 public class ArithmeticBytecodeExpression
-        extends BytecodeExpression
+        extends EmittingBytecodeExpression
 {
     public static BytecodeExpression createArithmeticBytecodeExpression(OpCode baseOpCode, BytecodeExpression left, BytecodeExpression right)
     {
@@ -182,10 +180,9 @@ public class ArithmeticBytecodeExpression
     }
 
     @Override
-    public BytecodeNode getBytecode(MethodGenerationContext generationContext)
+    protected void emit(Emitter emitter)
     {
-        return new BytecodeBlock()
-                .append(left)
+        emitter.append(left)
                 .append(right)
                 .append(opCode);
     }
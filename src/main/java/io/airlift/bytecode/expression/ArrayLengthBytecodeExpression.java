@@ -14,9 +14,7 @@
 package io.airlift.bytecode.expression;
 
 import com.google.common.collect.ImmutableList;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
-import io.airlift.bytecode.MethodGenerationContext;
 
 import java.util.List;
 
@@ -25,7 +23,7 @@ import static io.airlift.bytecode.ParameterizedType.type;
 import static java.util.Objects.requireNonNull;
 
 class ArrayLengthBytecodeExpression
-        extends BytecodeExpression
+        extends EmittingBytecodeExpression
 {
     private final BytecodeExpression instance;
 
@@ -36,10 +34,9 @@ class ArrayLengthBytecodeExpression
     }
 
     @Override
-    public BytecodeNode getBytecode(MethodGenerationContext generationContext)
+    protected void emit(Emitter emitter)
     {
-        return new BytecodeBlock()
-                .append(instance.getBytecode(generationContext))
+        emitter.append(instance)
                 .append(ARRAYLENGTH);
     }
 
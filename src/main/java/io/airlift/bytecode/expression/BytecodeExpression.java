@@ -233,8 +233,13 @@ public abstract class BytecodeExpression
         return new PopBytecodeExpression(this);
     }
 
+    /**
+     * Emits the bytecode of this expression. Expressions that override this must emit
+     * the same instructions as {@link #getBytecode}, which is easiest to guarantee by
+     * describing the bytecode once, as the expressions in this package do.
+     */
     @Override
-    public final void accept(MethodVisitor visitor, MethodGenerationContext generationContext)
+    public void accept(MethodVisitor visitor, MethodGenerationContext generationContext)
     {
         getBytecode(generationContext).accept(visitor, generationContext);
     }
@@ -14,11 +14,8 @@
 package io.airlift.bytecode.expression;
 
 import com.google.common.collect.ImmutableList;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
-import io.airlift.bytecode.MethodGenerationContext;
 import io.airlift.bytecode.OpCode;
-import io.airlift.bytecode.instruction.JumpInstruction;
 import io.airlift.bytecode.instruction.LabelNode;
 
 import java.util.List;
@@ -28,6 +25,7 @@ import static io.airlift.bytecode.OpCode.DCMPG;
 import static io.airlift.bytecode.OpCode.DCMPL;
 import static io.airlift.bytecode.OpCode.FCMPG;
 import static io.airlift.bytecode.OpCode.FCMPL;
+import static io.airlift.bytecode.OpCode.GOTO;
 import static io.airlift.bytecode.OpCode.IFEQ;
 import static io.airlift.bytecode.OpCode.IFGE;
 import static io.airlift.bytecode.OpCode.IFGT;
@@ -47,7 +45,7 @@ import static io.airlift.bytecode.ParameterizedType.type;
 import static java.util.Objects.requireNonNull;
 
 class ComparisonBytecodeExpression
-        extends BytecodeExpression
+        extends EmittingBytecodeExpression
 {
     static BytecodeExpression lessThan(BytecodeExpression left, BytecodeExpression right)
     {
@@ -280,25 +278,23 @@ class ComparisonBytecodeExpression
     }
 
     @Override
-    public BytecodeNode getBytecode(MethodGenerationContext generationContext)
+    protected void emit(Emitter emitter)
     {
-        BytecodeBlock block = new BytecodeBlock()
-                .append(left)
+        emitter.append(left)
                 .append(right);
 
         if (comparisonInstruction != null) {
-            block.append(comparisonInstruction);
+            emitter.append(comparisonInstruction);
         }
 
         LabelNode noMatch = new LabelNode("no_match");
         LabelNode end = new LabelNode("end");
-        return block
-                .append(new JumpInstruction(noMatchJumpInstruction, noMatch))
+        emitter.jump(noMatchJumpInstruction, noMatch)
                 .push(true)
-                .gotoLabel(end)
-                .append(noMatch)
+                .jump(GOTO, end)
+                .visitLabel(noMatch)
                 .push(false)
-                .append(end);
+                .visitLabel(end);
     }
 
     @Override
@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode.expression;
+
+import io.airlift.bytecode.BytecodeBlock;
+import io.airlift.bytecode.BytecodeNode;
+import io.airlift.bytecode.MethodGenerationContext;
+import io.airlift.bytecode.OpCode;
+import io.airlift.bytecode.ParameterizedType;
+import io.airlift.bytecode.instruction.JumpInstruction;
+import io.airlift.bytecode.instruction.LabelNode;
+import org.objectweb.asm.MethodVisitor;
+
+import static io.airlift.bytecode.OpCode.ICONST_0;
+import static io.airlift.bytecode.OpCode.ICONST_1;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An expression that describes its bytecode once, in {@link #emit}. The bytecode is
+ * collected into a tree by {@link #getBytecode}, for tools like tree dump, and is
+ * written directly to the method visitor by {@link #accept}, without building the tree.
+ */
+abstract class EmittingBytecodeExpression
+        extends BytecodeExpression
+{
+    protected EmittingBytecodeExpression(ParameterizedType type)
+    {
+        super(type);
+    }
+
+    protected abstract void emit(Emitter emitter);
+
+    @Override
+    public final BytecodeNode getBytecode(MethodGenerationContext generationContext)
+    {
+        BytecodeBlock block = new BytecodeBlock();
+        emit(new BlockEmitter(block));
+        return block;
+    }
+
+    @Override
+    public final void accept(MethodVisitor visitor, MethodGenerationContext generationContext)
+    {
+        emit(new VisitorEmitter(visitor, generationContext));
+    }
+
+    interface Emitter
+    {
+        Emitter append(BytecodeNode node);
+
+        Emitter push(boolean value);
+
+        Emitter jump(OpCode opCode, LabelNode label);
+
+        Emitter visitLabel(LabelNode label);
+    }
+
+    private static class BlockEmitter
+            implements Emitter
+    {
+        private final BytecodeBlock block;
+
+        public BlockEmitter(BytecodeBlock block)
+        {
+            this.block = requireNonNull(block, "block is null");
+        }
+
+        @Override
+        public Emitter append(BytecodeNode node)
+        {
+            block.append(node);
+            return this;
+        }
+
+        @Override
+        public Emitter push(boolean value)
+        {
+            block.push(value);
+            return this;
+        }
+
+        @Override
+        public Emitter jump(OpCode opCode, LabelNode label)
+        {
+            block.append(new JumpInstruction(opCode, label));
+            return this;
+        }
+
+        @Override
+        public Emitter visitLabel(LabelNode label)
+        {
+            block.visitLabel(label);
+            return this;
+        }
+    }
+
+    private static class VisitorEmitter
+            implements Emitter
+    {
+        private final MethodVisitor visitor;
+        private final MethodGenerationContext generationContext;
+
+        public VisitorEmitter(MethodVisitor visitor, MethodGenerationContext generationContext)
+        {
+            this.visitor = requireNonNull(visitor, "visitor is null");
+            this.generationContext = requireNonNull(generationContext, "generationContext is null");
+        }
+
+        @Override
+        public Emitter append(BytecodeNode node)
+        {
+            node.accept(visitor, generationContext);
+            return this;
+        }
+
+        @Override
+        public Emitter push(boolean value)
+        {
+            visitor.visitInsn((value ? ICONST_1 : ICONST_0).getOpCode());
+            return this;
+        }
+
+        @Override
+        public Emitter jump(OpCode opCode, LabelNode label)
+        {
+            visitor.visitJumpInsn(opCode.getOpCode(), label.getLabel());
+            return this;
+        }
+
+        @Override
+        public Emitter visitLabel(LabelNode label)
+        {
+            label.accept(visitor, generationContext);
+            return this;
+        }
+    }
+}
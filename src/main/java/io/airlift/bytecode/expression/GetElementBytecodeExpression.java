@@ -14,9 +14,7 @@
 package io.airlift.bytecode.expression;
 
 import com.google.common.collect.ImmutableList;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
-import io.airlift.bytecode.MethodGenerationContext;
 import io.airlift.bytecode.instruction.InstructionNode;
 
 import java.util.List;
@@ -26,7 +24,7 @@ import static io.airlift.bytecode.ArrayOpCode.getArrayOpCode;
 import static java.util.Objects.requireNonNull;
 
 class GetElementBytecodeExpression
-        extends BytecodeExpression
+        extends EmittingBytecodeExpression
 {
     private final BytecodeExpression instance;
     private final BytecodeExpression index;
@@ -43,10 +41,9 @@ class GetElementBytecodeExpression
     }
 
     @Override
-    public BytecodeNode getBytecode(MethodGenerationContext generationContext)
+    protected void emit(Emitter emitter)
     {
-        return new BytecodeBlock()
-                .append(instance.getBytecode(generationContext))
+        emitter.append(instance)
                 .append(index)
                 .append(arrayLoadInstruction);
     }
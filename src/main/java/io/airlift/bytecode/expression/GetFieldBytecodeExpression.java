@@ -14,10 +14,8 @@
 package io.airlift.bytecode.expression;
 
 import com.google.common.collect.ImmutableList;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
 import io.airlift.bytecode.FieldDefinition;
-import io.airlift.bytecode.MethodGenerationContext;
 import io.airlift.bytecode.ParameterizedType;
 
 import javax.annotation.Nullable;
@@ -29,12 +27,13 @@ import java.util.List;
 import static com.google.common.base.Preconditions.checkArgument;
 import static io.airlift.bytecode.Access.STATIC;
 import static io.airlift.bytecode.ParameterizedType.type;
+import static io.airlift.bytecode.instruction.FieldInstruction.getFieldInstruction;
 import static io.airlift.bytecode.instruction.FieldInstruction.getStaticInstruction;
 import static java.lang.String.format;
 import static java.util.Objects.requireNonNull;
 
 class GetFieldBytecodeExpression
-        extends BytecodeExpression
+        extends EmittingBytecodeExpression
 {
     private final BytecodeExpression instance;
     private final ParameterizedType declaringClass;
@@ -79,15 +78,15 @@ class GetFieldBytecodeExpression
     }
 
     @Override
-    public BytecodeNode getBytecode(MethodGenerationContext generationContext)
+    protected void emit(Emitter emitter)
     {
         if (instance == null) {
-            return getStaticInstruction(declaringClass, name, getType());
+            emitter.append(getStaticInstruction(declaringClass, name, getType()));
+            return;
         }
 
-        return new BytecodeBlock()
-                .append(instance.getBytecode(generationContext))
-                .getField(declaringClass, name, getType());
+        emitter.append(instance)
+                .append(getFieldInstruction(declaringClass, name, getType()));
     }
 
     @Override
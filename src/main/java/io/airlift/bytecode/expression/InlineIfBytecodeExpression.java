@@ -14,18 +14,18 @@
 package io.airlift.bytecode.expression;
 
 import com.google.common.collect.ImmutableList;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
-import io.airlift.bytecode.MethodGenerationContext;
 import io.airlift.bytecode.instruction.LabelNode;
 
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.bytecode.OpCode.GOTO;
+import static io.airlift.bytecode.OpCode.IFEQ;
 import static java.util.Objects.requireNonNull;
 
 class InlineIfBytecodeExpression
-        extends BytecodeExpression
+        extends EmittingBytecodeExpression
 {
     private final BytecodeExpression condition;
     private final BytecodeExpression ifTrue;
@@ -43,15 +43,14 @@ class InlineIfBytecodeExpression
     }
 
     @Override
-    public BytecodeNode getBytecode(MethodGenerationContext generationContext)
+    protected void emit(Emitter emitter)
     {
         LabelNode falseLabel = new LabelNode("false");
         LabelNode endLabel = new LabelNode("end");
-        return new BytecodeBlock()
-                .append(condition)
-                .ifFalseGoto(falseLabel)
+        emitter.append(condition)
+                .jump(IFEQ, falseLabel)
                 .append(ifTrue)
-                .gotoLabel(endLabel)
+                .jump(GOTO, endLabel)
                 .visitLabel(falseLabel)
                 .append(ifFalse)
                 .visitLabel(endLabel);
@@ -14,17 +14,16 @@
 package io.airlift.bytecode.expression;
 
 import com.google.common.collect.ImmutableList;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
-import io.airlift.bytecode.MethodGenerationContext;
 
 import java.util.List;
 
 import static io.airlift.bytecode.ParameterizedType.type;
+import static io.airlift.bytecode.instruction.TypeInstruction.instanceOf;
 import static java.util.Objects.requireNonNull;
 
 class InstanceOfBytecodeExpression
-        extends BytecodeExpression
+        extends EmittingBytecodeExpression
 {
     private final BytecodeExpression instance;
     private final Class<?> type;
@@ -43,11 +42,10 @@ class InstanceOfBytecodeExpression
     }
 
     @Override
-    public BytecodeNode getBytecode(MethodGenerationContext generationContext)
+    protected void emit(Emitter emitter)
     {
-        return new BytecodeBlock()
-                .append(instance)
-                .isInstanceOf(type);
+        emitter.append(instance)
+                .append(instanceOf(type));
     }
 
     @Override
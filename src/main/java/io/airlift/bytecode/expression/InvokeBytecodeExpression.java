@@ -15,9 +15,7 @@ package io.airlift.bytecode.expression;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
-import io.airlift.bytecode.MethodGenerationContext;
 import io.airlift.bytecode.ParameterizedType;
 
 import javax.annotation.Nullable;
@@ -25,10 +23,13 @@ import javax.annotation.Nullable;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.bytecode.instruction.InvokeInstruction.invokeInterface;
+import static io.airlift.bytecode.instruction.InvokeInstruction.invokeStatic;
+import static io.airlift.bytecode.instruction.InvokeInstruction.invokeVirtual;
 import static java.util.Objects.requireNonNull;
 
 class InvokeBytecodeExpression
-        extends BytecodeExpression
+        extends EmittingBytecodeExpression
 {
     public static InvokeBytecodeExpression createInvoke(
             BytecodeExpression instance,
@@ -73,25 +74,24 @@ class InvokeBytecodeExpression
     }
 
     @Override
-    public BytecodeNode getBytecode(MethodGenerationContext generationContext)
+    protected void emit(Emitter emitter)
     {
-        BytecodeBlock block = new BytecodeBlock();
         if (instance != null) {
-            block.append(instance);
+            emitter.append(instance);
         }
 
         for (BytecodeExpression parameter : parameters) {
-            block.append(parameter);
+            emitter.append(parameter);
         }
 
         if (instance == null) {
-            return block.invokeStatic(methodTargetType, methodName, returnType, parameterTypes);
+            emitter.append(invokeStatic(methodTargetType, methodName, returnType, parameterTypes));
         }
         else if (instance.getType().isInterface()) {
-            return block.invokeInterface(methodTargetType, methodName, returnType, parameterTypes);
+            emitter.append(invokeInterface(methodTargetType, methodName, returnType, parameterTypes));
         }
         else {
-            return block.invokeVirtual(methodTargetType, methodName, returnType, parameterTypes);
+            emitter.append(invokeVirtual(methodTargetType, methodName, returnType, parameterTypes));
         }
     }
 
@@ -14,9 +14,7 @@
 package io.airlift.bytecode.expression;
 
 import com.google.common.collect.ImmutableList;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
-import io.airlift.bytecode.MethodGenerationContext;
 import io.airlift.bytecode.OpCode;
 
 import java.util.List;
@@ -26,7 +24,7 @@ import static io.airlift.bytecode.expression.ArithmeticBytecodeExpression.getNum
 import static java.util.Objects.requireNonNull;
 
 class NegateBytecodeExpression
-        extends BytecodeExpression
+        extends EmittingBytecodeExpression
 {
     private final BytecodeExpression value;
     private final OpCode negateOpCode;
@@ -47,10 +45,9 @@ class NegateBytecodeExpression
     }
 
     @Override
-    public BytecodeNode getBytecode(MethodGenerationContext generationContext)
+    protected void emit(Emitter emitter)
     {
-        return new BytecodeBlock()
-                .append(value)
+        emitter.append(value)
                 .append(negateOpCode);
     }
 
@@ -15,17 +15,18 @@ package io.airlift.bytecode.expression;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
-import io.airlift.bytecode.MethodGenerationContext;
 import io.airlift.bytecode.ParameterizedType;
 
 import java.util.List;
 
+import static io.airlift.bytecode.OpCode.DUP;
+import static io.airlift.bytecode.instruction.InvokeInstruction.invokeConstructor;
+import static io.airlift.bytecode.instruction.TypeInstruction.newObject;
 import static java.util.Objects.requireNonNull;
 
 class NewInstanceBytecodeExpression
-        extends BytecodeExpression
+        extends EmittingBytecodeExpression
 {
     private final List<BytecodeExpression> parameters;
     private final ImmutableList<ParameterizedType> parameterTypes;
@@ -41,16 +42,15 @@ class NewInstanceBytecodeExpression
     }
 
     @Override
-    public BytecodeNode getBytecode(MethodGenerationContext generationContext)
+    protected void emit(Emitter emitter)
     {
-        BytecodeBlock block = new BytecodeBlock()
-                .newObject(getType())
-                .dup();
+        emitter.append(newObject(getType()))
+                .append(DUP);
 
         for (BytecodeExpression parameter : parameters) {
-            block.append(parameter);
+            emitter.append(parameter);
         }
-        return block.invokeConstructor(getType(), parameterTypes);
+        emitter.append(invokeConstructor(getType(), parameterTypes));
     }
 
     @Override
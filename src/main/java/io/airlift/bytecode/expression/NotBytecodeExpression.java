@@ -14,18 +14,18 @@
 package io.airlift.bytecode.expression;
 
 import com.google.common.collect.ImmutableList;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
-import io.airlift.bytecode.MethodGenerationContext;
 import io.airlift.bytecode.instruction.LabelNode;
 
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.bytecode.OpCode.GOTO;
+import static io.airlift.bytecode.OpCode.IFNE;
 import static io.airlift.bytecode.ParameterizedType.type;
 
 class NotBytecodeExpression
-        extends BytecodeExpression
+        extends EmittingBytecodeExpression
 {
     private final BytecodeExpression value;
 
@@ -37,15 +37,14 @@ class NotBytecodeExpression
     }
 
     @Override
-    public BytecodeNode getBytecode(MethodGenerationContext generationContext)
+    protected void emit(Emitter emitter)
     {
         LabelNode trueLabel = new LabelNode("true");
         LabelNode endLabel = new LabelNode("end");
-        return new BytecodeBlock()
-                .append(value)
-                .ifTrueGoto(trueLabel)
+        emitter.append(value)
+                .jump(IFNE, trueLabel)
                 .push(true)
-                .gotoLabel(endLabel)
+                .jump(GOTO, endLabel)
                 .visitLabel(trueLabel)
                 .push(false)
                 .visitLabel(endLabel);
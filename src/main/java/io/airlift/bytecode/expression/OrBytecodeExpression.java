@@ -14,19 +14,19 @@
 package io.airlift.bytecode.expression;
 
 import com.google.common.collect.ImmutableList;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
-import io.airlift.bytecode.MethodGenerationContext;
 import io.airlift.bytecode.instruction.LabelNode;
 
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.bytecode.OpCode.GOTO;
+import static io.airlift.bytecode.OpCode.IFNE;
 import static io.airlift.bytecode.ParameterizedType.type;
 import static java.util.Objects.requireNonNull;
 
 class OrBytecodeExpression
-        extends BytecodeExpression
+        extends EmittingBytecodeExpression
 {
     private final BytecodeExpression left;
     private final BytecodeExpression right;
@@ -41,17 +41,16 @@ class OrBytecodeExpression
     }
 
     @Override
-    public BytecodeNode getBytecode(MethodGenerationContext generationContext)
+    protected void emit(Emitter emitter)
     {
         LabelNode trueLabel = new LabelNode("true");
         LabelNode endLabel = new LabelNode("end");
-        return new BytecodeBlock()
-                .append(left)
-                .ifTrueGoto(trueLabel)
+        emitter.append(left)
+                .jump(IFNE, trueLabel)
                 .append(right)
-                .ifTrueGoto(trueLabel)
+                .jump(IFNE, trueLabel)
                 .push(false)
-                .gotoLabel(endLabel)
+                .jump(GOTO, endLabel)
                 .visitLabel(trueLabel)
                 .push(true)
                 .visitLabel(endLabel);
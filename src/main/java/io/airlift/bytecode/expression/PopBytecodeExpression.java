@@ -14,17 +14,17 @@
 package io.airlift.bytecode.expression;
 
 import com.google.common.collect.ImmutableList;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
-import io.airlift.bytecode.MethodGenerationContext;
 
 import java.util.List;
 
+import static io.airlift.bytecode.OpCode.POP;
+import static io.airlift.bytecode.OpCode.POP2;
 import static io.airlift.bytecode.ParameterizedType.type;
 import static java.util.Objects.requireNonNull;
 
 class PopBytecodeExpression
-        extends BytecodeExpression
+        extends EmittingBytecodeExpression
 {
     private final BytecodeExpression instance;
 
@@ -35,11 +35,16 @@ class PopBytecodeExpression
     }
 
     @Override
-    public BytecodeNode getBytecode(MethodGenerationContext generationContext)
+    protected void emit(Emitter emitter)
     {
-        return new BytecodeBlock()
-                .append(instance.getBytecode(generationContext))
-                .pop(instance.getType());
+        emitter.append(instance);
+        Class<?> primitiveType = instance.getType().getPrimitiveType();
+        if (primitiveType == long.class || primitiveType == double.class) {
+            emitter.append(POP2);
+        }
+        else if (primitiveType != void.class) {
+            emitter.append(POP);
+        }
     }
 
     @Override
@@ -14,9 +14,7 @@
 package io.airlift.bytecode.expression;
 
 import com.google.common.collect.ImmutableList;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
-import io.airlift.bytecode.MethodGenerationContext;
 import io.airlift.bytecode.OpCode;
 import io.airlift.bytecode.ParameterizedType;
 
@@ -26,7 +24,7 @@ import static io.airlift.bytecode.ParameterizedType.type;
 import static java.util.Objects.requireNonNull;
 
 class ReturnBytecodeExpression
-        extends BytecodeExpression
+        extends EmittingBytecodeExpression
 {
     private final BytecodeExpression instance;
     private final OpCode returnOpCode;
@@ -39,10 +37,9 @@ class ReturnBytecodeExpression
     }
 
     @Override
-    public BytecodeNode getBytecode(MethodGenerationContext generationContext)
+    protected void emit(Emitter emitter)
     {
-        return new BytecodeBlock()
-                .append(instance.getBytecode(generationContext))
+        emitter.append(instance)
                 .append(returnOpCode);
     }
 
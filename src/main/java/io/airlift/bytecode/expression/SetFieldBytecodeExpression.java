@@ -14,10 +14,8 @@
 package io.airlift.bytecode.expression;
 
 import com.google.common.collect.ImmutableList;
-import io.airlift.bytecode.BytecodeBlock;
 import io.airlift.bytecode.BytecodeNode;
 import io.airlift.bytecode.FieldDefinition;
-import io.airlift.bytecode.MethodGenerationContext;
 import io.airlift.bytecode.ParameterizedType;
 
 import javax.annotation.Nullable;
@@ -29,11 +27,13 @@ import java.util.List;
 import static com.google.common.base.Preconditions.checkArgument;
 import static io.airlift.bytecode.Access.STATIC;
 import static io.airlift.bytecode.ParameterizedType.type;
+import static io.airlift.bytecode.instruction.FieldInstruction.putFieldInstruction;
+import static io.airlift.bytecode.instruction.FieldInstruction.putStaticInstruction;
 import static java.lang.String.format;
 import static java.util.Objects.requireNonNull;
 
 class SetFieldBytecodeExpression
-        extends BytecodeExpression
+        extends EmittingBytecodeExpression
 {
     private final BytecodeExpression instance;
     private final ParameterizedType declaringClass;
@@ -93,18 +93,17 @@ class SetFieldBytecodeExpression
     }
 
     @Override
-    public BytecodeNode getBytecode(MethodGenerationContext generationContext)
+    protected void emit(Emitter emitter)
     {
         if (instance == null) {
-            return new BytecodeBlock()
-                    .append(value.getBytecode(generationContext))
-                    .putStaticField(declaringClass, name, fieldType);
+            emitter.append(value)
+                    .append(putStaticInstruction(declaringClass, name, fieldType));
+            return;
         }
 
-        return new BytecodeBlock()
-                .append(instance.getBytecode(generationContext))
-                .append(value.getBytecode(generationContext))
-                .putField(declaringClass, name, fieldType);
+        emitter.append(instance)
+                .append(value)
+                .append(putFieldInstruction(declaringClass, name, fieldType));
     }
 
     @Override
@@ -0,0 +1,176 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import io.airlift.bytecode.control.SwitchStatement.SwitchBuilder;
+import io.airlift.bytecode.expression.BytecodeExpression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntBinaryOperator;
+
+import static io.airlift.bytecode.Access.FINAL;
+import static io.airlift.bytecode.Access.PUBLIC;
+import static io.airlift.bytecode.Access.STATIC;
+import static io.airlift.bytecode.Access.a;
+import static io.airlift.bytecode.BytecodeUtils.uniqueClassName;
+import static io.airlift.bytecode.ClassGenerator.classGenerator;
+import static io.airlift.bytecode.FastMethodHandleProxies.asInterfaceInstance;
+import static io.airlift.bytecode.HiddenClassGenerator.hiddenClassGenerator;
+import static io.airlift.bytecode.Parameter.arg;
+import static io.airlift.bytecode.ParameterizedType.type;
+import static io.airlift.bytecode.ParameterizedType.typeFromPathName;
+import static io.airlift.bytecode.control.SwitchStatement.switchBuilder;
+import static io.airlift.bytecode.expression.BytecodeExpressions.add;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantInt;
+import static io.airlift.bytecode.expression.BytecodeExpressions.multiply;
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Measures the throughput, in classes per second, of generating and defining
+ * classes for typical workloads. The allocation reported by the GC profiler
+ * per operation is the allocation per class. The main method runs the
+ * benchmark with an increasing number of threads to show how class generation
+ * scales.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(3)
+@Warmup(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.Throughput)
+public class BenchmarkClassGeneration
+{
+    private static final MethodHandle SUM;
+
+    static {
+        try {
+            SUM = MethodHandles.lookup().findStatic(Integer.class, "sum", methodType(int.class, int.class, int.class));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public enum Workload
+    {
+        WIDE_EXPRESSION, LARGE_SWITCH, MANY_METHODS
+    }
+
+    @State(Scope.Thread)
+    public static class WorkloadState
+    {
+        @Param({"WIDE_EXPRESSION", "LARGE_SWITCH", "MANY_METHODS"})
+        private Workload workload;
+    }
+
+    @Benchmark
+    public Class<?> generateClass(WorkloadState state)
+    {
+        ClassDefinition classDefinition = createClassDefinition(state.workload, uniqueClassName("io.airlift.bytecode", state.workload.name()));
+        return classGenerator(getClass().getClassLoader())
+                .defineClass(classDefinition, Object.class);
+    }
+
+    @Benchmark
+    public Class<?> generateHiddenClass(WorkloadState state)
+    {
+        // hidden classes are not registered in the class loader, so the name can be reused
+        ClassDefinition classDefinition = createClassDefinition(state.workload, typeFromPathName("io/airlift/bytecode/HiddenBenchmark"));
+        return hiddenClassGenerator(MethodHandles.lookup())
+                .defineHiddenClass(classDefinition, Object.class, Optional.empty());
+    }
+
+    @Benchmark
+    public IntBinaryOperator generateProxy()
+    {
+        return asInterfaceInstance(IntBinaryOperator.class, SUM);
+    }
+
+    static ClassDefinition createClassDefinition(Workload workload, ParameterizedType type)
+    {
+        ClassDefinition classDefinition = new ClassDefinition(a(PUBLIC, FINAL), type, type(Object.class));
+        switch (workload) {
+            case WIDE_EXPRESSION -> declareWideExpression(classDefinition, "compute");
+            case LARGE_SWITCH -> declareLargeSwitch(classDefinition);
+            case MANY_METHODS -> {
+                for (int i = 0; i < 100; i++) {
+                    declareWideExpression(classDefinition, "compute" + i);
+                }
+            }
+        }
+        return classDefinition;
+    }
+
+    private static void declareWideExpression(ClassDefinition classDefinition, String name)
+    {
+        Parameter value = arg("value", int.class);
+        MethodDefinition method = classDefinition.declareMethod(a(PUBLIC, STATIC), name, type(int.class), value);
+
+        BytecodeExpression expression = value;
+        for (int i = 0; i < 50; i++) {
+            expression = add(multiply(expression, constantInt(31)), constantInt(i));
+        }
+        method.getBody().append(expression.ret());
+    }
+
+    private static void declareLargeSwitch(ClassDefinition classDefinition)
+    {
+        Parameter value = arg("value", int.class);
+        MethodDefinition method = classDefinition.declareMethod(a(PUBLIC, STATIC), "select", type(int.class), value);
+
+        SwitchBuilder switchBuilder = switchBuilder().expression(value);
+        for (int i = 0; i < 1_000; i++) {
+            // sparse keys produce a lookup switch
+            switchBuilder.addCase(i * 7, constantInt(i).ret());
+        }
+        method.getBody()
+                .append(switchBuilder.defaultCase(constantInt(-1).ret()).build())
+                .append(constantInt(-1).ret());
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            Options options = new OptionsBuilder()
+                    .verbosity(VerboseMode.NORMAL)
+                    .include(".*" + BenchmarkClassGeneration.class.getSimpleName() + ".*")
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+}
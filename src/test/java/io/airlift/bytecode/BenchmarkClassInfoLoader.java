@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.bytecode.control.IfStatement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static io.airlift.bytecode.Access.FINAL;
+import static io.airlift.bytecode.Access.PUBLIC;
+import static io.airlift.bytecode.Access.STATIC;
+import static io.airlift.bytecode.Access.a;
+import static io.airlift.bytecode.ByteCodeGenerator.byteCodeGenerator;
+import static io.airlift.bytecode.ClassInfoLoader.createClassInfoLoader;
+import static io.airlift.bytecode.Parameter.arg;
+import static io.airlift.bytecode.ParameterizedType.type;
+import static io.airlift.bytecode.ParameterizedType.typeFromJavaClassName;
+import static io.airlift.bytecode.expression.BytecodeExpressions.newInstance;
+
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(3)
+@Warmup(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.AverageTime)
+public class BenchmarkClassInfoLoader
+{
+    private static final Class<?>[][] MERGED_TYPES = {
+            {ArrayList.class, LinkedList.class},
+            {HashMap.class, TreeMap.class},
+            {ConcurrentHashMap.class, HashMap.class},
+            {CopyOnWriteArrayList.class, ArrayList.class},
+            {ArrayDeque.class, LinkedList.class},
+            {StringBuilder.class, StringBuffer.class},
+    };
+
+    @Param({"true", "false"})
+    private boolean loadMethodNodes;
+
+    private final ByteCodeGenerator byteCodeGenerator = byteCodeGenerator();
+
+    @Benchmark
+    public byte[] generateByteCode()
+    {
+        // labels in a class definition are bound to the class writer, so the definition can not be reused
+        ClassDefinition classDefinition = createClassDefinition();
+        ClassInfoLoader classInfoLoader = createClassInfoLoader(
+                ImmutableList.of(classDefinition),
+                getClass().getClassLoader(),
+                Optional.empty(),
+                loadMethodNodes);
+        return byteCodeGenerator.generateByteCode(classInfoLoader, classDefinition);
+    }
+
+    private static ClassDefinition createClassDefinition()
+    {
+        ClassDefinition classDefinition = new ClassDefinition(
+                a(PUBLIC, FINAL),
+                typeFromJavaClassName("io.airlift.bytecode.$gen.MergedTypes"),
+                type(Object.class));
+
+        Parameter flag = arg("flag", boolean.class);
+        MethodDefinition method = classDefinition.declareMethod(a(PUBLIC, STATIC), "merge", type(Object.class), flag);
+
+        // each if statement merges two unrelated types which requires the common super class
+        Variable value = method.getScope().declareVariable(Object.class, "value");
+        for (Class<?>[] types : MERGED_TYPES) {
+            method.getBody().append(new IfStatement()
+                    .condition(flag)
+                    .ifTrue(value.set(newInstance(types[0])))
+                    .ifFalse(value.set(newInstance(types[1]))));
+        }
+        method.getBody().append(value.ret());
+        return classDefinition;
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkClassInfoLoader.class.getSimpleName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleProxies;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+
+import static com.google.common.base.Throwables.throwIfUnchecked;
+import static com.google.common.collect.MoreCollectors.onlyElement;
+import static java.lang.invoke.MethodHandles.lookup;
+import static java.lang.invoke.MethodType.methodType;
+import static java.util.Arrays.stream;
+
+/**
+ * Compares the proxies of {@link FastMethodHandleProxies} with the alternatives
+ * in the JDK and with hand-written implementations. The invocation benchmarks
+ * cover a primitive signature, a wide signature, a call site that sees four
+ * different targets, and a target that throws a checked exception, which the
+ * proxies wrap in an {@link UndeclaredThrowableException}. The creation
+ * benchmark reports the metaspace retained by each proxy alongside the
+ * allocation rate reported by the GC profiler.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(3)
+@Warmup(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.AverageTime)
+public class BenchmarkFastMethodHandleProxies
+{
+    private static final MethodHandle INCREMENT = findStatic("increment", methodType(long.class, long.class));
+    private static final MethodHandle DECREMENT = findStatic("decrement", methodType(long.class, long.class));
+    private static final MethodHandle DOUBLE = findStatic("doubled", methodType(long.class, long.class));
+    private static final MethodHandle NEGATE = findStatic("negate", methodType(long.class, long.class));
+    private static final MethodHandle SUM = findStatic("sum", methodType(long.class, long.class, long.class, long.class, long.class, long.class, long.class, long.class, long.class));
+    private static final MethodHandle FAIL = findStatic("fail", methodType(void.class));
+
+    // the stack trace is not filled in, so the benchmark measures the exception path of the proxy
+    private static final BenchmarkException EXCEPTION = new BenchmarkException();
+
+    public enum Implementation
+    {
+        HAND_WRITTEN,
+        FAST_METHOD_HANDLE_PROXIES,
+        FAST_METHOD_HANDLE_PROXIES_LOOKUP,
+        METHOD_HANDLE_PROXIES,
+        LAMBDA_METAFACTORY,
+        REFLECT_PROXY
+    }
+
+    public interface WideArity
+    {
+        long apply(long a0, long a1, long a2, long a3, long a4, long a5, long a6, long a7);
+    }
+
+    @Param({"HAND_WRITTEN", "FAST_METHOD_HANDLE_PROXIES", "FAST_METHOD_HANDLE_PROXIES_LOOKUP", "METHOD_HANDLE_PROXIES", "LAMBDA_METAFACTORY", "REFLECT_PROXY"})
+    private Implementation implementation;
+
+    private LongUnaryOperator primitive;
+    private LongUnaryOperator[] megamorphic;
+    private WideArity wideArity;
+    private Runnable checkedException;
+    private long value = 42;
+
+    @Setup
+    public void setup()
+    {
+        primitive = create(implementation, LongUnaryOperator.class, INCREMENT);
+        megamorphic = new LongUnaryOperator[] {
+                create(implementation, LongUnaryOperator.class, INCREMENT),
+                create(implementation, LongUnaryOperator.class, DECREMENT),
+                create(implementation, LongUnaryOperator.class, DOUBLE),
+                create(implementation, LongUnaryOperator.class, NEGATE)};
+        wideArity = create(implementation, WideArity.class, SUM);
+        checkedException = create(implementation, Runnable.class, FAIL);
+    }
+
+    @Benchmark
+    public long primitive()
+    {
+        return primitive.applyAsLong(value);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(4)
+    public long megamorphic()
+    {
+        long result = value;
+        for (LongUnaryOperator operator : megamorphic) {
+            result = operator.applyAsLong(result);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public long wideArity()
+    {
+        long value = this.value;
+        return wideArity.apply(value, value + 1, value + 2, value + 3, value + 4, value + 5, value + 6, value + 7);
+    }
+
+    @Benchmark
+    public Throwable checkedException()
+    {
+        try {
+            checkedException.run();
+            throw new AssertionError("expected exception");
+        }
+        catch (UndeclaredThrowableException e) {
+            return e.getCause();
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            // lambdas rethrow the checked exception of the target without wrapping it
+            return e;
+        }
+    }
+
+    @Benchmark
+    public LongUnaryOperator createProxy(MetaspaceCounters counters)
+    {
+        counters.instances++;
+        return create(implementation, LongUnaryOperator.class, INCREMENT);
+    }
+
+    /**
+     * Reports the metaspace retained per proxy created in the iteration, which
+     * includes the classes defined for the proxies that have not been unloaded.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class MetaspaceCounters
+    {
+        private long instances;
+        private long initialMetaspaceBytes;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            instances = 0;
+            initialMetaspaceBytes = getMetaspaceBytes();
+        }
+
+        public long metaspaceBytesPerProxy()
+        {
+            return instances == 0 ? 0 : (getMetaspaceBytes() - initialMetaspaceBytes) / instances;
+        }
+
+        private static long getMetaspaceBytes()
+        {
+            return ManagementFactory.getMemoryPoolMXBeans().stream()
+                    .filter(pool -> pool.getName().equals("Metaspace"))
+                    .mapToLong(pool -> pool.getUsage().getUsed())
+                    .sum();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T create(Implementation implementation, Class<T> type, MethodHandle target)
+    {
+        return switch (implementation) {
+            case HAND_WRITTEN -> (T) createHandWritten(target);
+            case FAST_METHOD_HANDLE_PROXIES -> FastMethodHandleProxies.asInterfaceInstance(type, target);
+            case FAST_METHOD_HANDLE_PROXIES_LOOKUP -> FastMethodHandleProxies.asInterfaceInstance(lookup(), type, target);
+            case METHOD_HANDLE_PROXIES -> MethodHandleProxies.asInterfaceInstance(type, target);
+            case LAMBDA_METAFACTORY -> createLambda(type, target);
+            case REFLECT_PROXY -> createReflectProxy(type, target);
+        };
+    }
+
+    private static Object createHandWritten(MethodHandle target)
+    {
+        if (target == INCREMENT) {
+            return new LongUnaryOperator()
+            {
+                @Override
+                public long applyAsLong(long value)
+                {
+                    return increment(value);
+                }
+            };
+        }
+        if (target == DECREMENT) {
+            return new LongUnaryOperator()
+            {
+                @Override
+                public long applyAsLong(long value)
+                {
+                    return decrement(value);
+                }
+            };
+        }
+        if (target == DOUBLE) {
+            return new LongUnaryOperator()
+            {
+                @Override
+                public long applyAsLong(long value)
+                {
+                    return doubled(value);
+                }
+            };
+        }
+        if (target == NEGATE) {
+            return new LongUnaryOperator()
+            {
+                @Override
+                public long applyAsLong(long value)
+                {
+                    return negate(value);
+                }
+            };
+        }
+        if (target == SUM) {
+            return new WideArity()
+            {
+                @Override
+                public long apply(long a0, long a1, long a2, long a3, long a4, long a5, long a6, long a7)
+                {
+                    return sum(a0, a1, a2, a3, a4, a5, a6, a7);
+                }
+            };
+        }
+        if (target == FAIL) {
+            return new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        fail();
+                    }
+                    catch (BenchmarkException e) {
+                        throw new UndeclaredThrowableException(e);
+                    }
+                }
+            };
+        }
+        throw new IllegalArgumentException("no hand-written implementation: " + target);
+    }
+
+    private static <T> T createLambda(Class<T> type, MethodHandle target)
+    {
+        MethodType methodType = getSingleAbstractMethodType(type);
+        try {
+            MethodHandle factory = LambdaMetafactory.metafactory(lookup(), getSingleAbstractMethod(type).getName(), methodType(type), methodType, target, methodType)
+                    .getTarget();
+            return type.cast(factory.invoke());
+        }
+        catch (Throwable e) {
+            throwIfUnchecked(e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static <T> T createReflectProxy(Class<T> type, MethodHandle target)
+    {
+        MethodType methodType = getSingleAbstractMethodType(type);
+        MethodHandle spreader = target.asSpreader(Object[].class, methodType.parameterCount())
+                .asType(methodType(Object.class, Object[].class));
+        return type.cast(Proxy.newProxyInstance(
+                type.getClassLoader() == null ? BenchmarkFastMethodHandleProxies.class.getClassLoader() : type.getClassLoader(),
+                new Class<?>[] {type},
+                (proxy, method, arguments) -> spreader.invokeExact(arguments == null ? new Object[0] : arguments)));
+    }
+
+    private static MethodType getSingleAbstractMethodType(Class<?> type)
+    {
+        Method method = getSingleAbstractMethod(type);
+        return methodType(method.getReturnType(), method.getParameterTypes());
+    }
+
+    private static Method getSingleAbstractMethod(Class<?> type)
+    {
+        return stream(type.getMethods())
+                .filter(method -> Modifier.isAbstract(method.getModifiers()))
+                .collect(onlyElement());
+    }
+
+    private static MethodHandle findStatic(String name, MethodType type)
+    {
+        try {
+            return lookup().findStatic(BenchmarkFastMethodHandleProxies.class, name, type);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public static long increment(long value)
+    {
+        return value + 1;
+    }
+
+    public static long decrement(long value)
+    {
+        return value - 1;
+    }
+
+    public static long doubled(long value)
+    {
+        return value * 2;
+    }
+
+    public static long negate(long value)
+    {
+        return -value;
+    }
+
+    public static long sum(long a0, long a1, long a2, long a3, long a4, long a5, long a6, long a7)
+    {
+        return a0 + a1 + a2 + a3 + a4 + a5 + a6 + a7;
+    }
+
+    public static void fail()
+            throws BenchmarkException
+    {
+        throw EXCEPTION;
+    }
+
+    public static class BenchmarkException
+            extends Exception
+    {
+        public BenchmarkException()
+        {
+            super("benchmark", null, false, false);
+        }
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkFastMethodHandleProxies.class.getSimpleName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.bytecode.control.ForLoop;
+import io.airlift.bytecode.control.IfStatement;
+import io.airlift.bytecode.control.TryCatch;
+import io.airlift.bytecode.control.TryCatch.CatchBlock;
+import io.airlift.bytecode.control.WhileLoop;
+import io.airlift.bytecode.expression.BytecodeExpression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static io.airlift.bytecode.Access.FINAL;
+import static io.airlift.bytecode.Access.PUBLIC;
+import static io.airlift.bytecode.Access.STATIC;
+import static io.airlift.bytecode.Access.a;
+import static io.airlift.bytecode.ByteCodeGenerator.byteCodeGenerator;
+import static io.airlift.bytecode.ClassInfoLoader.createClassInfoLoader;
+import static io.airlift.bytecode.Parameter.arg;
+import static io.airlift.bytecode.ParameterizedType.type;
+import static io.airlift.bytecode.ParameterizedType.typeFromJavaClassName;
+import static io.airlift.bytecode.expression.BytecodeExpressions.add;
+import static io.airlift.bytecode.expression.BytecodeExpressions.and;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantInt;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantLong;
+import static io.airlift.bytecode.expression.BytecodeExpressions.greaterThan;
+import static io.airlift.bytecode.expression.BytecodeExpressions.inlineIf;
+import static io.airlift.bytecode.expression.BytecodeExpressions.invokeStatic;
+import static io.airlift.bytecode.expression.BytecodeExpressions.lessThan;
+import static io.airlift.bytecode.expression.BytecodeExpressions.multiply;
+import static io.airlift.bytecode.expression.BytecodeExpressions.not;
+
+/**
+ * Measures the cost, including the allocation rate reported by the GC profiler,
+ * of emitting a method with deeply nested control flow and expressions.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(3)
+@Warmup(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.AverageTime)
+public class BenchmarkMethodEmission
+{
+    @Param({"1", "4"})
+    private int depth;
+
+    private final ByteCodeGenerator byteCodeGenerator = byteCodeGenerator();
+
+    @Benchmark
+    public byte[] generateByteCode()
+    {
+        // labels in a class definition are bound to the class writer, so the definition can not be reused
+        ClassDefinition classDefinition = createClassDefinition(depth);
+        ClassInfoLoader classInfoLoader = createClassInfoLoader(
+                ImmutableList.of(classDefinition),
+                getClass().getClassLoader(),
+                Optional.empty(),
+                false);
+        return byteCodeGenerator.generateByteCode(classInfoLoader, classDefinition);
+    }
+
+    static ClassDefinition createClassDefinition(int depth)
+    {
+        ClassDefinition classDefinition = new ClassDefinition(
+                a(PUBLIC, FINAL),
+                typeFromJavaClassName("io.airlift.bytecode.$gen.NestedControlFlow"),
+                type(Object.class));
+
+        Parameter count = arg("count", int.class);
+        MethodDefinition method = classDefinition.declareMethod(a(PUBLIC, STATIC), "compute", type(long.class), count);
+        Variable total = method.getScope().declareVariable(long.class, "total");
+
+        BytecodeNode body = total.set(add(total, constantLong(1)));
+        for (int level = 0; level < depth; level++) {
+            body = createLevel(method, count, total, body, level);
+        }
+
+        method.getBody()
+                .append(total.set(constantLong(0)))
+                .append(body)
+                .append(total.ret());
+        return classDefinition;
+    }
+
+    private static BytecodeNode createLevel(MethodDefinition method, Parameter count, Variable total, BytecodeNode inner, int level)
+    {
+        Variable i = method.getScope().declareVariable(int.class, "i" + level);
+        Variable j = method.getScope().declareVariable(int.class, "j" + level);
+        BytecodeExpression scaled = multiply(total, inlineIf(greaterThan(i, constantInt(2)), constantLong(3), constantLong(5)));
+
+        return new ForLoop()
+                .initialize(i.set(constantInt(0)))
+                .condition(lessThan(i, count))
+                .update(i.increment())
+                .body(new BytecodeBlock()
+                        .append(j.set(constantInt(0)))
+                        .append(new WhileLoop()
+                                .condition(and(lessThan(j, i), not(greaterThan(j, constantInt(10)))))
+                                .body(new BytecodeBlock()
+                                        .append(j.increment())
+                                        .append(new IfStatement()
+                                                .condition(lessThan(total, constantLong(1_000)))
+                                                .ifTrue(inner)
+                                                .ifFalse(total.set(scaled)))))
+                        .append(new TryCatch(
+                                total.set(invokeStatic(Math.class, "addExact", long.class, total, constantLong(1))),
+                                ImmutableList.of(new CatchBlock(
+                                        new BytecodeBlock().pop(),
+                                        ImmutableList.of(type(ArithmeticException.class)))))));
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkMethodEmission.class.getSimpleName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import io.airlift.bytecode.instruction.LabelNode;
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+
+import static io.airlift.bytecode.Access.FINAL;
+import static io.airlift.bytecode.Access.PUBLIC;
+import static io.airlift.bytecode.Access.STATIC;
+import static io.airlift.bytecode.Access.a;
+import static io.airlift.bytecode.BytecodeUtils.uniqueClassName;
+import static io.airlift.bytecode.ClassGenerator.classGenerator;
+import static io.airlift.bytecode.HiddenClassGenerator.hiddenClassGenerator;
+import static io.airlift.bytecode.Parameter.arg;
+import static io.airlift.bytecode.ParameterizedType.type;
+import static io.airlift.bytecode.ParameterizedType.typeFromPathName;
+import static io.airlift.bytecode.expression.BytecodeExpressions.add;
+import static java.lang.invoke.MethodHandles.lookup;
+import static java.lang.invoke.MethodType.methodType;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TestClassDataBinder
+{
+    private static final int[] TABLE = {10, 20, 30};
+
+    @Test
+    void testClassGenerator()
+            throws Exception
+    {
+        ClassDataBinder binder = new ClassDataBinder();
+        ClassDefinition classDefinition = createClassDefinition(uniqueClassName("test", "Bound"), binder);
+        Class<?> clazz = classGenerator(getClass().getClassLoader()).defineClass(classDefinition, Object.class, binder);
+        assertCompute(clazz.getMethod("compute", int.class));
+    }
+
+    @Test
+    void testRetryClassGenerator()
+            throws Exception
+    {
+        ParameterizedType type = uniqueClassName("test", "Bound");
+        ClassGenerator classGenerator = classGenerator(getClass().getClassLoader());
+
+        // the class data of a class that fails to generate is not kept
+        ClassDataBinder invalidBinder = new ClassDataBinder();
+        ClassDefinition invalidClassDefinition = new ClassDefinition(a(PUBLIC, FINAL), type, type(Object.class));
+        invalidClassDefinition.declareMethod(a(PUBLIC, STATIC), "compute", type(int.class), arg("index", int.class))
+                .getBody()
+                .append(invalidBinder.bind(TABLE, int[].class).length())
+                .gotoLabel(new LabelNode("missing"));
+        assertThatThrownBy(() -> classGenerator.defineClass(invalidClassDefinition, Object.class, invalidBinder))
+                .isInstanceOf(RuntimeException.class);
+
+        ClassDataBinder binder = new ClassDataBinder();
+        Class<?> clazz = classGenerator.defineClass(createClassDefinition(type, binder), Object.class, binder);
+        assertCompute(clazz.getMethod("compute", int.class));
+    }
+
+    @Test
+    void testHiddenClassGenerator()
+            throws Exception
+    {
+        ClassDataBinder binder = new ClassDataBinder();
+        ClassDefinition classDefinition = createClassDefinition(typeFromPathName("io/airlift/bytecode/HiddenBound"), binder);
+        Class<?> clazz = hiddenClassGenerator(lookup()).defineHiddenClass(classDefinition, Object.class, binder);
+        assertCompute(clazz.getMethod("compute", int.class));
+    }
+
+    @Test
+    void testSameObjectBoundOnce()
+    {
+        ClassDataBinder binder = new ClassDataBinder();
+        binder.bind(TABLE, int[].class);
+        binder.bind(TABLE, int[].class);
+        binder.bind(new int[] {1}, int[].class);
+        assertThat(binder.getClassData()).hasSize(2);
+    }
+
+    private static void assertCompute(Method compute)
+            throws Exception
+    {
+        for (int i = 0; i < TABLE.length; i++) {
+            assertThat(compute.invoke(null, i)).isEqualTo(TABLE[i] + i * 2 + 42);
+        }
+    }
+
+    private static ClassDefinition createClassDefinition(ParameterizedType type, ClassDataBinder binder)
+            throws ReflectiveOperationException
+    {
+        MethodHandle twice = lookup().findStatic(TestClassDataBinder.class, "twice", methodType(int.class, int.class));
+
+        ClassDefinition classDefinition = new ClassDefinition(a(PUBLIC, FINAL), type, type(Object.class));
+        Parameter index = arg("index", int.class);
+        classDefinition.declareMethod(a(PUBLIC, STATIC), "compute", type(int.class), index)
+                .getBody()
+                .append(add(
+                        add(binder.bind(TABLE, int[].class).getElement(index), binder.bind(twice).invoke("invokeExact", int.class, index)),
+                        binder.bind(42, int.class)))
+                .retInt();
+        return classDefinition;
+    }
+
+    private static int twice(int value)
+    {
+        return value * 2;
+    }
+}
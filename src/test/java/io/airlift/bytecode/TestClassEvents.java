@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.collect.ImmutableList;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static com.google.common.io.MoreFiles.deleteRecursively;
+import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
+import static io.airlift.bytecode.ClassGenerator.classGenerator;
+import static io.airlift.bytecode.HiddenClassGenerator.hiddenClassGenerator;
+import static io.airlift.bytecode.ParameterizedType.typeFromPathName;
+import static io.airlift.bytecode.TestingClassDefinitions.createGreeter;
+import static java.lang.invoke.MethodHandles.lookup;
+import static java.nio.file.Files.createTempDirectory;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestClassEvents
+{
+    @Test
+    void testEvents()
+            throws Exception
+    {
+        Path tempDir = createTempDirectory("jfr");
+        try {
+            ClassDefinition greeter = createGreeter("hello");
+            GeneratedClassCache cache = new GeneratedClassCache();
+            Path recordingFile = tempDir.resolve("recording.jfr");
+            try (Recording recording = new Recording()) {
+                recording.enable(ClassGenerationEvent.class);
+                recording.enable(HiddenClassDefinitionEvent.class);
+                recording.enable(FindClassEvent.class);
+                recording.enable(ClassCacheEvent.class);
+                recording.start();
+
+                classGenerator(getClass().getClassLoader())
+                        .generatedClassCache(cache)
+                        .defineClasses(ImmutableList.of(greeter));
+                hiddenClassGenerator(lookup())
+                        .defineHiddenClass(createGreeter(typeFromPathName("io/airlift/bytecode/EventGreeter"), "hello"), Object.class, Optional.empty());
+
+                recording.stop();
+                recording.dump(recordingFile);
+            }
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+
+            RecordedEvent generation = getOnlyEvent(events, "io.airlift.bytecode.ClassGeneration");
+            assertThat(generation.getString("className")).isEqualTo(greeter.getType().getJavaClassName());
+            assertThat(generation.getInt("classCount")).isEqualTo(1);
+            assertThat(generation.getLong("byteSize")).isGreaterThan(0L);
+
+            RecordedEvent cacheLookup = getOnlyEvent(events, "io.airlift.bytecode.ClassCache");
+            assertThat(cacheLookup.getString("cache")).isEqualTo("GeneratedClassCache");
+            assertThat(cacheLookup.getBoolean("hit")).isFalse();
+
+            assertThat(events.stream()
+                    .filter(event -> event.getEventType().getName().equals("io.airlift.bytecode.FindClass"))
+                    .filter(event -> event.getBoolean("defined"))
+                    .map(event -> event.getString("className"))
+                    .toList())
+                    .containsExactly(greeter.getType().getJavaClassName());
+
+            RecordedEvent hiddenClass = getOnlyEvent(events, "io.airlift.bytecode.HiddenClassDefinition");
+            assertThat(hiddenClass.getString("className")).startsWith("io.airlift.bytecode.EventGreeter");
+            assertThat(hiddenClass.getLong("byteSize")).isGreaterThan(0L);
+        }
+        finally {
+            deleteRecursively(tempDir, ALLOW_INSECURE);
+        }
+    }
+
+    private static RecordedEvent getOnlyEvent(List<RecordedEvent> events, String name)
+    {
+        List<RecordedEvent> matching = events.stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .toList();
+        assertThat(matching).hasSize(1);
+        return matching.get(0);
+    }
+}
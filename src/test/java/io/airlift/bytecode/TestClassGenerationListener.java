@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static io.airlift.bytecode.ClassGenerator.classGenerator;
+import static io.airlift.bytecode.HiddenClassGenerator.hiddenClassGenerator;
+import static io.airlift.bytecode.ParameterizedType.typeFromPathName;
+import static io.airlift.bytecode.TestingClassDefinitions.createGreeter;
+import static java.lang.invoke.MethodHandles.lookup;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestClassGenerationListener
+{
+    @Test
+    void testClassGenerator()
+    {
+        List<ClassGenerationStats> stats = new ArrayList<>();
+        ClassGenerationHistograms histograms = new ClassGenerationHistograms();
+        ClassDefinition first = createGreeter("hello");
+        ClassDefinition second = createGreeter("hello");
+
+        classGenerator(getClass().getClassLoader())
+                .listener(stats::add)
+                .defineClasses(ImmutableList.of(first, second));
+        classGenerator(getClass().getClassLoader())
+                .listener(histograms)
+                .defineClass(createGreeter("hello"), Object.class);
+
+        assertThat(stats.stream().map(ClassGenerationStats::getClassName).toList())
+                .containsExactly(first.getType().getJavaClassName(), second.getType().getJavaClassName());
+        for (ClassGenerationStats classStats : stats) {
+            // the class initializer and the greet method
+            assertThat(classStats.getMethodCount()).isEqualTo(2);
+            assertThat(classStats.getBytecodeSize()).isGreaterThan(0);
+            assertThat(classStats.getConstantPoolSize()).isGreaterThan(0);
+            assertThat(classStats.getVisitNanos()).isGreaterThan(0L);
+            assertThat(classStats.getDefineNanos()).isGreaterThan(0L);
+        }
+
+        assertThat(histograms.getBytecodeSize().getCount()).isEqualTo(1L);
+        assertThat(histograms.getMethodCount().getSum()).isEqualTo(2L);
+        assertThat(histograms.getToByteArrayNanos().getMax()).isGreaterThan(0L);
+    }
+
+    @Test
+    void testHiddenClassGenerator()
+    {
+        List<ClassGenerationStats> stats = new ArrayList<>();
+        Class<?> clazz = hiddenClassGenerator(lookup())
+                .listener(stats::add)
+                .defineHiddenClass(createGreeter(typeFromPathName("io/airlift/bytecode/Greeter"), "hello"), Object.class, Optional.empty());
+
+        assertThat(stats).hasSize(1);
+        assertThat(stats.get(0).getClassName()).isEqualTo(clazz.getName());
+        assertThat(stats.get(0).getMethodCount()).isEqualTo(2);
+        assertThat(stats.get(0).getInitializeNanos()).isEqualTo(0L);
+    }
+
+    @Test
+    void testHistogram()
+    {
+        Histogram histogram = new Histogram();
+        assertThat(histogram.getQuantile(0.5)).isEqualTo(0L);
+
+        for (int value = 1; value <= 100; value++) {
+            histogram.add(value);
+        }
+        assertThat(histogram.getCount()).isEqualTo(100L);
+        assertThat(histogram.getSum()).isEqualTo(5050L);
+        assertThat(histogram.getMax()).isEqualTo(100L);
+        // the median is in the bucket of values from 32 to 63
+        assertThat(histogram.getQuantile(0.5)).isEqualTo(63L);
+        assertThat(histogram.getQuantile(1)).isEqualTo(100L);
+    }
+}
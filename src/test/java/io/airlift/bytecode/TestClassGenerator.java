@@ -14,11 +14,17 @@
 package io.airlift.bytecode;
 
 import com.google.common.collect.ImmutableList;
+import io.airlift.bytecode.control.IfStatement;
 import org.junit.jupiter.api.Test;
 
 import java.io.StringWriter;
 import java.lang.reflect.Method;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import static com.google.common.io.MoreFiles.deleteRecursively;
 import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
@@ -26,10 +32,12 @@ import static io.airlift.bytecode.Access.FINAL;
 import static io.airlift.bytecode.Access.PUBLIC;
 import static io.airlift.bytecode.Access.STATIC;
 import static io.airlift.bytecode.Access.a;
+import static io.airlift.bytecode.BytecodeUtils.uniqueClassName;
 import static io.airlift.bytecode.ClassGenerator.classGenerator;
 import static io.airlift.bytecode.Parameter.arg;
 import static io.airlift.bytecode.ParameterizedType.type;
 import static io.airlift.bytecode.expression.BytecodeExpressions.add;
+import static io.airlift.bytecode.expression.BytecodeExpressions.newInstance;
 import static java.nio.file.Files.createTempDirectory;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -85,4 +93,43 @@ class TestClassGenerator
             deleteRecursively(tempDir, ALLOW_INSECURE);
         }
     }
+
+    @Test
+    void testDefineClassesInParallel()
+            throws Exception
+    {
+        List<ClassDefinition> classDefinitions = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            ClassDefinition classDefinition = new ClassDefinition(a(PUBLIC, FINAL), uniqueClassName("test", "ListFactory"), type(Object.class));
+
+            // merging the two branches requires the class hierarchy, which is loaded concurrently
+            Parameter flag = arg("flag", boolean.class);
+            MethodDefinition method = classDefinition.declareMethod(a(PUBLIC, STATIC), "create", type(List.class), flag);
+            Variable list = method.getScope().declareVariable(List.class, "list");
+            method.getBody()
+                    .append(new IfStatement()
+                            .condition(flag)
+                            .ifTrue(list.set(newInstance(ArrayList.class)))
+                            .ifFalse(list.set(newInstance(LinkedList.class))))
+                    .append(list.ret());
+            classDefinitions.add(classDefinition);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Map<String, Class<?>> classes = classGenerator(getClass().getClassLoader())
+                    .executor(pool)
+                    .defineClasses(classDefinitions);
+
+            assertThat(classes).hasSize(classDefinitions.size());
+            for (Class<?> clazz : classes.values()) {
+                Method create = clazz.getMethod("create", boolean.class);
+                assertThat(create.invoke(null, true)).isInstanceOf(ArrayList.class);
+                assertThat(create.invoke(null, false)).isInstanceOf(LinkedList.class);
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
 }
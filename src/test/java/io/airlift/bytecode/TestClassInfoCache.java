@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import io.airlift.bytecode.control.IfStatement;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Optional;
+
+import static io.airlift.bytecode.Access.FINAL;
+import static io.airlift.bytecode.Access.PUBLIC;
+import static io.airlift.bytecode.Access.STATIC;
+import static io.airlift.bytecode.Access.a;
+import static io.airlift.bytecode.BytecodeUtils.uniqueClassName;
+import static io.airlift.bytecode.ClassGenerator.classGenerator;
+import static io.airlift.bytecode.HiddenClassGenerator.hiddenClassGenerator;
+import static io.airlift.bytecode.Parameter.arg;
+import static io.airlift.bytecode.ParameterizedType.type;
+import static io.airlift.bytecode.expression.BytecodeExpressions.newInstance;
+import static java.lang.invoke.MethodHandles.lookup;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestClassInfoCache
+{
+    @Test
+    void testSharedAcrossGenerators()
+            throws Exception
+    {
+        ClassInfoCache classInfoCache = new ClassInfoCache();
+
+        Class<?> first = classGenerator(getClass().getClassLoader())
+                .classInfoCache(classInfoCache)
+                .defineClass(createListFactory(uniqueClassName("test", "ListFactory")), Object.class);
+        assertListFactory(first);
+
+        long misses = classInfoCache.getMissCount();
+        assertThat(misses).isGreaterThan(0);
+
+        Class<?> second = classGenerator(getClass().getClassLoader())
+                .classInfoCache(classInfoCache)
+                .defineClass(createListFactory(uniqueClassName("test", "ListFactory")), Object.class);
+        assertListFactory(second);
+
+        // the hierarchy of the JDK classes was already loaded by the first generator
+        assertThat(classInfoCache.getMissCount()).isEqualTo(misses);
+        assertThat(classInfoCache.getHitCount()).isGreaterThan(0);
+    }
+
+    @Test
+    void testHiddenClassGenerator()
+            throws Exception
+    {
+        ClassInfoCache classInfoCache = new ClassInfoCache();
+
+        for (int i = 0; i < 2; i++) {
+            Class<?> clazz = hiddenClassGenerator(lookup())
+                    .classInfoCache(classInfoCache)
+                    .defineHiddenClass(createListFactory(uniqueClassName(lookup(), "ListFactory")), Object.class, Optional.empty());
+            assertListFactory(clazz);
+        }
+        assertThat(classInfoCache.getHitCount()).isGreaterThan(0);
+    }
+
+    @Test
+    void testEviction()
+    {
+        ClassInfoCache classInfoCache = new ClassInfoCache(1);
+
+        classGenerator(getClass().getClassLoader())
+                .classInfoCache(classInfoCache)
+                .defineClass(createListFactory(uniqueClassName("test", "ListFactory")), Object.class);
+
+        assertThat(classInfoCache.size()).isEqualTo(1L);
+        assertThat(classInfoCache.getEvictionCount()).isGreaterThan(0);
+    }
+
+    @Test
+    void testCollectedClassLoader()
+            throws InterruptedException
+    {
+        ClassInfoCache classInfoCache = new ClassInfoCache();
+
+        URLClassLoader classLoader = new URLClassLoader(new URL[0], getClass().getClassLoader());
+        classInfoCache.loadClassInfo(classLoader, type(TestClassInfoCache.class), false);
+        assertThat(classInfoCache.size()).isGreaterThan(0L);
+
+        classLoader = null;
+        for (int i = 0; i < 100 && classInfoCache.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(classInfoCache.size()).isEqualTo(0L);
+    }
+
+    private static ClassDefinition createListFactory(ParameterizedType type)
+    {
+        ClassDefinition classDefinition = new ClassDefinition(a(PUBLIC, FINAL), type, type(Object.class));
+
+        Parameter flag = arg("flag", boolean.class);
+        MethodDefinition method = classDefinition.declareMethod(a(PUBLIC, STATIC), "create", type(List.class), flag);
+
+        // merging the two branches requires the common super class of ArrayList and LinkedList
+        Variable list = method.getScope().declareVariable(List.class, "list");
+        method.getBody()
+                .append(new IfStatement()
+                        .condition(flag)
+                        .ifTrue(list.set(newInstance(ArrayList.class)))
+                        .ifFalse(list.set(newInstance(LinkedList.class))))
+                .append(list.ret());
+        return classDefinition;
+    }
+
+    private static void assertListFactory(Class<?> clazz)
+            throws ReflectiveOperationException
+    {
+        Method create = clazz.getMethod("create", boolean.class);
+        assertThat(create.invoke(null, true)).isInstanceOf(ArrayList.class);
+        assertThat(create.invoke(null, false)).isInstanceOf(LinkedList.class);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.RandomAccess;
+
+import static io.airlift.bytecode.Access.FINAL;
+import static io.airlift.bytecode.Access.PUBLIC;
+import static io.airlift.bytecode.Access.a;
+import static io.airlift.bytecode.BytecodeUtils.uniqueClassName;
+import static io.airlift.bytecode.ClassInfoLoader.createClassInfoLoader;
+import static io.airlift.bytecode.ParameterizedType.type;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TestClassInfoLoader
+{
+    @Test
+    void testHeaderOnly()
+    {
+        ClassInfoLoader classInfoLoader = createClassInfoLoader(ImmutableList.of(), getClass().getClassLoader(), Optional.empty(), false);
+
+        ClassInfo arrayList = classInfoLoader.loadClassInfo(type(ArrayList.class));
+        assertThat(arrayList.getSuperclass().getType()).isEqualTo(type(AbstractList.class));
+        assertThat(arrayList.getInterfaces().stream().map(ClassInfo::getType).toList()).contains(type(List.class), type(RandomAccess.class));
+        assertThat(classInfoLoader.loadClassInfo(type(List.class)).isAssignableFrom(arrayList)).isTrue();
+        assertThatThrownBy(arrayList::getMethods)
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void testMethodNodes()
+    {
+        ClassInfoLoader classInfoLoader = createClassInfoLoader(ImmutableList.of(), getClass().getClassLoader(), Optional.empty(), true);
+
+        ClassInfo arrayList = classInfoLoader.loadClassInfo(type(ArrayList.class));
+        assertThat(arrayList.getSuperclass().getType()).isEqualTo(type(AbstractList.class));
+        assertThat(arrayList.getMethods().stream().anyMatch(method -> method.name.equals("add"))).isTrue();
+    }
+
+    @Test
+    void testClassDefinition()
+    {
+        ClassDefinition classDefinition = new ClassDefinition(a(PUBLIC, FINAL), uniqueClassName("test", "Example"), type(AbstractList.class), type(RandomAccess.class));
+        classDefinition.declareDefaultConstructor(a(PUBLIC));
+
+        ClassInfo headerOnly = createClassInfoLoader(ImmutableList.of(classDefinition), getClass().getClassLoader(), Optional.empty(), false)
+                .loadClassInfo(classDefinition.getType());
+        assertThat(headerOnly.getSuperclass().getType()).isEqualTo(type(AbstractList.class));
+        assertThat(headerOnly.getInterfaces().stream().map(ClassInfo::getType).toList()).containsExactly(type(RandomAccess.class));
+        assertThat(headerOnly.isInterface()).isFalse();
+        assertThatThrownBy(headerOnly::getMethods)
+                .isInstanceOf(IllegalStateException.class);
+
+        ClassInfo withMethods = createClassInfoLoader(ImmutableList.of(classDefinition), getClass().getClassLoader(), Optional.empty(), true)
+                .loadClassInfo(classDefinition.getType());
+        assertThat(withMethods.getSuperclass().getType()).isEqualTo(type(AbstractList.class));
+        assertThat(withMethods.getMethods().stream().anyMatch(method -> method.name.equals("<init>"))).isTrue();
+    }
+
+    @Test
+    void testCommonSuperClass()
+    {
+        ClassInfoLoader classInfoLoader = createClassInfoLoader(ImmutableList.of(), getClass().getClassLoader(), Optional.empty(), false);
+        SmartClassWriter classWriter = new SmartClassWriter(classInfoLoader);
+
+        assertThat(classWriter.getCommonSuperClass("java/util/ArrayList", "java/util/LinkedList")).isEqualTo("java/util/AbstractList");
+        assertThat(classWriter.getCommonSuperClass("java/util/LinkedList", "java/util/ArrayList")).isEqualTo("java/util/AbstractList");
+        assertThat(classWriter.getCommonSuperClass("java/util/List", "java/util/ArrayList")).isEqualTo("java/util/List");
+        assertThat(classWriter.getCommonSuperClass("java/util/Collection", "java/util/List")).isEqualTo("java/util/Collection");
+        assertThat(classWriter.getCommonSuperClass("java/util/List", "java/util/Set")).isEqualTo("java/lang/Object");
+        assertThat(classWriter.getCommonSuperClass("java/lang/Integer", "java/lang/Long")).isEqualTo("java/lang/Number");
+        assertThat(classWriter.getCommonSuperClass("java/lang/Integer", "java/lang/String")).isEqualTo("java/lang/Object");
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import org.junit.jupiter.api.Test;
+
+import static io.airlift.bytecode.ClassGenerator.classGenerator;
+import static io.airlift.bytecode.TestingClassDefinitions.createGreeter;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestClassLoaderCache
+{
+    @Test
+    void testCache()
+            throws Exception
+    {
+        ClassLoaderCache<String, Class<?>> cache = new ClassLoaderCache<>(getClass().getClassLoader(), 1_000_000);
+
+        Class<?> hello = cache.get("hello", classLoader -> defineGreeter(classLoader, "hello"));
+        assertThat(cache.get("hello", classLoader -> defineGreeter(classLoader, "other"))).isSameAs(hello);
+        Class<?> goodbye = cache.get("goodbye", classLoader -> defineGreeter(classLoader, "goodbye"));
+
+        assertThat(hello.getMethod("greet").invoke(null)).isEqualTo("hello");
+        assertThat(goodbye.getMethod("greet").invoke(null)).isEqualTo("goodbye");
+        assertThat(goodbye.getClassLoader()).isNotSameAs(hello.getClassLoader());
+
+        assertThat(cache.getHitCount()).isEqualTo(1L);
+        assertThat(cache.getMissCount()).isEqualTo(2L);
+        assertThat(cache.size()).isEqualTo(2L);
+        assertThat(cache.getClassCount()).isEqualTo(2L);
+        assertThat(cache.getByteSize()).isGreaterThan(0L);
+
+        cache.invalidateAll();
+        assertThat(cache.size()).isEqualTo(0L);
+        assertThat(cache.getClassCount()).isEqualTo(0L);
+        assertThat(cache.getByteSize()).isEqualTo(0L);
+        assertThat(cache.getEvictionCount()).isEqualTo(0L);
+    }
+
+    @Test
+    void testEviction()
+    {
+        ClassLoaderCache<Integer, Class<?>> cache = new ClassLoaderCache<>(getClass().getClassLoader(), 10_000);
+        for (int i = 0; i < 200; i++) {
+            String greeting = "hello" + i;
+            cache.get(i, classLoader -> defineGreeter(classLoader, greeting));
+        }
+
+        assertThat(cache.getEvictionCount()).isGreaterThan(0L);
+        assertThat(cache.getByteSize()).isLessThanOrEqualTo(10_000L);
+        assertThat(cache.getClassCount()).isEqualTo(cache.size());
+        assertThat(cache.getMissCount()).isEqualTo(200L);
+    }
+
+    private static Class<?> defineGreeter(DynamicClassLoader classLoader, String greeting)
+    {
+        return classGenerator(classLoader).defineClass(createGreeter(greeting), Object.class);
+    }
+}
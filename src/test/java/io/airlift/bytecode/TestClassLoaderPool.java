@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import org.junit.jupiter.api.Test;
+
+import static io.airlift.bytecode.ClassGenerator.classGenerator;
+import static io.airlift.bytecode.TestingClassDefinitions.createGreeter;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestClassLoaderPool
+{
+    @Test
+    void testGenerations()
+    {
+        ClassLoaderPool pool = new ClassLoaderPool(getClass().getClassLoader(), 2);
+
+        // the class loader is only full once the classes are defined
+        DynamicClassLoader first = pool.getClassLoader();
+        assertThat(pool.getClassLoader()).isSameAs(first);
+        assertThat(first.getParent()).isSameAs(getClass().getClassLoader());
+        assertThat(first.isRegisteredAsParallelCapable()).isTrue();
+
+        classGenerator(pool.getClassLoader()).defineClass(createGreeter("hello"), Object.class);
+        assertThat(pool.getClassLoader()).isSameAs(first);
+        classGenerator(pool.getClassLoader()).defineClass(createGreeter("hello"), Object.class);
+        DynamicClassLoader second = pool.getClassLoader();
+        assertThat(second).isNotSameAs(first);
+        assertThat(pool.getGenerationCount()).isEqualTo(2L);
+
+        pool.nextGeneration();
+        assertThat(pool.getClassLoader()).isNotSameAs(second);
+        assertThat(pool.getGenerationCount()).isEqualTo(3L);
+    }
+
+    @Test
+    void testClassNames()
+    {
+        ClassLoaderPool pool = new ClassLoaderPool(getClass().getClassLoader(), 10);
+
+        DynamicClassLoader first = pool.getClassLoader("test.First");
+        assertThat(pool.getClassLoader("test.Second")).isSameAs(first);
+
+        // a class name requested again is defined in a new class loader
+        DynamicClassLoader second = pool.getClassLoader("test.First");
+        assertThat(second).isNotSameAs(first);
+        assertThat(pool.getClassLoader("test.Second")).isSameAs(second);
+        assertThat(pool.getGenerationCount()).isEqualTo(2L);
+    }
+}
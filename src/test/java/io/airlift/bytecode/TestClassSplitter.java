@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static com.google.common.io.MoreFiles.deleteRecursively;
+import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
+import static io.airlift.bytecode.Access.FINAL;
+import static io.airlift.bytecode.Access.PRIVATE;
+import static io.airlift.bytecode.Access.PUBLIC;
+import static io.airlift.bytecode.Access.STATIC;
+import static io.airlift.bytecode.Access.a;
+import static io.airlift.bytecode.ByteCodeGenerator.byteCodeGenerator;
+import static io.airlift.bytecode.BytecodeUtils.uniqueClassName;
+import static io.airlift.bytecode.ClassGenerator.classGenerator;
+import static io.airlift.bytecode.ClassInfoLoader.createClassInfoLoader;
+import static io.airlift.bytecode.Parameter.arg;
+import static io.airlift.bytecode.ParameterizedType.type;
+import static io.airlift.bytecode.expression.BytecodeExpressions.add;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantInt;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantString;
+import static io.airlift.bytecode.expression.BytecodeExpressions.invokeStatic;
+import static java.nio.file.Files.createTempDirectory;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TestClassSplitter
+{
+    private static final int METHOD_COUNT = 50;
+
+    @Test
+    void testSplitClass()
+            throws Exception
+    {
+        for (boolean computeFramesFromDeclaredTypes : new boolean[] {false, true}) {
+            Class<?> clazz = classGenerator(getClass().getClassLoader())
+                    .computeFramesFromDeclaredTypes(computeFramesFromDeclaredTypes)
+                    .maximumConstantPoolSize(300)
+                    .maximumMethodCount(40)
+                    .defineClass(createClassDefinition(), Object.class);
+
+            assertThat(clazz.getNestMembers().length).isGreaterThan(2);
+            for (Class<?> nestMember : clazz.getNestMembers()) {
+                assertThat(nestMember.getNestHost()).isEqualTo(clazz);
+                if (nestMember != clazz) {
+                    assertThat(nestMember.getDeclaredMethods().length).isLessThanOrEqualTo(40);
+                }
+            }
+            assertClass(clazz);
+        }
+    }
+
+    @Test
+    void testSmallClassNotSplit()
+            throws Exception
+    {
+        Class<?> clazz = classGenerator(getClass().getClassLoader())
+                .maximumConstantPoolSize(10_000)
+                .maximumMethodCount(1_000)
+                .defineClass(createClassDefinition(), Object.class);
+
+        assertThat(clazz.getNestMembers()).hasSize(1);
+        assertClass(clazz);
+    }
+
+    @Test
+    void testGenerateByteCodeRejectsSplitClass()
+    {
+        ClassDefinition classDefinition = createClassDefinition();
+        assertThatThrownBy(() -> byteCodeGenerator()
+                .maximumMethodCount(40)
+                .generateByteCode(createClassInfoLoader(ImmutableList.of(classDefinition), getClass().getClassLoader(), Optional.empty(), false), classDefinition))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("was split into nest members");
+    }
+
+    @Test
+    void testPersistentClassCache()
+            throws Exception
+    {
+        Path directory = createTempDirectory("class-cache");
+        try {
+            for (int i = 0; i < 2; i++) {
+                try (PersistentClassCache cache = new PersistentClassCache(directory)) {
+                    Class<?> clazz = classGenerator(getClass().getClassLoader())
+                            .persistentClassCache(cache)
+                            .maximumMethodCount(40)
+                            .defineClass(createClassDefinition(), Object.class);
+                    assertThat(clazz.getNestMembers().length).isGreaterThan(1);
+                    assertClass(clazz);
+                    assertThat(cache.getHitCount()).isEqualTo(i);
+                }
+            }
+        }
+        finally {
+            deleteRecursively(directory, ALLOW_INSECURE);
+        }
+    }
+
+    private static void assertClass(Class<?> clazz)
+            throws Exception
+    {
+        Object instance = clazz.getConstructor(int.class).newInstance(5);
+        for (int i = 0; i < METHOD_COUNT; i++) {
+            assertThat(clazz.getMethod("constant" + i).invoke(null)).isEqualTo("constant" + i);
+            assertThat(clazz.getMethod("add" + i, int.class).invoke(instance, 3)).isEqualTo(5 + 3 + i);
+        }
+        assertThat(clazz.getMethod("sum").invoke(instance)).isEqualTo(expectedSum());
+    }
+
+    private static int expectedSum()
+    {
+        int sum = 0;
+        for (int i = 0; i < METHOD_COUNT; i++) {
+            sum += 5 + i + i;
+        }
+        return sum;
+    }
+
+    private static ClassDefinition createClassDefinition()
+    {
+        ClassDefinition classDefinition = new ClassDefinition(a(PUBLIC, FINAL), uniqueClassName("test", "Split"), type(Object.class));
+        FieldDefinition value = classDefinition.declareField(a(PRIVATE, FINAL), "value", int.class);
+
+        Parameter constructorValue = arg("value", int.class);
+        MethodDefinition constructor = classDefinition.declareConstructor(a(PUBLIC), constructorValue);
+        constructor.getBody()
+                .append(constructor.getThis())
+                .invokeConstructor(Object.class)
+                .append(constructor.getThis().setField(value, constructorValue))
+                .ret();
+
+        // the private methods are called directly, while the public methods are called through a stub
+        MethodDefinition sum = classDefinition.declareMethod(a(PUBLIC), "sum", type(int.class));
+        Variable total = sum.getScope().declareVariable(int.class, "total");
+        sum.getBody().append(total.set(constantInt(0)));
+        for (int i = 0; i < METHOD_COUNT; i++) {
+            classDefinition.declareMethod(a(PUBLIC, STATIC), "constant" + i, type(String.class))
+                    .getBody()
+                    .append(constantString("constant" + i))
+                    .retObject();
+
+            MethodDefinition offset = classDefinition.declareMethod(a(PRIVATE, STATIC), "offset" + i, type(int.class), arg("value", int.class));
+            offset.getBody()
+                    .append(add(offset.getScope().getVariable("value"), constantInt(i)))
+                    .retInt();
+
+            MethodDefinition privateValue = classDefinition.declareMethod(a(PRIVATE), "value" + i, type(int.class));
+            privateValue.getBody()
+                    .append(invokeStatic(offset, privateValue.getThis().getField(value)))
+                    .retInt();
+
+            Parameter delta = arg("delta", int.class);
+            MethodDefinition addMethod = classDefinition.declareMethod(a(PUBLIC), "add" + i, type(int.class), delta);
+            addMethod.getBody()
+                    .append(add(addMethod.getThis().invoke(privateValue, ImmutableList.of()), delta))
+                    .retInt();
+
+            sum.getBody().append(total.set(add(total, sum.getThis().invoke(addMethod, ImmutableList.of(constantInt(i))))));
+        }
+        sum.getBody().append(total.ret());
+        return classDefinition;
+    }
+}
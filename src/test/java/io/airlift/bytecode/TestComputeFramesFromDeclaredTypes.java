@@ -0,0 +1,160 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.bytecode.control.ForLoop;
+import io.airlift.bytecode.control.IfStatement;
+import io.airlift.bytecode.control.TryCatch;
+import io.airlift.bytecode.control.TryCatch.CatchBlock;
+import io.airlift.bytecode.instruction.LabelNode;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import static io.airlift.bytecode.Access.FINAL;
+import static io.airlift.bytecode.Access.PUBLIC;
+import static io.airlift.bytecode.Access.STATIC;
+import static io.airlift.bytecode.Access.a;
+import static io.airlift.bytecode.BytecodeUtils.uniqueClassName;
+import static io.airlift.bytecode.ClassGenerator.classGenerator;
+import static io.airlift.bytecode.Parameter.arg;
+import static io.airlift.bytecode.ParameterizedType.type;
+import static io.airlift.bytecode.expression.BytecodeExpressions.add;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantInt;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantLong;
+import static io.airlift.bytecode.expression.BytecodeExpressions.equal;
+import static io.airlift.bytecode.expression.BytecodeExpressions.lessThan;
+import static io.airlift.bytecode.expression.BytecodeExpressions.newInstance;
+import static io.airlift.bytecode.expression.BytecodeExpressions.subtract;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestComputeFramesFromDeclaredTypes
+{
+    @Test
+    void testLoopWithTryCatch()
+            throws Exception
+    {
+        ClassDefinition classDefinition = new ClassDefinition(a(PUBLIC, FINAL), uniqueClassName("test", "Loop"), type(Object.class));
+
+        Parameter count = arg("count", int.class);
+        MethodDefinition method = classDefinition.declareMethod(a(PUBLIC, STATIC), "sum", type(long.class), count);
+        Scope scope = method.getScope();
+        Variable total = scope.declareVariable(long.class, "total");
+        Variable i = scope.declareVariable(int.class, "i");
+
+        // every third value throws and is subtracted instead
+        BytecodeBlock tryBlock = new BytecodeBlock()
+                .append(new IfStatement()
+                        .condition(equal(constantInt(3), i))
+                        .ifTrue(new BytecodeBlock()
+                                .append(newInstance(IllegalArgumentException.class))
+                                .throwObject()))
+                .append(total.set(add(total, i.cast(long.class))));
+        BytecodeBlock catchBlock = new BytecodeBlock()
+                .pop()
+                .append(total.set(subtract(total, i.cast(long.class))));
+
+        method.getBody()
+                .append(total.set(constantLong(0)))
+                .append(new ForLoop()
+                        .initialize(i.set(constantInt(0)))
+                        .condition(lessThan(i, count))
+                        .update(i.increment())
+                        .body(new TryCatch(tryBlock, ImmutableList.of(new CatchBlock(catchBlock, ImmutableList.of(type(IllegalArgumentException.class)))))))
+                .append(total)
+                .retLong()
+                // unreachable code is removed
+                .append(constantLong(42))
+                .retLong();
+
+        Class<?> clazz = classGenerator(getClass().getClassLoader())
+                .computeFramesFromDeclaredTypes(true)
+                .defineClass(classDefinition, Object.class);
+
+        Method sum = clazz.getMethod("sum", int.class);
+        assertThat(sum.invoke(null, 0)).isEqualTo(0L);
+        assertThat(sum.invoke(null, 5)).isEqualTo(0L + 1 + 2 - 3 + 4);
+    }
+
+    @Test
+    void testMergeDeclaredVariable()
+            throws Exception
+    {
+        ClassDefinition classDefinition = new ClassDefinition(a(PUBLIC, FINAL), uniqueClassName("test", "ListFactory"), type(Object.class));
+        classDefinition.declareDefaultConstructor(a(PUBLIC));
+
+        Parameter flag = arg("flag", boolean.class);
+        MethodDefinition method = classDefinition.declareMethod(a(PUBLIC), "create", type(List.class), flag);
+        Variable list = method.getScope().declareVariable(List.class, "list");
+        method.getBody()
+                .append(new IfStatement()
+                        .condition(flag)
+                        .ifTrue(list.set(newInstance(ArrayList.class)))
+                        .ifFalse(list.set(newInstance(LinkedList.class))))
+                .append(list.ret());
+
+        ClassInfoCache classInfoCache = new ClassInfoCache();
+        Class<?> clazz = classGenerator(getClass().getClassLoader())
+                .classInfoCache(classInfoCache)
+                .computeFramesFromDeclaredTypes(true)
+                .defineClass(classDefinition, Object.class);
+
+        Object instance = clazz.getConstructor().newInstance();
+        Method create = clazz.getMethod("create", boolean.class);
+        assertThat(create.invoke(instance, true)).isInstanceOf(ArrayList.class);
+        assertThat(create.invoke(instance, false)).isInstanceOf(LinkedList.class);
+
+        // the declared type of the variable is used, so the class hierarchy is not needed
+        assertThat(classInfoCache.getMissCount()).isEqualTo(0L);
+    }
+
+    @Test
+    void testMergeStack()
+            throws Exception
+    {
+        ClassDefinition classDefinition = new ClassDefinition(a(PUBLIC, FINAL), uniqueClassName("test", "ListFactory"), type(Object.class));
+
+        Parameter flag = arg("flag", boolean.class);
+        MethodDefinition method = classDefinition.declareMethod(a(PUBLIC, STATIC), "create", type(AbstractList.class), flag);
+        LabelNode ifFalse = new LabelNode("ifFalse");
+        LabelNode end = new LabelNode("end");
+        method.getBody()
+                .append(flag)
+                .ifFalseGoto(ifFalse)
+                .append(newInstance(ArrayList.class))
+                .gotoLabel(end)
+                .visitLabel(ifFalse)
+                .append(newInstance(LinkedList.class))
+                .visitLabel(end)
+                .retObject();
+
+        ClassInfoCache classInfoCache = new ClassInfoCache();
+        Class<?> clazz = classGenerator(getClass().getClassLoader())
+                .classInfoCache(classInfoCache)
+                .computeFramesFromDeclaredTypes(true)
+                .defineClass(classDefinition, Object.class);
+
+        Method create = clazz.getMethod("create", boolean.class);
+        assertThat(create.invoke(null, true)).isInstanceOf(ArrayList.class);
+        assertThat(create.invoke(null, false)).isInstanceOf(LinkedList.class);
+
+        // values merged on the stack have no declared type
+        assertThat(classInfoCache.getMissCount()).isGreaterThan(0);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.airlift.bytecode.ByteCodeGenerator.byteCodeGenerator;
+import static io.airlift.bytecode.BytecodeUtils.uniqueClassName;
+import static io.airlift.bytecode.ClassInfoLoader.createClassInfoLoader;
+import static io.airlift.bytecode.TestingClassDefinitions.createGreeter;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TestDynamicClassLoader
+{
+    @Test
+    void testParallelCapable()
+    {
+        assertThat(new DynamicClassLoader(getClass().getClassLoader()).isRegisteredAsParallelCapable()).isTrue();
+    }
+
+    @Test
+    void testConcurrentDefineClasses()
+            throws Exception
+    {
+        DynamicClassLoader classLoader = new DynamicClassLoader(getClass().getClassLoader());
+        ExecutorService executor = newFixedThreadPool(8);
+        try {
+            List<Future<Map<String, Class<?>>>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                String greeting = "hello" + i;
+                futures.add(executor.submit(() -> classLoader.defineClasses(generateGreeter(greeting))));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                Class<?> clazz = futures.get(i).get().values().iterator().next();
+                assertThat(clazz.getClassLoader()).isSameAs(classLoader);
+                assertThat(clazz.getMethod("greet").invoke(null)).isEqualTo("hello" + i);
+                assertThat(classLoader.loadClass(clazz.getName())).isSameAs(clazz);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testDefineLoadedClass()
+    {
+        DynamicClassLoader classLoader = new DynamicClassLoader(getClass().getClassLoader());
+        Map<String, byte[]> greeter = generateGreeter("hello");
+        classLoader.defineClasses(greeter);
+
+        assertThatThrownBy(() -> classLoader.defineClasses(greeter))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("have already been defined");
+    }
+
+    @Test
+    void testDelegationCache()
+            throws Exception
+    {
+        CountingClassLoader overrideClassLoader = new CountingClassLoader(getClass().getClassLoader(), Integer.class.getName());
+        DynamicClassLoader classLoader = new DynamicClassLoader(overrideClassLoader, getClass().getClassLoader());
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(classLoader.loadClass(Integer.class.getName())).isSameAs(Integer.class);
+            assertThat(classLoader.loadClass(String.class.getName())).isSameAs(String.class);
+        }
+        // the class found by the parent class loader is cached, so the override class loader is only asked once
+        assertThat(overrideClassLoader.getLoadCount()).isEqualTo(2);
+
+        assertThatThrownBy(() -> classLoader.loadClass("test.DoesNotExist"))
+                .isInstanceOf(ClassNotFoundException.class);
+    }
+
+    @Test
+    void testOverrideClassDefinedLater()
+            throws Exception
+    {
+        DynamicClassLoader overrideClassLoader = new DynamicClassLoader(getClass().getClassLoader());
+        DynamicClassLoader classLoader = new DynamicClassLoader(overrideClassLoader, getClass().getClassLoader());
+        ParameterizedType type = uniqueClassName("test", "Greeter");
+        assertThatThrownBy(() -> classLoader.loadClass(type.getJavaClassName()))
+                .isInstanceOf(ClassNotFoundException.class);
+
+        // a failed lookup is not cached
+        Class<?> clazz = overrideClassLoader.defineClasses(generateGreeter(createGreeter(type, "hello"))).get(type.getJavaClassName());
+        assertThat(classLoader.loadClass(type.getJavaClassName())).isSameAs(clazz);
+    }
+
+    @Test
+    void testDefineDelegatedClass()
+            throws Exception
+    {
+        DynamicClassLoader parentClassLoader = new DynamicClassLoader(getClass().getClassLoader());
+        DynamicClassLoader classLoader = new DynamicClassLoader(parentClassLoader);
+        ParameterizedType type = uniqueClassName("test", "Greeter");
+        parentClassLoader.defineClasses(generateGreeter(createGreeter(type, "parent")));
+        assertThat(classLoader.loadClass(type.getJavaClassName()).getClassLoader()).isSameAs(parentClassLoader);
+
+        // the class defined by the class loader replaces the delegated class
+        Class<?> clazz = classLoader.defineClasses(generateGreeter(createGreeter(type, "child"))).get(type.getJavaClassName());
+        assertThat(clazz.getClassLoader()).isSameAs(classLoader);
+        assertThat(classLoader.loadClass(type.getJavaClassName())).isSameAs(clazz);
+    }
+
+    private Map<String, byte[]> generateGreeter(String greeting)
+    {
+        return generateGreeter(createGreeter(greeting));
+    }
+
+    private Map<String, byte[]> generateGreeter(ClassDefinition classDefinition)
+    {
+        byte[] bytecode = byteCodeGenerator().generateByteCode(
+                createClassInfoLoader(ImmutableList.of(classDefinition), getClass().getClassLoader(), Optional.empty(), false),
+                classDefinition);
+        return ImmutableMap.of(classDefinition.getType().getJavaClassName(), bytecode);
+    }
+
+    private static class CountingClassLoader
+            extends ClassLoader
+    {
+        private final String className;
+        private final AtomicInteger loadCount = new AtomicInteger();
+
+        public CountingClassLoader(ClassLoader parent, String className)
+        {
+            super(parent);
+            this.className = className;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve)
+                throws ClassNotFoundException
+        {
+            loadCount.incrementAndGet();
+            if (!name.equals(className)) {
+                throw new ClassNotFoundException(name);
+            }
+            return super.loadClass(name, resolve);
+        }
+
+        public int getLoadCount()
+        {
+            return loadCount.get();
+        }
+    }
+}
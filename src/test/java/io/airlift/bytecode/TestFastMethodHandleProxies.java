@@ -14,6 +14,9 @@
 package io.airlift.bytecode;
 
 import com.google.common.base.VerifyException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
@@ -21,11 +24,21 @@ import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandleProxies;
 import java.lang.invoke.MutableCallSite;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.IntSupplier;
+import java.util.function.IntToLongFunction;
 import java.util.function.LongFunction;
 import java.util.function.LongUnaryOperator;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 
+import static java.lang.StackWalker.Option.RETAIN_CLASS_REFERENCE;
+import static java.lang.StackWalker.Option.SHOW_HIDDEN_FRAMES;
+import static java.lang.invoke.MethodHandles.Lookup.PRIVATE;
+import static java.lang.invoke.MethodHandles.constant;
 import static java.lang.invoke.MethodHandles.lookup;
 import static java.lang.invoke.MethodType.methodType;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -157,9 +170,262 @@ class TestFastMethodHandleProxies
         return 2;
     }
 
+    @Test
+    void testSharedProxyClass()
+    {
+        IntSupplier one = FastMethodHandleProxies.asInterfaceInstance(IntSupplier.class, constant(int.class, 1));
+        IntSupplier two = FastMethodHandleProxies.asInterfaceInstance(IntSupplier.class, constant(int.class, 2));
+        assertThat(one.getAsInt()).isEqualTo(1);
+        assertThat(two.getAsInt()).isEqualTo(2);
+        assertThat(one.getClass()).isSameAs(two.getClass());
+
+        // proxies with explicit names have a class of their own
+        IntSupplier three = FastMethodHandleProxies.asInterfaceInstance("test.Three", IntSupplier.class, constant(int.class, 3));
+        IntSupplier otherThree = FastMethodHandleProxies.asInterfaceInstance("test.Three", IntSupplier.class, constant(int.class, 3));
+        assertThat(three.getAsInt()).isEqualTo(3);
+        assertThat(otherThree.getClass().getClassLoader()).isNotSameAs(three.getClass().getClassLoader());
+    }
+
+    @Test
+    void testHiddenProxyClass()
+    {
+        // the interface is only accessible from this package
+        PackagePrivateSupplier supplier = FastMethodHandleProxies.asInterfaceInstance(lookup(), PackagePrivateSupplier.class, constant(String.class, "hello"));
+        assertThat(supplier.get()).isEqualTo("hello");
+        assertThat(supplier.getClass().isHidden()).isTrue();
+        assertThat(supplier.getClass().getPackageName()).isEqualTo(getClass().getPackageName());
+
+        assertThatThrownBy(() -> FastMethodHandleProxies.asInterfaceInstance(lookup().dropLookupMode(PRIVATE), IntSupplier.class, constant(int.class, 1)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("lookup does not have full privilege access");
+    }
+
+    @Test
+    void testDirectCall()
+            throws ReflectiveOperationException
+    {
+        // the target is called from the proxy method rather than through a lambda form
+        @SuppressWarnings("unchecked")
+        Supplier<Class<?>> caller = FastMethodHandleProxies.asInterfaceInstance(
+                lookup(),
+                Supplier.class,
+                lookup().findStatic(getClass(), "callerClass", methodType(Class.class)));
+        assertThat(caller.get()).isSameAs(caller.getClass());
+
+        // the private target can not be called from the proxy class
+        Supplier<?> privateCaller = FastMethodHandleProxies.asInterfaceInstance(
+                lookup(),
+                Supplier.class,
+                lookup().findStatic(getClass(), "privateCallerClass", methodType(Class.class)));
+        assertThat(privateCaller.get()).isNotSameAs(privateCaller.getClass());
+
+        @SuppressWarnings("unchecked")
+        ToIntFunction<String> virtual = FastMethodHandleProxies.asInterfaceInstance(
+                lookup(),
+                ToIntFunction.class,
+                lookup().findVirtual(String.class, "length", methodType(int.class)));
+        assertThat(virtual.applyAsInt("hello")).isEqualTo(5);
+
+        @SuppressWarnings("unchecked")
+        ToIntFunction<CharSequence> interfaceMethod = FastMethodHandleProxies.asInterfaceInstance(
+                lookup(),
+                ToIntFunction.class,
+                lookup().findVirtual(CharSequence.class, "length", methodType(int.class)));
+        assertThat(interfaceMethod.applyAsInt(new StringBuilder("hello"))).isEqualTo(5);
+
+        IntToLongFunction widening = FastMethodHandleProxies.asInterfaceInstance(
+                lookup(),
+                IntToLongFunction.class,
+                lookup().findStatic(Math.class, "abs", methodType(long.class, long.class)));
+        assertThat(widening.applyAsLong(-3)).isEqualTo(3L);
+
+        @SuppressWarnings("unchecked")
+        Function<Integer, Object> boxing = FastMethodHandleProxies.asInterfaceInstance(
+                lookup(),
+                Function.class,
+                lookup().findStatic(Integer.class, "toHexString", methodType(String.class, int.class)));
+        assertThat(boxing.apply(255)).isEqualTo("ff");
+        assertThatThrownBy(() -> boxing.apply(null))
+                .isInstanceOf(NullPointerException.class);
+    }
+
+    static Class<?> callerClass()
+    {
+        return getCallerClass();
+    }
+
+    private static Class<?> privateCallerClass()
+    {
+        return getCallerClass();
+    }
+
+    private static Class<?> getCallerClass()
+    {
+        return StackWalker.getInstance(ImmutableSet.of(RETAIN_CLASS_REFERENCE, SHOW_HIDDEN_FRAMES))
+                .walk(frames -> frames.skip(2).findFirst().orElseThrow().getDeclaringClass());
+    }
+
+    @Test
+    void testMultipleMethods()
+            throws ReflectiveOperationException
+    {
+        List<String> processed = new ArrayList<>();
+        Operator operator = FastMethodHandleProxies.asInstance(lookup(), Operator.class, ImmutableMap.of(
+                Operator.class.getMethod("process", String.class), lookup().findVirtual(List.class, "add", methodType(boolean.class, Object.class)).bindTo(processed),
+                Operator.class.getMethod("isFinished"), constant(boolean.class, true),
+                Operator.class.getMethod("finish"), lookup().findStatic(getClass(), "throwCheckedException", methodType(void.class))));
+
+        operator.process("a");
+        operator.process("b");
+        assertThat(processed).isEqualTo(ImmutableList.of("a", "b"));
+        assertThat(operator.isFinished()).isTrue();
+        assertThatThrownBy(operator::finish)
+                .isInstanceOf(IOException.class);
+        // default methods are inherited
+        assertThat(operator.describe()).isEqualTo("finished");
+
+        assertThatThrownBy(() -> FastMethodHandleProxies.asInstance(lookup(), Operator.class, ImmutableMap.of(
+                Operator.class.getMethod("isFinished"), constant(boolean.class, true))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("no method handle for abstract method");
+    }
+
+    @Test
+    void testImplementationClass()
+    {
+        Operator operator = FastMethodHandleProxies.asInstance(lookup(), Operator.class, StaticOperator.class);
+        operator.process("a");
+        assertThat(operator.isFinished()).isFalse();
+        assertThat(operator.describe()).isEqualTo("running");
+    }
+
+    @Test
+    void testAbstractClass()
+            throws Throwable
+    {
+        MethodHandle constructor = FastMethodHandleProxies.proxyConstructor(
+                lookup(),
+                Greeter.class,
+                methodType(void.class, String.class),
+                ImmutableMap.of(Greeter.class.getDeclaredMethod("name", int.class), lookup().findStatic(Integer.class, "toString", methodType(String.class, int.class))));
+
+        Greeter first = (Greeter) constructor.invokeExact("hello");
+        Greeter second = (Greeter) constructor.invokeExact("goodbye");
+        assertThat(first.greet(1)).isEqualTo("hello 1");
+        assertThat(second.greet(2)).isEqualTo("goodbye 2");
+        assertThat(second.getClass()).isSameAs(first.getClass());
+
+        assertThatThrownBy(() -> FastMethodHandleProxies.proxyConstructor(lookup(), Greeter.class, methodType(void.class), ImmutableMap.of()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testCovariantReturnType()
+            throws ReflectiveOperationException
+    {
+        // the proxy implements both abstract get methods
+        CovariantSupplier supplier = FastMethodHandleProxies.asInstance(lookup(), CovariantSupplier.class, StaticStringSupplier.class);
+        assertThat(((ObjectSupplier) supplier).get()).isEqualTo("hello");
+        assertThat(((StringSupplier) supplier).get()).isEqualTo("hello");
+
+        supplier = FastMethodHandleProxies.asInstance(lookup(), CovariantSupplier.class, ImmutableMap.of(
+                StringSupplier.class.getMethod("get"), constant(String.class, "goodbye")));
+        assertThat(((ObjectSupplier) supplier).get()).isEqualTo("goodbye");
+        assertThat(((StringSupplier) supplier).get()).isEqualTo("goodbye");
+
+        // the bridge method of the interface is inherited
+        StringSupplierOverride override = FastMethodHandleProxies.asInstance(lookup(), StringSupplierOverride.class, ImmutableMap.of(
+                StringSupplierOverride.class.getMethod("get"), constant(String.class, "hello")));
+        assertThat(override.get()).isEqualTo("hello");
+        assertThat(((Supplier<?>) override).get()).isEqualTo("hello");
+        assertThat(override.getClass().getDeclaredMethod("get").getReturnType()).isEqualTo(String.class);
+    }
+
     private static <T> void assertInterface(Class<T> interfaceType, MethodHandle target, Consumer<T> consumer)
     {
         consumer.accept(MethodHandleProxies.asInterfaceInstance(interfaceType, target));
         consumer.accept(FastMethodHandleProxies.asInterfaceInstance(interfaceType, target));
+        consumer.accept(FastMethodHandleProxies.asInterfaceInstance(lookup(), interfaceType, target));
+    }
+
+    public interface Operator
+    {
+        void process(String value);
+
+        void finish()
+                throws IOException;
+
+        boolean isFinished();
+
+        default String describe()
+        {
+            return isFinished() ? "finished" : "running";
+        }
+    }
+
+    static final class StaticOperator
+    {
+        private StaticOperator() {}
+
+        static void process(String value) {}
+
+        static void finish() {}
+
+        static boolean isFinished()
+        {
+            return false;
+        }
+    }
+
+    public interface ObjectSupplier
+    {
+        Object get();
+    }
+
+    public interface StringSupplier
+    {
+        String get();
+    }
+
+    public interface CovariantSupplier
+            extends ObjectSupplier, StringSupplier {}
+
+    public interface StringSupplierOverride
+            extends Supplier<String>
+    {
+        @Override
+        String get();
+    }
+
+    static final class StaticStringSupplier
+    {
+        private StaticStringSupplier() {}
+
+        static String get()
+        {
+            return "hello";
+        }
+    }
+
+    abstract static class Greeter
+    {
+        private final String greeting;
+
+        Greeter(String greeting)
+        {
+            this.greeting = greeting;
+        }
+
+        public String greet(int id)
+        {
+            return greeting + " " + name(id);
+        }
+
+        protected abstract String name(int id);
+    }
+
+    interface PackagePrivateSupplier
+    {
+        String get();
     }
 }
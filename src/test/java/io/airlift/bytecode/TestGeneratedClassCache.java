@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Map;
+
+import static io.airlift.bytecode.Access.FINAL;
+import static io.airlift.bytecode.Access.PUBLIC;
+import static io.airlift.bytecode.Access.STATIC;
+import static io.airlift.bytecode.Access.a;
+import static io.airlift.bytecode.BytecodeUtils.uniqueClassName;
+import static io.airlift.bytecode.ClassGenerator.classGenerator;
+import static io.airlift.bytecode.ParameterizedType.type;
+import static io.airlift.bytecode.TestingClassDefinitions.createGreeter;
+import static io.airlift.bytecode.expression.BytecodeExpressions.invokeStatic;
+import static java.lang.invoke.MethodHandles.constant;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestGeneratedClassCache
+{
+    @Test
+    void testIdenticalDefinitions()
+            throws Exception
+    {
+        GeneratedClassCache cache = new GeneratedClassCache();
+
+        Class<?> first = classGenerator(getClass().getClassLoader())
+                .generatedClassCache(cache)
+                .defineClass(createGreeter("hello"), Object.class);
+        Class<?> second = classGenerator(getClass().getClassLoader())
+                .generatedClassCache(cache)
+                .defineClass(createGreeter("hello"), Object.class);
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.getMethod("greet").invoke(null)).isEqualTo("hello");
+        assertThat(cache.getHitCount()).isEqualTo(1L);
+        assertThat(cache.getMissCount()).isEqualTo(1L);
+    }
+
+    @Test
+    void testDifferentDefinitions()
+            throws Exception
+    {
+        GeneratedClassCache cache = new GeneratedClassCache();
+
+        Class<?> hello = classGenerator(getClass().getClassLoader())
+                .generatedClassCache(cache)
+                .defineClass(createGreeter("hello"), Object.class);
+        Class<?> goodbye = classGenerator(getClass().getClassLoader())
+                .generatedClassCache(cache)
+                .defineClass(createGreeter("goodbye"), Object.class);
+
+        assertThat(goodbye).isNotSameAs(hello);
+        assertThat(hello.getMethod("greet").invoke(null)).isEqualTo("hello");
+        assertThat(goodbye.getMethod("greet").invoke(null)).isEqualTo("goodbye");
+        assertThat(cache.getHitCount()).isEqualTo(0L);
+    }
+
+    @Test
+    void testDifferentCallSiteBindings()
+    {
+        GeneratedClassCache cache = new GeneratedClassCache();
+
+        Map<Long, MethodHandle> bindings = ImmutableMap.of(0L, constant(String.class, "hello"));
+        Class<?> first = classGenerator(getClass().getClassLoader(), bindings)
+                .generatedClassCache(cache)
+                .defineClass(createGreeter("hello"), Object.class);
+        Class<?> same = classGenerator(getClass().getClassLoader(), bindings)
+                .generatedClassCache(cache)
+                .defineClass(createGreeter("hello"), Object.class);
+        Class<?> different = classGenerator(getClass().getClassLoader(), ImmutableMap.of(0L, constant(String.class, "hello")))
+                .generatedClassCache(cache)
+                .defineClass(createGreeter("hello"), Object.class);
+
+        // classes bound to different method handles must not be shared
+        assertThat(same).isSameAs(first);
+        assertThat(different).isNotSameAs(first);
+    }
+
+    @Test
+    void testBatch()
+            throws Exception
+    {
+        GeneratedClassCache cache = new GeneratedClassCache();
+
+        Map<String, Class<?>> first = defineCaller(cache);
+        Map<String, Class<?>> second = defineCaller(cache);
+
+        assertThat(cache.getHitCount()).isEqualTo(1L);
+        assertThat(ImmutableSet.copyOf(second.values())).isEqualTo(ImmutableSet.copyOf(first.values()));
+        for (Class<?> clazz : second.values()) {
+            if (clazz.getSimpleName().startsWith("Caller")) {
+                assertThat(clazz.getMethod("call").invoke(null)).isEqualTo("hello");
+            }
+        }
+    }
+
+    private Map<String, Class<?>> defineCaller(GeneratedClassCache cache)
+    {
+        ClassDefinition greeter = createGreeter("hello");
+
+        // the caller references the greeter, whose name is different in every batch
+        ClassDefinition caller = new ClassDefinition(a(PUBLIC, FINAL), uniqueClassName("test", "Caller"), type(Object.class));
+        caller.declareMethod(a(PUBLIC, STATIC), "call", type(String.class))
+                .getBody()
+                .append(invokeStatic(greeter.getType(), "greet", type(String.class), ImmutableList.of()))
+                .retObject();
+
+        Map<String, Class<?>> classes = classGenerator(getClass().getClassLoader())
+                .generatedClassCache(cache)
+                .defineClasses(ImmutableList.of(caller, greeter));
+        assertThat(classes).containsKey(caller.getType().getJavaClassName());
+        assertThat(classes).containsKey(greeter.getType().getJavaClassName());
+        return classes;
+    }
+}
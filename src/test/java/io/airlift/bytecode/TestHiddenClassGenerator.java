@@ -17,13 +17,16 @@ import com.google.common.collect.ImmutableList;
 import org.junit.jupiter.api.Test;
 
 import java.io.StringWriter;
+import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.reflect.Method;
 import java.nio.file.Path;
+import java.util.Map;
 import java.util.Optional;
 
 import static com.google.common.io.MoreFiles.deleteRecursively;
 import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
 import static io.airlift.bytecode.Access.FINAL;
+import static io.airlift.bytecode.Access.PRIVATE;
 import static io.airlift.bytecode.Access.PUBLIC;
 import static io.airlift.bytecode.Access.STATIC;
 import static io.airlift.bytecode.Access.a;
@@ -31,7 +34,10 @@ import static io.airlift.bytecode.HiddenClassGenerator.hiddenClassGenerator;
 import static io.airlift.bytecode.Parameter.arg;
 import static io.airlift.bytecode.ParameterizedType.type;
 import static io.airlift.bytecode.expression.BytecodeExpressions.add;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantInt;
 import static java.lang.invoke.MethodHandles.lookup;
+import static java.lang.invoke.MethodHandles.privateLookupIn;
+import static java.lang.invoke.MethodType.methodType;
 import static java.nio.file.Files.createTempDirectory;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -87,4 +93,38 @@ class TestHiddenClassGenerator
             deleteRecursively(tempDir, ALLOW_INSECURE);
         }
     }
+
+    @Test
+    void testDefineHiddenClasses()
+            throws Throwable
+    {
+        ClassDefinition host = new ClassDefinition(a(PUBLIC, FINAL), "io/airlift/bytecode/ExampleHost", type(Object.class));
+        host.declareMethod(a(PRIVATE, STATIC), "secret", type(int.class))
+                .getBody()
+                .append(constantInt(42))
+                .retInt();
+
+        ClassDefinition member = new ClassDefinition(a(PUBLIC, FINAL), "io/airlift/bytecode/ExampleMember", type(Object.class));
+        member.declareMethod(a(PRIVATE, STATIC), "otherSecret", type(int.class))
+                .getBody()
+                .append(constantInt(7))
+                .retInt();
+
+        Map<String, Class<?>> classes = hiddenClassGenerator(lookup())
+                .defineHiddenClasses(ImmutableList.of(host, member), Optional.empty());
+        assertThat(classes.keySet()).containsExactly("io.airlift.bytecode.ExampleHost", "io.airlift.bytecode.ExampleMember");
+
+        Class<?> hostClass = classes.get("io.airlift.bytecode.ExampleHost");
+        Class<?> memberClass = classes.get("io.airlift.bytecode.ExampleMember");
+        assertThat(hostClass.isHidden()).isTrue();
+        assertThat(memberClass.isHidden()).isTrue();
+        assertThat(memberClass.getNestHost()).isEqualTo(hostClass);
+        assertThat(hostClass.isNestmateOf(memberClass)).isTrue();
+
+        // nestmates can access the private members of each other
+        Lookup memberLookup = privateLookupIn(memberClass, lookup());
+        assertThat((int) memberLookup.findStatic(hostClass, "secret", methodType(int.class)).invokeExact()).isEqualTo(42);
+        Lookup hostLookup = privateLookupIn(hostClass, lookup());
+        assertThat((int) hostLookup.findStatic(memberClass, "otherSecret", methodType(int.class)).invokeExact()).isEqualTo(7);
+    }
 }
@@ -0,0 +1,210 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.bytecode.control.ForLoop;
+import io.airlift.bytecode.control.IfStatement;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static io.airlift.bytecode.Access.FINAL;
+import static io.airlift.bytecode.Access.PRIVATE;
+import static io.airlift.bytecode.Access.PUBLIC;
+import static io.airlift.bytecode.Access.STATIC;
+import static io.airlift.bytecode.Access.a;
+import static io.airlift.bytecode.ByteCodeGenerator.byteCodeGenerator;
+import static io.airlift.bytecode.BytecodeUtils.uniqueClassName;
+import static io.airlift.bytecode.ClassInfoLoader.createClassInfoLoader;
+import static io.airlift.bytecode.Parameter.arg;
+import static io.airlift.bytecode.ParameterizedType.type;
+import static io.airlift.bytecode.expression.BytecodeExpressions.add;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantInt;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantLong;
+import static io.airlift.bytecode.expression.BytecodeExpressions.greaterThan;
+import static io.airlift.bytecode.expression.BytecodeExpressions.lessThan;
+import static io.airlift.bytecode.expression.BytecodeExpressions.multiply;
+import static io.airlift.bytecode.expression.BytecodeExpressions.setStatic;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.objectweb.asm.Opcodes.ASM9;
+
+class TestMethodSplitter
+{
+    private static final int MAXIMUM_METHOD_SIZE = 1000;
+
+    @Test
+    void testSplitLargeMethod()
+            throws Exception
+    {
+        for (boolean computeFramesFromDeclaredTypes : new boolean[] {false, true}) {
+            ClassDefinition classDefinition = createClassDefinition();
+            byte[] bytecode = byteCodeGenerator()
+                    .computeFramesFromDeclaredTypes(computeFramesFromDeclaredTypes)
+                    .maximumMethodSize(MAXIMUM_METHOD_SIZE)
+                    .generateByteCode(createClassInfoLoader(ImmutableList.of(classDefinition), getClass().getClassLoader(), Optional.empty(), false), classDefinition);
+
+            Map<String, Integer> methodSizes = getMethodSizes(bytecode);
+            assertThat(methodSizes.size()).isGreaterThan(2);
+            // the size of the split methods is estimated
+            for (int size : methodSizes.values()) {
+                assertThat(size).isLessThan(MAXIMUM_METHOD_SIZE + 100);
+            }
+
+            Class<?> clazz = new DynamicClassLoader(getClass().getClassLoader()).defineClass(classDefinition.getType().getJavaClassName(), bytecode);
+            assertCompute(clazz);
+        }
+    }
+
+    @Test
+    void testSmallMethodsNotSplit()
+            throws Exception
+    {
+        Class<?> clazz = ClassGenerator.classGenerator(getClass().getClassLoader())
+                .defineClass(createClassDefinition(), Object.class);
+        assertThat(clazz.getDeclaredMethods()).hasSize(1);
+        assertCompute(clazz);
+
+        Class<?> splitClass = ClassGenerator.classGenerator(getClass().getClassLoader())
+                .maximumMethodSize(MAXIMUM_METHOD_SIZE)
+                .defineClass(createClassDefinition(), Object.class);
+        assertThat(splitClass.getDeclaredMethods().length).isGreaterThan(1);
+        assertCompute(splitClass);
+    }
+
+    @Test
+    void testClassInitializerAssignsFinalFields()
+            throws Exception
+    {
+        ClassDefinition classDefinition = new ClassDefinition(a(PUBLIC, FINAL), uniqueClassName("test", "Constants"), type(Object.class));
+        BytecodeBlock body = classDefinition.getClassInitializer().getBody();
+        for (int index = 0; index < 200; index++) {
+            FieldDefinition field = classDefinition.declareField(a(PRIVATE, STATIC, FINAL), "value" + index, long.class);
+            body.append(setStatic(field, multiply(constantLong(index), constantLong(3))));
+        }
+        body.ret();
+
+        // final fields can only be assigned by the class initializer, so the assignments are not moved
+        Class<?> clazz = ClassGenerator.classGenerator(getClass().getClassLoader())
+                .maximumMethodSize(MAXIMUM_METHOD_SIZE)
+                .defineClass(classDefinition, Object.class);
+        for (int index = 0; index < 200; index++) {
+            Field field = clazz.getDeclaredField("value" + index);
+            field.setAccessible(true);
+            assertThat(field.getLong(null)).isEqualTo(index * 3L);
+        }
+    }
+
+    private static void assertCompute(Class<?> clazz)
+            throws Exception
+    {
+        Method compute = clazz.getMethod("compute", int.class);
+        for (int value : new int[] {-3, 0, 1, 7}) {
+            assertThat(compute.invoke(null, value)).isEqualTo(expectedCompute(value));
+        }
+    }
+
+    private static long expectedCompute(int value)
+    {
+        if (value < 0) {
+            return -1;
+        }
+        long sum = 0;
+        for (int i = 0; i < 300; i++) {
+            sum += (long) value * i;
+        }
+        for (int i = 0; i < 100; i++) {
+            if (i > 50) {
+                break;
+            }
+            for (int j = 0; j < 20; j++) {
+                sum += i * j;
+            }
+        }
+        return sum;
+    }
+
+    private static ClassDefinition createClassDefinition()
+    {
+        ClassDefinition classDefinition = new ClassDefinition(a(PUBLIC, FINAL), uniqueClassName("test", "Split"), type(Object.class));
+
+        Parameter value = arg("value", int.class);
+        MethodDefinition method = classDefinition.declareMethod(a(PUBLIC, STATIC), "compute", type(long.class), value);
+        Scope scope = method.getScope();
+        Variable sum = scope.declareVariable(long.class, "sum");
+        Variable i = scope.declareVariable(int.class, "i");
+        Variable j = scope.declareVariable(int.class, "j");
+        BytecodeBlock body = method.getBody();
+
+        // the early return can not be moved to another method
+        body.append(new IfStatement()
+                .condition(lessThan(value, constantInt(0)))
+                .ifTrue(constantLong(-1).ret()));
+        body.append(sum.set(constantLong(0)));
+        for (int index = 0; index < 300; index++) {
+            body.append(sum.set(add(sum, multiply(value.cast(long.class), constantLong(index)))));
+        }
+
+        // the jump to the end of the loop prevents moving the if statement without the loop
+        ForLoop loop = new ForLoop();
+        BytecodeBlock loopBody = new BytecodeBlock()
+                .append(new IfStatement()
+                        .condition(greaterThan(i, constantInt(50)))
+                        .ifTrue(new BytecodeBlock().gotoLabel(loop.getEndLabel())));
+        for (int index = 0; index < 20; index++) {
+            loopBody.append(j.set(constantInt(index)))
+                    .append(sum.set(add(sum, multiply(i, j).cast(long.class))));
+        }
+        body.append(loop
+                .initialize(i.set(constantInt(0)))
+                .condition(lessThan(i, constantInt(100)))
+                .update(i.increment())
+                .body(loopBody));
+
+        body.append(sum.ret());
+        return classDefinition;
+    }
+
+    private static Map<String, Integer> getMethodSizes(byte[] bytecode)
+    {
+        // the labels are resolved by the class writer, and the end of the scope of the local variables is the end of the method
+        Map<String, Integer> methodSizes = new HashMap<>();
+        new ClassReader(bytecode).accept(new ClassVisitor(ASM9, new ClassWriter(0))
+        {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions)
+            {
+                return new MethodVisitor(ASM9, super.visitMethod(access, name, descriptor, signature, exceptions))
+                {
+                    @Override
+                    public void visitLocalVariable(String variableName, String variableDescriptor, String variableSignature, Label start, Label end, int index)
+                    {
+                        super.visitLocalVariable(variableName, variableDescriptor, variableSignature, start, end, index);
+                        methodSizes.merge(name, end.getOffset(), Math::max);
+                    }
+                };
+            }
+        }, 0);
+        return methodSizes;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import io.airlift.bytecode.control.IfStatement;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.io.MoreFiles.deleteRecursively;
+import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
+import static io.airlift.bytecode.Access.FINAL;
+import static io.airlift.bytecode.Access.PUBLIC;
+import static io.airlift.bytecode.Access.STATIC;
+import static io.airlift.bytecode.Access.a;
+import static io.airlift.bytecode.BytecodeUtils.uniqueClassName;
+import static io.airlift.bytecode.ClassGenerator.classGenerator;
+import static io.airlift.bytecode.Parameter.arg;
+import static io.airlift.bytecode.ParameterizedType.type;
+import static io.airlift.bytecode.ParameterizedType.typeFromJavaClassName;
+import static io.airlift.bytecode.TestingClassDefinitions.createGreeter;
+import static java.nio.file.Files.createTempDirectory;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestPersistentClassCache
+{
+    @Test
+    void testReopen()
+            throws Exception
+    {
+        Path directory = createTempDirectory("class-cache");
+        try {
+            try (PersistentClassCache cache = new PersistentClassCache(directory)) {
+                assertThat(defineGreeter(cache, "hello").getMethod("greet").invoke(null)).isEqualTo("hello");
+                assertThat(cache.getMissCount()).isEqualTo(1L);
+                assertThat(cache.size()).isEqualTo(1L);
+            }
+
+            try (PersistentClassCache cache = new PersistentClassCache(directory)) {
+                assertThat(cache.size()).isEqualTo(1L);
+                assertThat(defineGreeter(cache, "hello").getMethod("greet").invoke(null)).isEqualTo("hello");
+                assertThat(cache.getHitCount()).isEqualTo(1L);
+
+                assertThat(defineGreeter(cache, "goodbye").getMethod("greet").invoke(null)).isEqualTo("goodbye");
+                assertThat(cache.getMissCount()).isEqualTo(1L);
+            }
+        }
+        finally {
+            deleteRecursively(directory, ALLOW_INSECURE);
+        }
+    }
+
+    @Test
+    void testCorruptRecord()
+            throws Exception
+    {
+        Path directory = createTempDirectory("class-cache");
+        try {
+            try (PersistentClassCache cache = new PersistentClassCache(directory)) {
+                defineGreeter(cache, "hello");
+            }
+
+            Path dataFile = directory.resolve("classes.bin");
+            byte[] data = Files.readAllBytes(dataFile);
+            data[data.length - 1] ^= 1;
+            Files.write(dataFile, data);
+
+            try (PersistentClassCache cache = new PersistentClassCache(directory)) {
+                assertThat(defineGreeter(cache, "hello").getMethod("greet").invoke(null)).isEqualTo("hello");
+                assertThat(cache.getHitCount()).isEqualTo(0L);
+                assertThat(cache.getCorruptRecordCount()).isEqualTo(1L);
+            }
+        }
+        finally {
+            deleteRecursively(directory, ALLOW_INSECURE);
+        }
+    }
+
+    @Test
+    void testCompaction()
+            throws Exception
+    {
+        Path directory = createTempDirectory("class-cache");
+        try {
+            long maximumSize = 4096;
+            try (PersistentClassCache cache = new PersistentClassCache(directory, maximumSize)) {
+                for (int i = 0; i < 20; i++) {
+                    defineGreeter(cache, "hello " + i);
+                    assertThat(cache.getFileSize()).isLessThanOrEqualTo(maximumSize);
+                }
+                assertThat(cache.getCompactionCount()).isGreaterThan(0L);
+
+                // the newest records survive compaction
+                defineGreeter(cache, "hello 19");
+                assertThat(cache.getHitCount()).isEqualTo(1L);
+            }
+        }
+        finally {
+            deleteRecursively(directory, ALLOW_INSECURE);
+        }
+    }
+
+    @Test
+    void testRequestedClassNames()
+            throws Exception
+    {
+        Path directory = createTempDirectory("class-cache");
+        try (PersistentClassCache cache = new PersistentClassCache(directory)) {
+            ClassGenerator classGenerator = classGenerator(getClass().getClassLoader()).persistentClassCache(cache);
+            Class<?> generated = defineGreeter(classGenerator, "hello");
+            Class<?> cached = defineGreeter(classGenerator, "hello");
+            assertThat(cache.getHitCount()).isEqualTo(1L);
+
+            // the cached class is renamed, so it does not conflict with the generated class
+            assertThat(cached.getName()).isNotEqualTo(generated.getName());
+            assertThat(cached.getName()).startsWith("test.$gen.Greeter_");
+            assertThat(cached.getMethod("greet").invoke(null)).isEqualTo("hello");
+        }
+        finally {
+            deleteRecursively(directory, ALLOW_INSECURE);
+        }
+    }
+
+    @Test
+    void testStaleHierarchy()
+            throws Exception
+    {
+        Path directory = createTempDirectory("class-cache");
+        try (PersistentClassCache cache = new PersistentClassCache(directory)) {
+            Class<?> chooser = defineChooser(cache, defineHierarchy(true));
+            assertThat(chooser.getMethod("choose", boolean.class).invoke(null, true).getClass().getName()).isEqualTo("test.HierarchyX");
+
+            // the stack map frames of the cached class refer to the common superclass
+            chooser = defineChooser(cache, defineHierarchy(false));
+            assertThat(chooser.getMethod("choose", boolean.class).invoke(null, false).getClass().getName()).isEqualTo("test.HierarchyY");
+            assertThat(cache.getStaleRecordCount()).isEqualTo(1L);
+            assertThat(cache.getHitCount()).isEqualTo(0L);
+
+            defineChooser(cache, defineHierarchy(false));
+            assertThat(cache.getHitCount()).isEqualTo(1L);
+        }
+        finally {
+            deleteRecursively(directory, ALLOW_INSECURE);
+        }
+    }
+
+    private Class<?> defineGreeter(PersistentClassCache cache, String greeting)
+    {
+        return defineGreeter(classGenerator(getClass().getClassLoader()).persistentClassCache(cache), greeting);
+    }
+
+    private static Class<?> defineGreeter(ClassGenerator classGenerator, String greeting)
+    {
+        return classGenerator.defineClass(createGreeter(greeting), Object.class);
+    }
+
+    /**
+     * Defines the classes test.HierarchyX and test.HierarchyY, which extend a common superclass or Object.
+     */
+    private DynamicClassLoader defineHierarchy(boolean commonSuperclass)
+    {
+        ParameterizedType superclass = commonSuperclass ? typeFromJavaClassName("test.HierarchyBase") : type(Object.class);
+        List<ClassDefinition> classDefinitions = new ArrayList<>();
+        if (commonSuperclass) {
+            classDefinitions.add(new ClassDefinition(a(PUBLIC), superclass, type(Object.class)).declareDefaultConstructor(a(PUBLIC)));
+        }
+        classDefinitions.add(new ClassDefinition(a(PUBLIC, FINAL), typeFromJavaClassName("test.HierarchyX"), superclass).declareDefaultConstructor(a(PUBLIC)));
+        classDefinitions.add(new ClassDefinition(a(PUBLIC, FINAL), typeFromJavaClassName("test.HierarchyY"), superclass).declareDefaultConstructor(a(PUBLIC)));
+
+        DynamicClassLoader classLoader = new DynamicClassLoader(getClass().getClassLoader());
+        classGenerator(classLoader).defineClasses(classDefinitions);
+        return classLoader;
+    }
+
+    private static Class<?> defineChooser(PersistentClassCache cache, ClassLoader classLoader)
+    {
+        ParameterizedType x = typeFromJavaClassName("test.HierarchyX");
+        ParameterizedType y = typeFromJavaClassName("test.HierarchyY");
+        ClassDefinition classDefinition = new ClassDefinition(a(PUBLIC, FINAL), uniqueClassName("test", "Chooser"), type(Object.class));
+        Parameter first = arg("first", boolean.class);
+        MethodDefinition method = classDefinition.declareMethod(a(PUBLIC, STATIC), "choose", type(Object.class), first);
+        Variable result = method.getScope().declareVariable(Object.class, "result");
+        method.getBody()
+                .append(new IfStatement()
+                        .condition(first)
+                        .ifTrue(new BytecodeBlock().newObject(x).dup().invokeConstructor(x).putVariable(result))
+                        .ifFalse(new BytecodeBlock().newObject(y).dup().invokeConstructor(y).putVariable(result)))
+                .append(result)
+                .retObject();
+        return classGenerator(classLoader)
+                .persistentClassCache(cache)
+                .defineClass(classDefinition, Object.class);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode;
+
+import static io.airlift.bytecode.Access.FINAL;
+import static io.airlift.bytecode.Access.PUBLIC;
+import static io.airlift.bytecode.Access.STATIC;
+import static io.airlift.bytecode.Access.a;
+import static io.airlift.bytecode.BytecodeUtils.uniqueClassName;
+import static io.airlift.bytecode.ParameterizedType.type;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantString;
+
+public final class TestingClassDefinitions
+{
+    private TestingClassDefinitions() {}
+
+    /**
+     * Creates a class with a unique name and a static {@code greet} method that returns the greeting.
+     */
+    public static ClassDefinition createGreeter(String greeting)
+    {
+        return createGreeter(uniqueClassName("test", "Greeter"), greeting);
+    }
+
+    /**
+     * Creates a class with a static {@code greet} method that returns the greeting.
+     */
+    public static ClassDefinition createGreeter(ParameterizedType type, String greeting)
+    {
+        ClassDefinition classDefinition = new ClassDefinition(a(PUBLIC, FINAL), type, type(Object.class));
+        classDefinition.declareMethod(a(PUBLIC, STATIC), "greet", type(String.class))
+                .getBody()
+                .append(constantString(greeting))
+                .retObject();
+        return classDefinition;
+    }
+}
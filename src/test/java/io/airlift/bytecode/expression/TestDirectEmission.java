@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.bytecode.expression;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.bytecode.MethodGenerationContext;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.airlift.bytecode.ParameterizedType.type;
+import static io.airlift.bytecode.expression.BytecodeExpressions.add;
+import static io.airlift.bytecode.expression.BytecodeExpressions.and;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantDouble;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantFalse;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantInt;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantLong;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantString;
+import static io.airlift.bytecode.expression.BytecodeExpressions.constantTrue;
+import static io.airlift.bytecode.expression.BytecodeExpressions.equal;
+import static io.airlift.bytecode.expression.BytecodeExpressions.get;
+import static io.airlift.bytecode.expression.BytecodeExpressions.getStatic;
+import static io.airlift.bytecode.expression.BytecodeExpressions.inlineIf;
+import static io.airlift.bytecode.expression.BytecodeExpressions.invokeStatic;
+import static io.airlift.bytecode.expression.BytecodeExpressions.length;
+import static io.airlift.bytecode.expression.BytecodeExpressions.lessThan;
+import static io.airlift.bytecode.expression.BytecodeExpressions.negate;
+import static io.airlift.bytecode.expression.BytecodeExpressions.newArray;
+import static io.airlift.bytecode.expression.BytecodeExpressions.newInstance;
+import static io.airlift.bytecode.expression.BytecodeExpressions.not;
+import static io.airlift.bytecode.expression.BytecodeExpressions.or;
+import static io.airlift.bytecode.expression.BytecodeExpressions.set;
+import static io.airlift.bytecode.expression.BytecodeExpressions.setStatic;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TestDirectEmission
+{
+    @Test
+    void testSameAsBytecodeTree()
+    {
+        BytecodeExpression array = newArray(type(int[].class), constantInt(1), constantInt(2));
+        List<BytecodeExpression> expressions = ImmutableList.of(
+                add(constantInt(1), constantInt(2)),
+                negate(constantDouble(1.5)),
+                lessThan(constantLong(1), constantLong(2)),
+                equal(constantString("a"), constantString("b")),
+                and(constantTrue(), constantFalse()),
+                or(constantTrue(), constantFalse()),
+                not(constantTrue()),
+                inlineIf(constantTrue(), constantInt(1), constantInt(2)),
+                length(array),
+                get(array, constantInt(0)),
+                set(array, constantInt(0), constantInt(3)),
+                getStatic(System.class, "out").invoke("println", void.class, constantString("hello")),
+                invokeStatic(Math.class, "max", int.class, constantInt(1), constantInt(2)),
+                setStatic(System.class, "out", getStatic(System.class, "err")),
+                newInstance(StringBuilder.class, constantString("hello")).invoke("length", int.class),
+                constantLong(1).pop(),
+                constantString("hello").ret());
+
+        for (BytecodeExpression expression : expressions) {
+            MethodNode direct = new MethodNode();
+            expression.accept(direct, new MethodGenerationContext(direct));
+
+            MethodNode tree = new MethodNode();
+            expression.getBytecode(new MethodGenerationContext(tree)).accept(tree, new MethodGenerationContext(tree));
+
+            assertThat(describe(direct)).isEqualTo(describe(tree));
+        }
+    }
+
+    private static List<String> describe(MethodNode method)
+    {
+        Map<LabelNode, Integer> labels = new IdentityHashMap<>();
+        for (AbstractInsnNode instruction : method.instructions) {
+            if (instruction instanceof LabelNode label) {
+                labels.put(label, labels.size());
+            }
+        }
+
+        List<String> instructions = new ArrayList<>();
+        for (AbstractInsnNode instruction : method.instructions) {
+            if (instruction instanceof LabelNode label) {
+                instructions.add("label " + labels.get(label));
+            }
+            else if (instruction instanceof JumpInsnNode jump) {
+                instructions.add(jump.getOpcode() + " " + labels.get(jump.label));
+            }
+            else if (instruction instanceof MethodInsnNode invoke) {
+                instructions.add(invoke.getOpcode() + " " + invoke.owner + "." + invoke.name + invoke.desc);
+            }
+            else if (instruction instanceof FieldInsnNode field) {
+                instructions.add(field.getOpcode() + " " + field.owner + "." + field.name + field.desc);
+            }
+            else if (instruction instanceof TypeInsnNode typeInstruction) {
+                instructions.add(typeInstruction.getOpcode() + " " + typeInstruction.desc);
+            }
+            else {
+                instructions.add(String.valueOf(instruction.getOpcode()));
+            }
+        }
+        return instructions;
+    }
+}